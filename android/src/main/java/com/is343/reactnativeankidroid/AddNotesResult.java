@@ -0,0 +1,113 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+/**
+ * Totals and per chunk results of adding many notes. Chunks are added by the job while JS may read
+ * the progress, so all access is synchronized
+ */
+class AddNotesResult implements Job.Result {
+  private static class Chunk {
+    final int start;
+    final int size;
+    final int added;
+    final int failed;
+    final List<Integer> failedRows;
+    final List<Integer> duplicateRows;
+    final String error;
+    final boolean replayed;
+
+    Chunk(int start, int size, int added, int failed, List<Integer> failedRows, List<Integer> duplicateRows,
+        String error, boolean replayed) {
+      this.start = start;
+      this.size = size;
+      this.added = added;
+      this.failed = failed;
+      this.failedRows = failedRows;
+      this.duplicateRows = duplicateRows;
+      this.error = error;
+      this.replayed = replayed;
+    }
+  }
+
+  private final List<Chunk> chunks = new ArrayList<>();
+  private final List<Integer> failedRows = new ArrayList<>();
+  private final List<Integer> duplicateRows = new ArrayList<>();
+  private int added;
+  private int failed;
+  private int replayed;
+
+  /**
+   * @param start index of the first row of the chunk
+   * @param size number of rows in the chunk
+   * @param chunkAdded
+   * @param chunkFailed
+   * @param chunkFailedRows rows that are known to have failed
+   * @param chunkDuplicateRows rows that were skipped as duplicates
+   * @param error the error if the whole chunk failed, otherwise null
+   */
+  synchronized void addChunk(int start, int size, int chunkAdded, int chunkFailed, List<Integer> chunkFailedRows,
+      List<Integer> chunkDuplicateRows, String error) {
+    chunks.add(new Chunk(start, size, chunkAdded, chunkFailed, chunkFailedRows, chunkDuplicateRows, error, false));
+    failedRows.addAll(chunkFailedRows);
+    duplicateRows.addAll(chunkDuplicateRows);
+    added += chunkAdded;
+    failed += chunkFailed;
+  }
+
+  /**
+   * Add a chunk that was already added by an earlier call with the same idempotency key. Only the
+   * number of added notes was recorded, the other rows of the chunk count as failed
+   * @param start index of the first row of the chunk
+   * @param size number of rows in the chunk
+   * @param chunkAdded notes added by the earlier call
+   */
+  synchronized void addReplayedChunk(int start, int size, int chunkAdded) {
+    List<Integer> none = new ArrayList<>();
+    chunks.add(new Chunk(start, size, chunkAdded, size - chunkAdded, none, none, null, true));
+    added += chunkAdded;
+    failed += size - chunkAdded;
+    replayed += chunkAdded;
+  }
+
+  @Override
+  public synchronized WritableMap toWritableMap() {
+    WritableArray chunkResults = new WritableNativeArray();
+    for (Chunk chunk : chunks) {
+      WritableMap chunkResult = new WritableNativeMap();
+      chunkResult.putInt("start", chunk.start);
+      chunkResult.putInt("size", chunk.size);
+      chunkResult.putInt("added", chunk.added);
+      chunkResult.putInt("failed", chunk.failed);
+      chunkResult.putArray("failedRows", toWritableArray(chunk.failedRows));
+      chunkResult.putInt("duplicates", chunk.duplicateRows.size());
+      chunkResult.putArray("duplicateRows", toWritableArray(chunk.duplicateRows));
+      chunkResult.putString("error", chunk.error);
+      chunkResult.putBoolean("replayed", chunk.replayed);
+      chunkResults.pushMap(chunkResult);
+    }
+    WritableMap result = new WritableNativeMap();
+    result.putInt("added", added);
+    result.putInt("failed", failed);
+    result.putArray("failedRows", toWritableArray(failedRows));
+    result.putInt("duplicates", duplicateRows.size());
+    result.putArray("duplicateRows", toWritableArray(duplicateRows));
+    result.putInt("replayed", replayed);
+    result.putArray("chunks", chunkResults);
+    return result;
+  }
+
+  private static WritableArray toWritableArray(List<Integer> rows) {
+    WritableArray array = new WritableNativeArray();
+    for (Integer row : rows) {
+      array.pushInt(row);
+    }
+    return array;
+  }
+}
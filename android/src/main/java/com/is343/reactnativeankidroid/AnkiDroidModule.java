@@ -1,420 +1,2616 @@
-
 package com.is343.reactnativeankidroid;
 
 import android.content.Context;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import android.util.SparseArray;
+import android.database.Cursor;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.BroadcastReceiver;
+import android.content.pm.PackageManager;
+import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
 
 import android.os.Build;
+import android.text.Html;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableNativeArray;
 import com.facebook.react.bridge.WritableNativeMap;
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.LifecycleEventListener;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
+import com.ichi2.anki.FlashCardsContract;
 import com.ichi2.anki.api.AddContentApi;
 import com.ichi2.anki.api.NoteInfo;
 
 import static com.ichi2.anki.api.AddContentApi.READ_WRITE_PERMISSION;
 
-public class AnkiDroidModule extends ReactContextBaseJavaModule {
-  private AddContentApi mApi;
+public class AnkiDroidModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
+  private volatile AddContentApi mApi;
   private Context mContext;
 
   private final ReactApplicationContext reactContext;
   private final String FAILED_TO_CREATE_DECK = "FAILED_TO_CREATE_DECK";
   private final String FAILED_TO_CREATE_MODEL = "FAILED_TO_CREATE_MODEL";
   private final String FAILED_TO_ADD_NOTE = "FAILED_TO_ADD_NOTE";
+  // the note of a batched call may have been added, but its ID could not be found
+  private final String NOTE_ID_UNKNOWN = "NOTE_ID_UNKNOWN";
+  // a note ID of findAddedNoteIds for a note that can not be told apart, AnkiDroid IDs are positive
+  private static final long UNKNOWN_NOTE_ID = -1;
+  private final int DEFAULT_CHUNK_SIZE = 250;
+  private final String BUSY = "BUSY";
+  private final String IMPORT_PROGRESS_EVENT = "AnkiDroidImportProgress";
+  private final String METRICS_EVENT = "AnkiDroidMetrics";
+  private final String OFFLINE_REPLAY_EVENT = "AnkiDroidOfflineReplay";
+  // resolved instead of a note ID when the note was queued in the offline journal
+  private final String QUEUED = "QUEUED";
+  // a single writer keeps the notes in the order they were sent
+  private static final int DEFAULT_WRITE_THREADS = 1;
+  private static final int DEFAULT_WRITE_QUEUE_SIZE = 1000;
+  private static final int DEFAULT_READ_THREADS = 2;
+  private static final int DEFAULT_READ_QUEUE_SIZE = 100;
+  private static final int DEFAULT_MEDIA_CONCURRENCY = 4;
+  private static final int MAX_MEDIA_CONCURRENCY = 8;
+  private static final int MAX_MEDIA_CACHE_ENTRIES = 10000;
+  private static final int DEFAULT_MEDIA_QUALITY = 85;
+  // each thread holds a decoded image, which can be large
+  private static final int MEDIA_PROCESSOR_THREADS = 2;
+  private static final int MEDIA_PROCESSOR_QUEUE_SIZE = 100;
+  private static final int MAX_JOURNAL_ENTRIES = 10000;
+  // the notes of a batch are held in memory while a file is imported
+  private static final int MAX_IMPORT_BATCH_SIZE = 5000;
+  // separates the parts of the journal keys, never part of a client key
+  private static final char KEY_SEPARATOR = '\u001F';
+  // AnkiDroid joins the fields of a note with it
+  private static final String FIELD_SEPARATOR = "\u001F";
+  private static final int DEFAULT_NOTE_PAGE_SIZE = 500;
+  private static final int MAX_NOTE_PAGE_SIZE = 5000;
+  // each open cursor holds a window of rows shared with AnkiDroid
+  private static final int MAX_OPEN_CURSORS = 4;
+  private static final long CURSOR_IDLE_MILLIS = 5 * 60 * 1000;
+  private static final String REFERENCE_PREFS = "com.is343.reactnativeankidroid.references";
+  private static final String PROVISION_PREFS = "com.is343.reactnativeankidroid.provisions";
+  // new decks and models created within this time are saved with a single write
+  private static final long REFERENCE_FLUSH_DELAY_MILLIS = 1000;
+
+  private final NameIndex deckIndex = new NameIndex(new NameIndex.Loader() {
+    @Override
+    public Map<Long, String> load() {
+      return checkApiResult(getApi().getDeckList());
+    }
+  }, true);
+  private final NameIndex modelIndex = new NameIndex(new NameIndex.Loader() {
+    @Override
+    public Map<Long, String> load() {
+      return checkApiResult(getApi().getModelList(0));
+    }
+  }, false);
+  private final DeckTree deckTree = new DeckTree(new NameIndex.Loader() {
+    @Override
+    public Map<Long, String> load() {
+      return checkApiResult(getApi().getDeckList());
+    }
+  });
+  private final ModelCache modelCache = new ModelCache(new ModelCache.Loader() {
+    @Override
+    public ModelCache.Model load(long modelId) {
+      String name = getApi().getModelName(modelId);
+      String[] fields = name == null ? null : checkApiResult(getApi().getFieldList(modelId));
+      return fields == null ? null : new ModelCache.Model(modelId, name, fields);
+    }
+  });
+  private final Provisions.Resolver provisionResolver = new Provisions.Resolver() {
+    @Override
+    public Long findDeck(Provisions.Deck deck) {
+      return findDeckIdByName(deck.dbReference, deck.name);
+    }
+
+    @Override
+    public Long createDeck(Provisions.Deck deck) {
+      return getDeckIdOrCreateIfNew(deck.dbReference, deck.name);
+    }
+
+    @Override
+    public Long findModel(Provisions.Model model) {
+      return findModelIdByName(model.dbReference, model.name, model.fields.length);
+    }
+
+    @Override
+    public Long createModel(Provisions.Model model, Long deckId) {
+      return getModelIdOrCreateIfNew(model.dbReference, model.name, model.fields, deckId, model.cardNames,
+          model.questionFormat, model.answerFormat, model.css);
+    }
+
+    @Override
+    public String[] getFields(long modelId) {
+      ModelCache.Model model = getModel(modelId, -1);
+      return model == null ? null : model.fields;
+    }
+  };
+
+  private final OfflineReplay.Collection replayCollection = new OfflineReplay.Collection() {
+    @Override
+    public boolean isReady() {
+      return isApiReady();
+    }
+
+    @Override
+    public long[] resolve(OfflineReplay.QueuedNote note) {
+      NoteTarget target = resolveTarget(note.deckName, note.deckId, note.modelName, note.modelId,
+          note.dbDeckReference, note.dbModelReference, note.modelFields, note.cardNames, note.questionFormat,
+          note.answerFormat, note.css, -1);
+      return target.error != null ? null : new long[] { target.deckId, target.modelId };
+    }
+
+    @Override
+    public Long addNote(long modelId, long deckId, String[] fields, Set<String> tags) {
+      return checkApiResult(getApi().addNote(modelId, deckId, fields, tags));
+    }
+
+    @Override
+    public int addNotes(long modelId, long deckId, List<String[]> fields, List<Set<String>> tags) {
+      return getApi().addNotes(modelId, deckId, fields, tags);
+    }
+
+    @Override
+    public List<Long> findNotes(long modelId, String firstField) {
+      SparseArray<List<NoteInfo>> notes = checkApiResult(getApi().findDuplicateNotes(modelId,
+          Collections.singletonList(firstField)));
+      if (notes == null) {
+        return null;
+      }
+      List<Long> noteIds = new ArrayList<>();
+      for (int index = 0; index < notes.size(); index++) {
+        for (NoteInfo note : notes.valueAt(index)) {
+          noteIds.add(note.getId());
+        }
+      }
+      return noteIds;
+    }
+
+    @Override
+    public String addMedia(File file, String preferredName, String mimeType)
+        throws IOException, InterruptedException {
+      try {
+        return uploadMediaFile(file, preferredName, mimeType);
+      } catch (RuntimeException e) {
+        onApiError(e);
+        throw e;
+      }
+    }
+  };
+
+  private final TaskQueue writeQueue = new TaskQueue("AnkiDroidWrite", DEFAULT_WRITE_THREADS, DEFAULT_WRITE_QUEUE_SIZE);
+  private final TaskQueue readQueue = new TaskQueue("AnkiDroidRead", DEFAULT_READ_THREADS, DEFAULT_READ_QUEUE_SIZE);
+  private final JobRegistry jobs = new JobRegistry();
+  private final Metrics metrics = new Metrics();
+  private final DuplicateFilter.Finder duplicateFinder = new DuplicateFilter.Finder() {
+    @Override
+    public int[] find(long modelId, List<String> keys) {
+      long start = metrics.start();
+      SparseArray<List<NoteInfo>> duplicateNotes = checkApiResult(getApi().findDuplicateNotes(modelId, keys));
+      metrics.record("stage.findDuplicates", start, duplicateNotes == null);
+      if (duplicateNotes == null) {
+        return null;
+      }
+      int[] indices = new int[duplicateNotes.size()];
+      for (int i = 0; i < indices.length; i++) {
+        indices[i] = duplicateNotes.keyAt(i);
+      }
+      return indices;
+    }
+  };
+  private final FieldChecksum fieldChecksum;
+  private final DuplicateFilter duplicateFilter = new DuplicateFilter(duplicateFinder);
+  private final NoteUpdater noteUpdater = new NoteUpdater(new NoteUpdater.Store() {
+    @Override
+    public Map<Long, NoteUpdater.Note> get(List<Long> noteIds) {
+      return readNotes(noteIds);
+    }
+
+    @Override
+    public boolean updateFields(NoteUpdater.Note note, String[] fields) {
+      return getApi().updateNoteFields(note.id, fields);
+    }
+
+    @Override
+    public boolean updateTags(NoteUpdater.Note note, Set<String> tags) {
+      return getApi().updateNoteTags(note.id, tags);
+    }
+  }, metrics);
+  private final NoteImporter noteImporter = new NoteImporter(new NoteImporter.Collection() {
+    @Override
+    public int addNotes(long modelId, long deckId, List<String[]> fields, List<Set<String>> tags) {
+      try {
+        return getApi().addNotes(modelId, deckId, fields, tags);
+      } catch (RuntimeException e) {
+        onApiError(e);
+        // the model may have been changed, load it again for the next lookup
+        modelCache.remove(modelId);
+        throw e;
+      }
+    }
+
+    @Override
+    public void onProgress(ImportProgress progress) {
+      sendEvent(IMPORT_PROGRESS_EVENT, progress.toWritableMap());
+    }
+  }, duplicateFilter, metrics);
+  private ScheduledThreadPoolExecutor metricsReporter;
+  private ScheduledFuture<?> metricsReport;
+  // flushed on the write queue only, before every other write, so batched notes keep their order
+  private final NoteBatcher<PendingNote> noteBatcher = new NoteBatcher<>(new NoteBatcher.Flusher<PendingNote>() {
+    @Override
+    public void flush(long modelId, long deckId, List<PendingNote> notes) {
+      addNoteBatch(modelId, deckId, notes);
+    }
+
+    @Override
+    public void due() {
+      boolean queued = writeQueue.execute(new Runnable() {
+        @Override
+        public void run() {
+          noteBatcher.flushAll();
+        }
+      });
+      if (!queued) {
+        metrics.increment("queue." + writeQueue.name + ".busy", 1);
+        String message = "Too many pending operations, retry after " + writeQueue.retryAfterMillis() + " ms";
+        for (PendingNote note : noteBatcher.takeAll()) {
+          note.promise.reject(BUSY, message);
+        }
+      }
+    }
+  });
+  private final NotePager notePager = new NotePager(new NotePager.Source() {
+    @Override
+    public Cursor query(String[] projection, String search) {
+      return checkApiResult(mContext.getContentResolver().query(FlashCardsContract.Note.CONTENT_URI, projection,
+          search, null, FlashCardsContract.Note._ID));
+    }
+  }, metrics, MAX_OPEN_CURSORS, CURSOR_IDLE_MILLIS);
+  private final MediaCache mediaCache;
+  // shrinks images before they are copied, null while media is copied as it is
+  private volatile MediaProcessor mediaProcessor;
+  private final OperationJournal operations;
+  private final WriteJournal writeJournal;
+  private final OfflineReplay offlineReplay;
+  private volatile boolean offlineWrites;
+  private final AtomicBoolean replayScheduled = new AtomicBoolean();
+  private final ReferenceStore references;
+  // decks and models registered with #provision, by handle
+  private final Provisions provisions;
+  private final ApiStatus apiStatus = new ApiStatus(new ApiStatus.Checker() {
+    @Override
+    public boolean isAvailable() {
+      return AddContentApi.getAnkiDroidPackageName(mContext) != null;
+    }
+
+    @Override
+    public boolean isPermissionGranted() {
+      return ContextCompat.checkSelfPermission(mContext, READ_WRITE_PERMISSION) == PackageManager.PERMISSION_GRANTED;
+    }
+  });
+  // drops the cached API and lists when AnkiDroid is installed, updated or removed
+  private final BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+      apiStatus.invalidate();
+      mApi = null;
+      invalidateCaches();
+      // AnkiDroid may have just been installed
+      scheduleReplay();
+    }
+  };
+  private boolean packageReceiverRegistered;
 
   public AnkiDroidModule(ReactApplicationContext reactContext) {
     super(reactContext);
     this.reactContext = reactContext;
     mContext = reactContext.getApplicationContext();
-    mApi = new AddContentApi(mContext);
-  }
+    mediaCache = new MediaCache(new File(mContext.getFilesDir(), "ankidroid_media_cache.tsv"), MAX_MEDIA_CACHE_ENTRIES);
+    operations = new OperationJournal(new File(mContext.getFilesDir(), "ankidroid_operations.tsv"), MAX_JOURNAL_ENTRIES);
+    writeJournal = new WriteJournal(new File(mContext.getFilesDir(), "ankidroid_offline"));
+    offlineReplay = new OfflineReplay(replayCollection, writeJournal, operations, metrics, DEFAULT_CHUNK_SIZE);
+    fieldChecksum = new FieldChecksum(new FieldChecksum.EntityDecoder() {
+      @Override
+      public String decode(String entity) {
+        // the same decoding AnkiDroid uses for its first field checksums
+        return Html.fromHtml(entity).toString();
+      }
+    });
+    references = new ReferenceStore(new ReferenceStore.Storage() {
+      @Override
+      public Map<String, Long> loadAll() {
+        return getLongs(mContext.getSharedPreferences(REFERENCE_PREFS, Context.MODE_PRIVATE));
+      }
 
-  @Override
-  public String getName() {
-    return "AnkiDroidModule";
-  }
+      @Override
+      public Map<String, Long> loadLegacy(String reference) {
+        return getLongs(mContext.getSharedPreferences(reference, Context.MODE_PRIVATE));
+      }
 
-  public AddContentApi getApi() {
-    return mApi;
-  }
+      @Override
+      public void save(Map<String, Long> entries) {
+        SharedPreferences.Editor editor = mContext.getSharedPreferences(REFERENCE_PREFS, Context.MODE_PRIVATE).edit();
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+          editor.putLong(entry.getKey(), entry.getValue());
+        }
+        editor.apply();
+      }
+    }, REFERENCE_FLUSH_DELAY_MILLIS);
+    provisions = new Provisions(provisionResolver, new Provisions.Storage() {
+      @Override
+      public String load() {
+        return mContext.getSharedPreferences(PROVISION_PREFS, Context.MODE_PRIVATE).getString("manifest", null);
+      }
 
-  /**
-   * Get the correctly formatted String for the media file to be placed in the desired field of a Card
-   * @param fileUri Uri for the file to be added
-   * @param preferredName String to add to start of filename (do not use a file extension)
-   * @param mimeType String indicating the mimeType of the media. Accepts "audio" or "image"
-   */
-  @ReactMethod
-  public void uploadMediaFromUri(String fileUri, String preferredName, String mimeType, Promise promise) {
-    File file = new File(fileUri.replaceFirst("^file://", ""));
-    Uri uri = FileProvider.getUriForFile(mContext, mContext.getPackageName() + ".fileProvider", file);
-    mContext.grantUriPermission("com.ichi2.anki", uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
-    String formatMediaName = mApi.addMediaFromUri(uri, preferredName, mimeType);
-    mContext.revokeUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+      @Override
+      public void save(String manifest) {
+        mContext.getSharedPreferences(PROVISION_PREFS, Context.MODE_PRIVATE).edit().putString("manifest", manifest)
+            .apply();
+      }
+    });
+    reactContext.addLifecycleEventListener(this);
+    // load the references off the main thread before the first note is added
+    readQueue.execute(new Runnable() {
+      @Override
+      public void run() {
+        references.load();
+        // look up the registered decks and models before the first note is added with their handles
+        provisions.load();
+        if (isApiReady()) {
+          provisions.resolve(false);
+        }
+        // add the notes queued while AnkiDroid was not available before the app was closed
+        scheduleReplay();
+        // the local first field index of earlier versions, duplicates are always looked up in AnkiDroid
+        deleteFiles(new File(mContext.getFilesDir(), "ankidroid_duplicate_index"));
+      }
+    });
+  }
 
-    if (formatMediaName == null) {
-      promise.reject("Failed to upload the file. URI: " + fileUri + "; preferredName: " + preferredName + "; mimeType: " + mimeType);
+  private static void deleteFiles(File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) {
       return;
     }
-
-    promise.resolve(formatMediaName);
+    for (File file : files) {
+      file.delete();
+    }
+    dir.delete();
   }
 
-  /**
-   * Returns the AnkiDroid AddContentApi permission name
-   */
-  @ReactMethod
-  public void getPermissionName(Promise promise) {
-    try {
-      promise.resolve(READ_WRITE_PERMISSION);
-    } catch (Exception e) {
-      promise.reject(e.toString());
+  private static Map<String, Long> getLongs(SharedPreferences prefs) {
+    Map<String, Long> longs = new HashMap<>();
+    for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+      if (entry.getValue() instanceof Long) {
+        longs.put(entry.getKey(), (Long) entry.getValue());
+      }
     }
+    return longs;
   }
 
-  /**
-   * Returns the name of the currently selected deck
-   */
-  @ReactMethod
-  public void getSelectedDeckName(Promise promise) {
-    try {
-      String deckName = getApi().getSelectedDeckName();
-      promise.resolve(deckName);
-    } catch (Exception e) {
-      promise.reject(e.toString());
-    }
+  @Override
+  public String getName() {
+    return "AnkiDroidModule";
   }
 
-  /**
-   * Check if the AnkiDroid API is available on the phone
-   * @return true if the API is available to use
-   */
-  @ReactMethod
-  public void isApiAvailable(Promise promise) {
-    try {
-      promise.resolve(isApiAvailable(this.reactContext));
-    } catch (Exception e) {
-      promise.reject(e.toString());
+  @Override
+  public void onCatalystInstanceDestroy() {
+    // nobody is left to see the results of the running jobs
+    for (Job job : jobs.active()) {
+      job.cancel();
+    }
+    // the batched notes are added on the write queue, after the writes queued before them
+    boolean flushQueued = writeQueue.execute(new Runnable() {
+      @Override
+      public void run() {
+        noteBatcher.shutdown();
+      }
+    });
+    if (!flushQueued) {
+      for (PendingNote note : noteBatcher.takeAll()) {
+        note.promise.reject(BUSY, "The module was destroyed before the note could be added");
+      }
+      noteBatcher.shutdown();
+    }
+    notePager.closeAll();
+    configureMediaProcessor(null);
+    writeQueue.shutdown();
+    readQueue.shutdown();
+    references.close();
+    synchronized (metrics) {
+      if (metricsReporter != null) {
+        metricsReporter.shutdownNow();
+      }
+    }
+    synchronized (packageReceiver) {
+      if (packageReceiverRegistered) {
+        mContext.unregisterReceiver(packageReceiver);
+        packageReceiverRegistered = false;
+      }
     }
   }
 
-  /**
-   * Whether or not the API is available to use. The API could be unavailable if
-   * AnkiDroid is not installed or the user explicitly disabled the API
-   * @return true if the API is available to use
-   */
-  private static boolean isApiAvailable(ReactApplicationContext context) {
-    return AddContentApi.getAnkiDroidPackageName(context) != null;
+  @Override
+  public void onHostResume() {
+    // the permission may have been granted in the meantime
+    scheduleReplay();
+  }
+
+  @Override
+  public void onHostPause() {
+    // the app may be killed while in the background
+    references.flush();
+  }
+
+  @Override
+  public void onHostDestroy() {
+    references.flush();
   }
 
   /**
-   * converts ReadableArrays to a useable String[]
-   * @param incomingReadableArray
-   * @return might be null if there was a problem
+   * @return the API, created on first use so it is not part of the app start
    */
-  private String[] convertReadableArray(ReadableArray incomingReadableArray) {
-    try {
-      String[] array = new String[incomingReadableArray.size()];
-      for (int index = 0; index < incomingReadableArray.size(); index++) {
-        array[index] = incomingReadableArray.getString(index);
+  public AddContentApi getApi() {
+    AddContentApi api = mApi;
+    if (api == null) {
+      synchronized (this) {
+        api = mApi;
+        if (api == null) {
+          api = new AddContentApi(mContext);
+          mApi = api;
+        }
       }
-      return array;
-    } catch (Exception e) {
-      return null;
     }
+    return api;
   }
 
   /**
-   * get the deck id or create if it is a new deck
-   * @param dbDeckReference
-   * @param deckName
-   * @return might be null if there was a problem, or to return the default deck
+   * @return the cached API status, listening for package changes from the first call on
    */
-  private Long getDeckIdOrCreateIfNew(String dbDeckReference, String deckName) {
-    Long did = findDeckIdByName(dbDeckReference, deckName);
-    if (did == null) {
-      did = getApi().addNewDeck(deckName);
-      storeDeckReference(dbDeckReference, deckName, did);
+  private ApiStatus getApiStatus() {
+    synchronized (packageReceiver) {
+      if (!packageReceiverRegistered) {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(packageReceiver, filter);
+        packageReceiverRegistered = true;
+      }
     }
-    return did;
+    return apiStatus;
   }
 
   /**
-   * get model id or create if it is a new model
-   * @param dbModelReference
-   * @param deckId
-   * @param modelName
-   * @param modelFields
-   * @param cardNames
-   * @param questionFormat
-   * @param answerFormat
-   * @param css - null for default CSS.
-   * @return might be null if there was an error
+   * Drop the cached API status when a provider call returned null, e.g. because the API was
+   * disabled in AnkiDroid, which sends no broadcast
+   * @param result of the provider call
+   * @return the result
    */
-  private Long getModelIdOrCreateIfNew(String dbModelReference, String modelName, String[] modelFields, Long deckId,
-      String[] cardNames, String[] questionFormat, String[] answerFormat, String css) {
-    Long mid = findModelIdByName(dbModelReference, modelName, modelFields.length);
-    if (mid == null) {
-      mid = getApi().addNewCustomModel(modelName, modelFields, cardNames, questionFormat, answerFormat, css, deckId,
-          null);
-      storeModelReference(dbModelReference, modelName, mid);
+  private <T> T checkApiResult(T result) {
+    if (result == null) {
+      apiStatus.invalidate();
     }
-    return mid;
+    return result;
   }
 
   /**
-   * Save a mapping from deckName to getDeckId in the SharedPreferences
-   * @param dbDeckReference
-   * @param deckName
-   * @param deckId
+   * Drop the cached API status when a provider call was refused
+   * @param e the error of the call
    */
-  public void storeDeckReference(String dbDeckReference, String deckName, long deckId) {
-    final SharedPreferences decksDb = mContext.getSharedPreferences(dbDeckReference, Context.MODE_PRIVATE);
-    decksDb.edit().putLong(deckName, deckId).apply();
+  private void onApiError(Exception e) {
+    if (e instanceof SecurityException) {
+      apiStatus.invalidate();
+    }
   }
 
   /**
-   * Save a mapping from modelName to modelId in the SharedPreferences
-   * @param dbModelReference
-   * @param modelName
-   * @param modelId
+   * Reject the promise with the error, dropping the cached API status if the provider refused the call
+   * @param promise
+   * @param e
    */
-  public void storeModelReference(String dbModelReference, String modelName, long modelId) {
-    final SharedPreferences modelsDb = mContext.getSharedPreferences(dbModelReference, Context.MODE_PRIVATE);
-    modelsDb.edit().putLong(modelName, modelId).apply();
+  private void reject(Promise promise, Exception e) {
+    onApiError(e);
+    promise.reject(e.toString());
   }
 
   /**
-   * Remove the duplicates from a list of note fields and tags
-   * @param fields List of fields to remove duplicates from
-   * @param tags List of tags to remove duplicates from
-   * @param modelId ID of model to search for duplicates on
+   * Get the correctly formatted String for the media file to be placed in the desired field of a Card.
+   * Content that was uploaded before is not copied again, the cached String is returned instead
+   * @param fileUri Uri for the file to be added
+   * @param preferredName String to add to start of filename (do not use a file extension)
+   * @param mimeType String indicating the mimeType of the media. Accepts "audio" or "image"
    */
-  public void removeDuplicates(LinkedList<String[]> fields, LinkedList<Set<String>> tags, long modelId) {
-    // Build a list of the duplicate keys (first fields) and find all notes that
-    // have a match with each key
-    List<String> keys = new ArrayList<>(fields.size());
-    int counter = 0;
-    for (String[] f : fields) {
-      keys.add(f[counter]);
-      counter++;
-    }
-    SparseArray<List<NoteInfo>> duplicateNotes = getApi().findDuplicateNotes(modelId, keys);
-
-    // Do some sanity checks
-    if (tags.size() != fields.size()) {
-      throw new IllegalStateException("List of tags must be the same length as the list of fields");
-    }
-    if (duplicateNotes == null || duplicateNotes.size() == 0 || fields.size() == 0 || tags.size() == 0) {
+  @ReactMethod
+  public void uploadMediaFromUri(final String fileUri, final String preferredName, final String mimeType, final Promise promise) {
+    final MediaProcessor processor = mediaProcessor;
+    if (processor != null && "image".equals(mimeType)) {
+      // rejected with BUSY once the processor has too many images waiting
+      run(processor.queue, "uploadMediaFromUri.process", promise, new Runnable() {
+        @Override
+        public void run() {
+          uploadProcessedMedia(processor, fileUri, preferredName, mimeType, promise);
+        }
+      });
       return;
     }
-    if (duplicateNotes.keyAt(duplicateNotes.size() - 1) >= fields.size()) {
-      throw new IllegalStateException("The array of duplicates goes outside the bounds of the original lists");
-    }
-    // Iterate through the fields and tags LinkedLists, removing those that had a
-    // duplicate
-    ListIterator<String[]> fieldIterator = fields.listIterator();
-    ListIterator<Set<String>> tagIterator = tags.listIterator();
-    int listIndex = -1;
-    for (int i = 0; i < duplicateNotes.size(); i++) {
-      int duplicateIndex = duplicateNotes.keyAt(i);
-      while (listIndex < duplicateIndex) {
-        fieldIterator.next();
-        tagIterator.next();
-        listIndex++;
+    runWrite("uploadMediaFromUri", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          File file = getMediaFile(fileUri);
+          if (offlineWrites && !isApiReady()) {
+            if (!file.isFile()) {
+              throw new FileNotFoundException(file.getPath());
+            }
+            String placeholder = offlineReplay.queueMedia(fileUri, preferredName, mimeType);
+            scheduleReplay();
+            promise.resolve(placeholder);
+            return;
+          }
+          String formatMediaName = uploadMediaFile(file, preferredName, mimeType);
+          if (formatMediaName == null) {
+            promise.reject("Failed to upload the file. URI: " + fileUri + "; preferredName: " + preferredName + "; mimeType: " + mimeType);
+            return;
+          }
+
+          promise.resolve(formatMediaName);
+        } catch (Exception e) {
+          reject(promise, e);
+        }
       }
-      fieldIterator.remove();
-      tagIterator.remove();
-    }
+    });
   }
 
   /**
-   * Try to find the given model by name, accounting for renaming of the model: If
-   * there's a model with this modelName that is known to have previously been
-   * created (by this app) and the corresponding model ID exists and has the
-   * required number of fields then return that ID (even though it may have since
-   * been renamed) If there's a model from #getModelList with modelName and
-   * required number of fields then return its ID Otherwise return null
-   * @param dbModelReference
-   * @param modelName the name of the model to find
-   * @param numFields the minimum number of fields the model is required to have
-   * @return the model ID or null if something went wrong
+   * Hash and shrink an image on the queue of the processor, so only the copy into AnkiDroid waits on
+   * the write queue. Content that was uploaded before resolves without waiting for the queue
    */
-  private Long findModelIdByName(String dbModelReference, String modelName, int numFields) {
-    SharedPreferences modelsDb = mContext.getSharedPreferences(dbModelReference, Context.MODE_PRIVATE);
-    long prefsModelId = modelsDb.getLong(modelName, -1L);
-    // if we have a reference saved to modelName and it exists and has at least
-    // numFields then return it
-    if ((prefsModelId != -1L) && (getApi().getModelName(prefsModelId) != null) && (getApi().getFieldList(prefsModelId) != null)
-        && (getApi().getFieldList(prefsModelId).length >= numFields)) { // could potentially have been renamed
-      return prefsModelId;
-    }
-    Long mid = _getModelId(modelName, numFields);
-    return mid;
+  private void uploadProcessedMedia(MediaProcessor processor, final String fileUri, final String preferredName,
+      final String mimeType, final Promise promise) {
+    final File file;
+    final String key;
+    final MediaProcessor.Processed processed;
+    try {
+      file = getMediaFile(fileUri);
+      key = MediaCache.key(hashMedia(file), mimeType);
+      String cached = mediaCache.get(key);
+      metrics.increment(cached != null ? "media.cacheHits" : "media.cacheMisses", 1);
+      if (cached != null) {
+        promise.resolve(cached);
+        return;
+      }
+      processed = processMedia(processor, file, true);
+    } catch (Exception e) {
+      reject(promise, e);
+      return;
+    }
+    boolean queued = false;
+    try {
+      queued = runWrite("uploadMediaFromUri", promise, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (offlineWrites && !isApiReady()) {
+              // the original is queued, the processed image is only kept until it was copied
+              String placeholder = offlineReplay.queueMedia(fileUri, preferredName, mimeType);
+              scheduleReplay();
+              promise.resolve(placeholder);
+              return;
+            }
+            String formatMediaName = addProcessedMedia(file, processed, preferredName, mimeType).name;
+            if (formatMediaName == null) {
+              promise.reject("Failed to upload the file. URI: " + fileUri + "; preferredName: " + preferredName + "; mimeType: " + mimeType);
+              return;
+            }
+            mediaCache.put(key, formatMediaName);
+            promise.resolve(formatMediaName);
+          } catch (Exception e) {
+            reject(promise, e);
+          } finally {
+            processed.delete();
+          }
+        }
+      });
+    } finally {
+      // the write task deletes the processed image once it was copied
+      if (!queued) {
+        processed.delete();
+      }
+    }
   }
 
   /**
-   * Try to find the given deck by name, accounting for potential renaming of the
-   * deck by the user as follows: If there's a deck with deckName then return it's
-   * ID If there's no deck with deckName, but a ref to deckName is stored in
-   * SharedPreferences, and that deck exist in AnkiDroid (i.e. it was renamed),
-   * then use that deck.Note: this deck will not be found if your app is
-   * re-installed If there's no reference to deckName anywhere then return null
-   * @param dbDeckReference
-   * @param deckName the name of the deck to find
-   * @return the did of the deck in Anki
+   * Copy a file into AnkiDroid, unless the same content was uploaded before
+   * @param file
+   * @param preferredName
+   * @param mimeType
+   * @return the formatted media name, or null if AnkiDroid did not accept the file
+   * @throws IOException if the file can not be read
    */
-  private Long findDeckIdByName(String dbDeckReference, String deckName) {
-    SharedPreferences decksDb = mContext.getSharedPreferences(dbDeckReference, Context.MODE_PRIVATE);
-    // Look for deckName in the deck list
-    Long did = _getDeckId(deckName);
-    if (did != null) {
-      // If the deck was found then return its ID
-      return did;
-    } else {
-      // Otherwise try to check if we have a reference to a deck that was renamed and
-      // return that
-      did = decksDb.getLong(deckName, -1);
-      if (did != -1 && getApi().getDeckName(did) != null) {
-        return did;
-      } else {
-        // If the deck really doesn't exist then return null
-        return null;
+  private String uploadMediaFile(File file, String preferredName, String mimeType)
+      throws IOException, InterruptedException {
+    String key = MediaCache.key(hashMedia(file), mimeType);
+    String formatMediaName = mediaCache.get(key);
+    metrics.increment(formatMediaName != null ? "media.cacheHits" : "media.cacheMisses", 1);
+    if (formatMediaName == null) {
+      formatMediaName = addProcessedMedia(file, preferredName, mimeType).name;
+      if (formatMediaName != null) {
+        mediaCache.put(key, formatMediaName);
       }
     }
+    return formatMediaName;
   }
 
   /**
-   * Get the ID of the deck which matches the name
-   * @param deckName Exact name of deck (note: deck names are unique in Anki)
-   * @return the ID of the deck that has given name, or null if no deck was found
-   *         or API error
+   * Shrink the images copied into AnkiDroid from now on, by scaling them down and compressing them
+   * again on a pool of their own. Content that was uploaded before keeps the name it got then
+   * @param options maxDimension (largest width or height in pixels, 0 or missing to keep the size),
+   *          format ("jpeg", "webp" or "original", missing to turn processing off), quality (0 to 100,
+   *          default 85)
    */
-  private Long _getDeckId(String deckName) {
-    Map<Long, String> deckList = getApi().getDeckList();
-    if (deckList != null) {
-      for (Map.Entry<Long, String> entry : deckList.entrySet()) {
-        if (entry.getValue().equalsIgnoreCase(deckName)) {
-          return entry.getKey();
-        }
+  @ReactMethod
+  public void configureMediaProcessing(ReadableMap options, Promise promise) {
+    try {
+      int maxDimension = getInt(options, "maxDimension", 0);
+      String format = getString(options, "format", null);
+      MediaProcessor processor = null;
+      if (format != null || maxDimension > 0) {
+        processor = new MediaProcessor(maxDimension,
+            MediaProcessor.Format.valueOf((format == null ? "original" : format).toUpperCase(Locale.ROOT)),
+            getInt(options, "quality", DEFAULT_MEDIA_QUALITY), MEDIA_PROCESSOR_THREADS, MEDIA_PROCESSOR_QUEUE_SIZE,
+            getReactApplicationContext().getCacheDir());
       }
+      configureMediaProcessor(processor);
+      promise.resolve(true);
+    } catch (Exception e) {
+      reject(promise, e);
     }
-    return null;
   }
 
-  /**
-   * Get the ID of the model which matches the name
-   * @param modelName Exact name of model
-   * @return the ID of the model that has given name, or null if no model was found
-   *         or API error
-   */
-  private Long _getModelId(String modelName, int numFields) {
-    Map<Long, String> modelList = getApi().getModelList(numFields);
-    if (modelList != null) {
-      for (Map.Entry<Long, String> entry : modelList.entrySet()) {
-        if (entry.getValue().equals(modelName)) {
-          return entry.getKey(); // first model wins
-        }
-      }
+  private synchronized void configureMediaProcessor(MediaProcessor processor) {
+    if (mediaProcessor != null) {
+      mediaProcessor.shutdown();
     }
-    // model no longer exists (by name nor old id), the number of fields was
-    // reduced, or API error
-    return null;
+    mediaProcessor = processor;
   }
 
   /**
-   * Gets all deck names and IDs
-   * @return an array of all deck names and IDs, or null if no decks were found
-   *         or API error
+   * Upload many media files, several at a time. Files with content that was uploaded before, or that
+   * is the same as another file of the batch, are only copied into AnkiDroid once
+   * @param media array of { fileUri, preferredName, mimeType }
+   * @param options concurrency (optional): number of files hashed and uploaded at the same time
    */
   @ReactMethod
-  public void getDeckList(Promise promise) {
+  public void uploadMediaBatch(ReadableArray media, ReadableMap options, Promise promise) {
     try {
-      Map<Long, String> deckList = getApi().getDeckList();
-      WritableArray deckArray = new WritableNativeArray();
-      if (deckList != null) {
-        for (Map.Entry<Long, String> entry : deckList.entrySet()) {
-        WritableMap deckMap = new WritableNativeMap();
-        deckMap.putString("id", entry.getKey().toString());
-        deckMap.putString("name", entry.getValue());
-        deckArray.pushMap(deckMap);
-        }
+      Job job = startJob("uploadMediaBatch", uploadMediaTask(media, options), promise);
+      if (job != null) {
+        job.waitFor(promise);
       }
-      promise.resolve(deckArray);
     } catch (Exception e) {
-      promise.reject(e.toString());
+      reject(promise, e);
     }
   }
 
   /**
-   * Gets all model names and IDs
-   * @return an array of all model names and IDs, or API error
+   * Same as uploadMediaBatch, but resolves with the job ID right away
    */
   @ReactMethod
-  public void getModelList(Promise promise) {
+  public void startUploadMediaBatch(ReadableArray media, ReadableMap options, Promise promise) {
     try {
-      Map<Long, String> modelList = getApi().getModelList(0); // search for the minimum number of fields required
-      WritableArray modelArray = new WritableNativeArray();
-      if (modelList != null) {
-        for (Map.Entry<Long, String> entry : modelList.entrySet()) {
-        WritableMap modelMap = new WritableNativeMap();
-        modelMap.putString("id", entry.getKey().toString());
-        modelMap.putString("name", entry.getValue());
-        modelArray.pushMap(modelMap);
-        }
+      Job job = startJob("uploadMediaBatch", uploadMediaTask(media, options), promise);
+      if (job != null) {
+        promise.resolve(job.id);
       }
-      promise.resolve(modelArray);
     } catch (Exception e) {
-      promise.reject(e.toString());
+      reject(promise, e);
     }
   }
 
   /**
-   * Gets all field names for a specific model
-   * @return an array of all fields, or API error
+   * Forget the content hashes of the uploaded media, e.g. after media was deleted in AnkiDroid
    */
   @ReactMethod
-  public void getFieldList(String modelName, String modelId, Promise promise) {
-    try {
-      WritableArray fieldArray = new WritableNativeArray();
-      // use the model ID if supplied
-      Long mid = modelId != null ? Long.parseLong(modelId) : _getModelId(modelName, 0);
-      String[] fieldList = getApi().getFieldList(mid);
-      if (fieldList != null) {
-        for (int index = 0; index < fieldList.length; index++) {
-          fieldArray.pushString(fieldList[index]);
+  public void clearMediaCache(final Promise promise) {
+    runWrite("clearMediaCache", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          mediaCache.clear();
+          promise.resolve(true);
+        } catch (Exception e) {
+          reject(promise, e);
         }
       }
-      promise.resolve(fieldArray);
-    } catch (Exception e) {
-      promise.reject(e.toString());
-    }
+    });
   }
 
   /**
-   * Create the new note and add it to the deck
+   * Convert the media list on the calling thread, as the bridge arrays should not be read later
+   */
+  private Job.Task uploadMediaTask(ReadableArray media, ReadableMap options) {
+    final String[] fileUris = new String[media.size()];
+    final String[] preferredNames = new String[media.size()];
+    final String[] mimeTypes = new String[media.size()];
+    for (int index = 0; index < media.size(); index++) {
+      ReadableMap file = media.getMap(index);
+      fileUris[index] = getString(file, "fileUri", null);
+      preferredNames[index] = getString(file, "preferredName", null);
+      mimeTypes[index] = getString(file, "mimeType", null);
+    }
+    final int concurrency = Math.max(1, Math.min(MAX_MEDIA_CONCURRENCY,
+        getInt(options, "concurrency", DEFAULT_MEDIA_CONCURRENCY)));
+    return new Job.Task() {
+      @Override
+      public Object run(Job job) throws Exception {
+        return uploadMedia(job, fileUris, preferredNames, mimeTypes, concurrency);
+      }
+    };
+  }
+
+  /**
+   * Hash all files, then upload each content that is not cached yet once. Files of the batch with
+   * the same content share the upload
+   */
+  private MediaBatchResult uploadMedia(final Job job, final String[] fileUris, final String[] preferredNames,
+      final String[] mimeTypes, int concurrency) throws InterruptedException {
+    final MediaBatchResult result = new MediaBatchResult(fileUris);
+    job.setProgress(result);
+    final String[] keys = new String[fileUris.length];
+    ExecutorService pool = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+      private int count;
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "AnkiDroidMedia-" + (++count));
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      List<Future<?>> hashes = new ArrayList<>(fileUris.length);
+      for (int index = 0; index < fileUris.length; index++) {
+        final int fileIndex = index;
+        hashes.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            if (job.isCancelled()) {
+              return null;
+            }
+            try {
+              if (fileUris[fileIndex] == null || mimeTypes[fileIndex] == null) {
+                throw new IllegalArgumentException("fileUri and mimeType are required");
+              }
+              keys[fileIndex] = MediaCache.key(hashMedia(getMediaFile(fileUris[fileIndex])), mimeTypes[fileIndex]);
+            } catch (Exception e) {
+              result.setError(fileIndex, e.toString());
+            }
+            return null;
+          }
+        }));
+      }
+      waitForAll(hashes);
+
+      // the files waiting for each content that is not cached yet
+      Map<String, List<Integer>> uploads = new LinkedHashMap<>();
+      for (int index = 0; index < fileUris.length; index++) {
+        if (keys[index] == null) {
+          continue;
+        }
+        String cached = mediaCache.get(keys[index]);
+        metrics.increment(cached != null ? "media.cacheHits" : "media.cacheMisses", 1);
+        if (cached != null) {
+          result.setName(index, cached, true, 0);
+          continue;
+        }
+        List<Integer> waiting = uploads.get(keys[index]);
+        if (waiting == null) {
+          waiting = new ArrayList<>();
+          uploads.put(keys[index], waiting);
+        }
+        waiting.add(index);
+      }
+
+      final Map<String, String> uploaded = new HashMap<>();
+      List<Future<?>> copies = new ArrayList<>(uploads.size());
+      for (final Map.Entry<String, List<Integer>> upload : uploads.entrySet()) {
+        copies.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            if (job.isCancelled()) {
+              return null;
+            }
+            List<Integer> waiting = upload.getValue();
+            int first = waiting.get(0);
+            String formatMediaName = null;
+            long bytesSaved = 0;
+            String error;
+            try {
+              AddedMedia added = addProcessedMedia(getMediaFile(fileUris[first]), preferredNames[first],
+                  mimeTypes[first]);
+              formatMediaName = added.name;
+              bytesSaved = added.bytesSaved;
+              error = "Failed to upload the file. URI: " + fileUris[first] + "; preferredName: "
+                  + preferredNames[first] + "; mimeType: " + mimeTypes[first];
+            } catch (Exception e) {
+              onApiError(e);
+              error = e.toString();
+            }
+            if (formatMediaName != null) {
+              synchronized (uploaded) {
+                uploaded.put(upload.getKey(), formatMediaName);
+              }
+            }
+            for (int index = 0; index < waiting.size(); index++) {
+              if (formatMediaName == null) {
+                result.setError(waiting.get(index), error);
+              } else {
+                // only the first file was copied, the others have the same content
+                result.setName(waiting.get(index), formatMediaName, index > 0, index > 0 ? 0 : bytesSaved);
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      try {
+        waitForAll(copies);
+      } finally {
+        synchronized (uploaded) {
+          mediaCache.putAll(uploaded);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return result;
+  }
+
+  private static void waitForAll(List<Future<?>> futures) throws InterruptedException {
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        // the tasks record their own errors
+      }
+    }
+  }
+
+  private static File getMediaFile(String fileUri) {
+    return new File(fileUri.replaceFirst("^file://", ""));
+  }
+
+  /**
+   * A file copied into AnkiDroid
+   */
+  private static class AddedMedia {
+    // null if AnkiDroid did not accept the file
+    final String name;
+    final long bytesSaved;
+
+    AddedMedia(String name, long bytesSaved) {
+      this.name = name;
+      this.bytesSaved = bytesSaved;
+    }
+  }
+
+  /**
+   * Copy a file into the AnkiDroid media folder, shrinking images first if media processing is on
+   * @param file
+   * @param preferredName
+   * @param mimeType
+   * @return the formatted media name and the bytes saved by processing
+   * @throws IOException if the processed image can not be written
+   * @throws InterruptedException
+   */
+  private AddedMedia addProcessedMedia(File file, String preferredName, String mimeType)
+      throws IOException, InterruptedException {
+    MediaProcessor processor = mediaProcessor;
+    if (processor == null || !"image".equals(mimeType)) {
+      return new AddedMedia(addMedia(file, preferredName, mimeType), 0);
+    }
+    MediaProcessor.Processed processed = processMedia(processor, file, false);
+    try {
+      return addProcessedMedia(file, processed, preferredName, mimeType);
+    } finally {
+      processed.delete();
+    }
+  }
+
+  /**
+   * Shrink an image. The processed image is written to the cache folder
+   * @param processor
+   * @param file
+   * @param onPool true if called on a thread of the processor, otherwise the image is processed on
+   *          the pool and this waits for it
+   * @return the processed image, delete it once it was copied
+   * @throws IOException if the processed image can not be written
+   * @throws InterruptedException
+   */
+  private MediaProcessor.Processed processMedia(MediaProcessor processor, File file, boolean onPool)
+      throws IOException, InterruptedException {
+    long start = metrics.start();
+    try {
+      return onPool ? processor.process(file) : processor.processOnPool(file);
+    } finally {
+      metrics.record("stage.mediaProcess", start);
+    }
+  }
+
+  /**
+   * Copy a processed image into the AnkiDroid media folder, or the original if the processed image
+   * can not be shared
+   * @param file the original
+   * @param processed
+   * @param preferredName
+   * @param mimeType
+   * @return the formatted media name and the bytes saved by processing
+   */
+  private AddedMedia addProcessedMedia(File file, MediaProcessor.Processed processed, String preferredName,
+      String mimeType) {
+    if (processed.file == file) {
+      return new AddedMedia(addMedia(file, preferredName, mimeType), 0);
+    }
+    String formatMediaName;
+    try {
+      formatMediaName = addMedia(processed.file, preferredName, mimeType);
+    } catch (IllegalArgumentException e) {
+      // the file provider of the app does not cover the cache folder
+      metrics.increment("media.processSkipped", 1);
+      return new AddedMedia(addMedia(file, preferredName, mimeType), 0);
+    }
+    if (formatMediaName != null) {
+      metrics.increment("media.bytesSaved", processed.bytesSaved);
+    }
+    return new AddedMedia(formatMediaName, formatMediaName == null ? 0 : processed.bytesSaved);
+  }
+
+  /**
+   * Copy a file into the AnkiDroid media folder
+   * @param file
+   * @param preferredName
+   * @param mimeType
+   * @return the formatted media name, or null if AnkiDroid did not accept the file
+   */
+  private String addMedia(File file, String preferredName, String mimeType) {
+    Uri uri = FileProvider.getUriForFile(mContext, mContext.getPackageName() + ".fileProvider", file);
+    mContext.grantUriPermission("com.ichi2.anki", uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+    long start = metrics.start();
+    try {
+      return checkApiResult(getApi().addMediaFromUri(uri, preferredName, mimeType));
+    } finally {
+      metrics.record("stage.mediaCopy", start);
+      mContext.revokeUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+    }
+  }
+
+  private String hashMedia(File file) throws IOException {
+    long start = metrics.start();
+    try {
+      return MediaCache.hash(file);
+    } finally {
+      metrics.record("stage.mediaHash", start);
+    }
+  }
+
+  /**
+   * Run an operation that changes the collection on the write queue, after the notes waiting in the
+   * NoteBatcher
+   * @param name of the operation for the metrics
+   * @param promise rejected with BUSY if the queue is full
+   * @param task
+   * @return false if the queue was full
+   */
+  private boolean runWrite(String name, Promise promise, final Runnable task) {
+    return run(writeQueue, name, promise, new Runnable() {
+      @Override
+      public void run() {
+        // the batched notes were sent before this write
+        noteBatcher.flushAll();
+        task.run();
+      }
+    });
+  }
+
+  /**
+   * Run a read only operation on the read queue, so it does not wait for queued writes
+   * @param name of the operation for the metrics
+   * @param promise rejected with BUSY if the queue is full
+   * @param task
+   * @return false if the queue was full
+   */
+  private boolean runRead(String name, Promise promise, Runnable task) {
+    return run(readQueue, name, promise, task);
+  }
+
+  private boolean run(final TaskQueue queue, final String name, Promise promise, final Runnable task) {
+    final long start = metrics.start();
+    boolean queued = queue.execute(start == 0 ? task : new Runnable() {
+      @Override
+      public void run() {
+        metrics.record("queue." + queue.name + ".wait", start);
+        try {
+          task.run();
+        } finally {
+          metrics.record(name, start);
+        }
+      }
+    });
+    if (!queued) {
+      metrics.increment("queue." + queue.name + ".busy", 1);
+      promise.reject(BUSY, "Too many pending operations, retry after " + queue.retryAfterMillis() + " ms");
+    }
+    return queued;
+  }
+
+  /**
+   * Set the number of threads and the queue sizes used for the native operations. Operations that
+   * are already queued still run before the new ones. Writes always run on one thread, the note
+   * batcher, the offline journal and the idempotency keys rely on them running in order
+   * @param options writeThreads (only 1), writeQueueSize, readThreads, readQueueSize (all optional)
+   */
+  @ReactMethod
+  public void configureQueues(ReadableMap options, Promise promise) {
+    try {
+      if (getInt(options, "writeThreads", DEFAULT_WRITE_THREADS) != DEFAULT_WRITE_THREADS) {
+        throw new IllegalArgumentException("writeThreads must be " + DEFAULT_WRITE_THREADS);
+      }
+      writeQueue.configure(DEFAULT_WRITE_THREADS, getInt(options, "writeQueueSize", DEFAULT_WRITE_QUEUE_SIZE));
+      readQueue.configure(getInt(options, "readThreads", DEFAULT_READ_THREADS),
+          getInt(options, "readQueueSize", DEFAULT_READ_QUEUE_SIZE));
+      promise.resolve(true);
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Collect single #addNote calls for the same model and deck and add them with one call. Calls with
+   * an idempotency key are always added on their own
+   * @param options windowMs (how long the first note waits for more, 0 or missing to turn batching
+   *          off), maxBatchSize (notes that are added right away, default 250)
+   */
+  @ReactMethod
+  public void configureNoteBatching(final ReadableMap options, final Promise promise) {
+    // on the write queue, where the pending batches are flushed
+    runWrite("configureNoteBatching", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          noteBatcher.configure(getInt(options, "windowMs", 0), getInt(options, "maxBatchSize", DEFAULT_CHUNK_SIZE));
+          promise.resolve(true);
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  private static int getInt(ReadableMap options, String key, int defaultValue) {
+    return options != null && options.hasKey(key) && !options.isNull(key) ? options.getInt(key) : defaultValue;
+  }
+
+  /**
+   * Drop the cached deck and model name indexes and model fields, e.g. after decks or models were
+   * renamed, changed or deleted in AnkiDroid. They are loaded again on the next lookup
+   */
+  @ReactMethod
+  public void invalidateCache(Promise promise) {
+    try {
+      invalidateCaches();
+      promise.resolve(true);
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  private void invalidateCaches() {
+    provisions.invalidate();
+    deckIndex.invalidate();
+    deckTree.invalidate();
+    modelIndex.invalidate();
+    modelCache.invalidate();
+  }
+
+  /**
+   * Turn the metrics on or off and set how often they are sent as an event
+   * @param options enabled (default false), eventIntervalMs (0 or missing for no events)
+   */
+  @ReactMethod
+  public void configureMetrics(ReadableMap options, Promise promise) {
+    try {
+      boolean enabled = getBoolean(options, "enabled", false);
+      int eventIntervalMs = getInt(options, "eventIntervalMs", 0);
+      metrics.setEnabled(enabled);
+      synchronized (metrics) {
+        if (metricsReport != null) {
+          metricsReport.cancel(false);
+          metricsReport = null;
+        }
+        if (enabled && eventIntervalMs > 0) {
+          if (metricsReporter == null) {
+            metricsReporter = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "AnkiDroidMetrics");
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+          }
+          metricsReport = metricsReporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+              sendEvent(METRICS_EVENT, getMetricsMap());
+            }
+          }, eventIntervalMs, eventIntervalMs, TimeUnit.MILLISECONDS);
+        }
+      }
+      promise.resolve(true);
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Get the recorded counters and latencies
+   * @param reset true to start recording from zero again
+   */
+  @ReactMethod
+  public void getMetrics(boolean reset, Promise promise) {
+    try {
+      WritableMap metricsMap = getMetricsMap();
+      if (reset) {
+        metrics.reset();
+      }
+      promise.resolve(metricsMap);
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * @return enabled, since, counters and timers with count, errors, totalMs, meanMs, p50Ms, p90Ms,
+   *         p99Ms and maxMs per operation or stage
+   */
+  private WritableMap getMetricsMap() {
+    WritableMap counters = new WritableNativeMap();
+    for (Map.Entry<String, Long> counter : metrics.counters().entrySet()) {
+      counters.putDouble(counter.getKey(), counter.getValue());
+    }
+    WritableMap timers = new WritableNativeMap();
+    for (Map.Entry<String, Metrics.Timer> entry : metrics.timers().entrySet()) {
+      Metrics.Timer timer = entry.getValue();
+      WritableMap values = new WritableNativeMap();
+      long count = timer.count();
+      values.putDouble("count", count);
+      values.putDouble("errors", timer.errors());
+      values.putDouble("totalMs", timer.totalMillis());
+      values.putDouble("meanMs", count == 0 ? 0 : timer.totalMillis() / count);
+      values.putDouble("p50Ms", timer.percentileMillis(0.5));
+      values.putDouble("p90Ms", timer.percentileMillis(0.9));
+      values.putDouble("p99Ms", timer.percentileMillis(0.99));
+      values.putDouble("maxMs", timer.maxMillis());
+      timers.putMap(entry.getKey(), values);
+    }
+    WritableMap metricsMap = new WritableNativeMap();
+    metricsMap.putBoolean("enabled", metrics.isEnabled());
+    metricsMap.putDouble("since", metrics.sinceMillis());
+    metricsMap.putMap("counters", counters);
+    metricsMap.putMap("timers", timers);
+    return metricsMap;
+  }
+
+  /**
+   * Get the cached model, loading it again once if the number of fields does not fit
+   * @param modelId
+   * @param numFields number of fields that will be added, -1 to skip the check
+   * @return the model, or null if it does not exist or API error
+   */
+  private ModelCache.Model getModel(long modelId, int numFields) {
+    ModelCache.Model model = modelCache.get(modelId);
+    if (model != null && numFields != -1 && model.fieldCount() < numFields) {
+      // the model may have been changed since it was cached
+      model = modelCache.refresh(modelId);
+    }
+    return model;
+  }
+
+  /**
+   * Returns the AnkiDroid AddContentApi permission name
+   */
+  @ReactMethod
+  public void getPermissionName(Promise promise) {
+    try {
+      promise.resolve(READ_WRITE_PERMISSION);
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Returns the name of the currently selected deck
+   */
+  @ReactMethod
+  public void getSelectedDeckName(final Promise promise) {
+    runRead("getSelectedDeckName", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          String deckName = getApi().getSelectedDeckName();
+          promise.resolve(deckName);
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Check if the AnkiDroid API is available on the phone
+   * @return true if the API is available to use
+   */
+  @ReactMethod
+  public void isApiAvailable(Promise promise) {
+    try {
+      long start = metrics.start();
+      boolean available = getApiStatus().isAvailable();
+      metrics.record("isApiAvailable", start);
+      promise.resolve(available);
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Returns true if the AnkiDroid API permission was granted. A granted permission is cached
+   */
+  @ReactMethod
+  public void checkPermission(Promise promise) {
+    try {
+      long start = metrics.start();
+      boolean granted = getApiStatus().isPermissionGranted();
+      metrics.record("checkPermission", start);
+      promise.resolve(granted);
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * converts ReadableArrays to a useable String[]
+   * @param incomingReadableArray
+   * @return might be null if there was a problem
+   */
+  private String[] convertReadableArray(ReadableArray incomingReadableArray) {
+    try {
+      String[] array = new String[incomingReadableArray.size()];
+      for (int index = 0; index < incomingReadableArray.size(); index++) {
+        array[index] = incomingReadableArray.getString(index);
+      }
+      return array;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * converts a ReadableArray of ReadableArrays to a List of String[]
+   * @param incomingReadableRows
+   * @return one entry per row, a row is null if it could not be converted
+   */
+  private List<String[]> convertReadableRows(ReadableArray incomingReadableRows) {
+    List<String[]> rows = new ArrayList<>(incomingReadableRows.size());
+    for (int index = 0; index < incomingReadableRows.size(); index++) {
+      rows.add(incomingReadableRows.isNull(index) ? null : convertReadableArray(incomingReadableRows.getArray(index)));
+    }
+    return rows;
+  }
+
+  /**
+   * The deck and model notes are added to, see #resolveTarget
+   */
+  private static class NoteTarget {
+    // the error code to return instead of adding the notes, null if the deck and model were resolved
+    final String error;
+    final long deckId;
+    final long modelId;
+    final ModelCache.Model model;
+
+    NoteTarget(String error) {
+      this(error, 0, 0, null);
+    }
+
+    NoteTarget(String error, long deckId, long modelId, ModelCache.Model model) {
+      this.error = error;
+      this.deckId = deckId;
+      this.modelId = modelId;
+      this.model = model;
+    }
+  }
+
+  /**
+   * Resolve the deck and model of the notes, by the IDs if supplied, otherwise by finding or creating
+   * them by name. Used by every call that adds notes, the ByHandle variants pass the registered deck
+   * and model
+   * @param deckName
+   * @param deckId null to resolve the deck by name
+   * @param modelName
+   * @param modelId null to resolve the model by name
+   * @param dbDeckReference
+   * @param dbModelReference
+   * @param modelFields
+   * @param cardNames
+   * @param questionFormat
+   * @param answerFormat
+   * @param css
+   * @param numFields number of fields that will be added, -1 to skip the check, see #getModel
+   * @return the IDs and the model definition, or FAILED_TO_CREATE_DECK, FAILED_TO_CREATE_MODEL or
+   *         FAILED_TO_ADD_NOTE (the model was deleted) as the error
+   */
+  private NoteTarget resolveTarget(String deckName, String deckId, String modelName, String modelId,
+      String dbDeckReference, String dbModelReference, String[] modelFields, String[] cardNames,
+      String[] questionFormat, String[] answerFormat, String css, int numFields) {
+    // use the deck ID if supplied
+    Long did = deckId != null ? Long.parseLong(deckId) : getDeckIdOrCreateIfNew(dbDeckReference, deckName);
+    if (did == null) {
+      return new NoteTarget(FAILED_TO_CREATE_DECK);
+    }
+
+    // use the model ID if supplied
+    Long mid = modelId != null ? Long.parseLong(modelId) : getModelIdOrCreateIfNew(dbModelReference, modelName,
+        modelFields, did, cardNames, questionFormat, answerFormat, css);
+    if (mid == null) {
+      return new NoteTarget(FAILED_TO_CREATE_MODEL);
+    }
+
+    ModelCache.Model model = getModel(mid, numFields);
+    if (model == null) {
+      // the model was deleted, look it up again on the next call
+      invalidateCaches();
+      return new NoteTarget(FAILED_TO_ADD_NOTE);
+    }
+    return new NoteTarget(null, did, mid, model);
+  }
+
+  /**
+   * get the deck id or create if it is a new deck. Only called on the write queue, which runs one
+   * task at a time, so two calls for a new name can not both create it
+   * @param dbDeckReference
+   * @param deckName
+   * @return might be null if there was a problem, or to return the default deck
+   */
+  private Long getDeckIdOrCreateIfNew(String dbDeckReference, String deckName) {
+    Long did = findDeckIdByName(dbDeckReference, deckName);
+    if (did == null) {
+      did = checkApiResult(getApi().addNewDeck(deckName));
+      if (did != null) {
+        deckIndex.put(deckName, did);
+        deckTree.put(deckName, did);
+        storeDeckReference(dbDeckReference, deckName, did);
+      }
+    }
+    return did;
+  }
+
+  /**
+   * get model id or create if it is a new model. Only called on the write queue, see
+   * #getDeckIdOrCreateIfNew
+   * @param dbModelReference
+   * @param deckId
+   * @param modelName
+   * @param modelFields
+   * @param cardNames
+   * @param questionFormat
+   * @param answerFormat
+   * @param css - null for default CSS.
+   * @return might be null if there was an error
+   */
+  private Long getModelIdOrCreateIfNew(String dbModelReference, String modelName, String[] modelFields,
+      Long deckId, String[] cardNames, String[] questionFormat, String[] answerFormat, String css) {
+    Long mid = findModelIdByName(dbModelReference, modelName, modelFields.length);
+    if (mid == null) {
+      mid = checkApiResult(getApi().addNewCustomModel(modelName, modelFields, cardNames, questionFormat, answerFormat, css,
+          deckId, null));
+      if (mid != null) {
+        modelIndex.put(modelName, mid);
+        storeModelReference(dbModelReference, modelName, mid);
+      }
+    }
+    return mid;
+  }
+
+  /**
+   * Save a mapping from deckName to getDeckId in the reference store
+   * @param dbDeckReference
+   * @param deckName
+   * @param deckId
+   */
+  public void storeDeckReference(String dbDeckReference, String deckName, long deckId) {
+    references.put(dbDeckReference, deckName, deckId);
+  }
+
+  /**
+   * Save a mapping from modelName to modelId in the reference store
+   * @param dbModelReference
+   * @param modelName
+   * @param modelId
+   */
+  public void storeModelReference(String dbModelReference, String modelName, long modelId) {
+    references.put(dbModelReference, modelName, modelId);
+  }
+
+  /**
+   * Remove the duplicates from a list of note fields and tags, with a single duplicate query. A row
+   * is a duplicate if its first field already exists for the model or appears earlier in the list
+   * @param fields List of fields to remove duplicates from
+   * @param tags List of tags to remove duplicates from
+   * @param modelId ID of model to search for duplicates on
+   * @return the indices of the removed rows
+   * @throws IllegalStateException if the duplicates could not be looked up
+   */
+  public List<Integer> removeDuplicates(List<String[]> fields, List<Set<String>> tags, long modelId) {
+    return duplicateFilter.remove(modelId, fields, tags);
+  }
+
+  /**
+   * Try to find the given model by name, accounting for renaming of the model: If
+   * there's a model with this modelName that is known to have previously been
+   * created (by this app) and the corresponding model ID exists and has the
+   * required number of fields then return that ID (even though it may have since
+   * been renamed) If there's a model from #getModelList with modelName and
+   * required number of fields then return its ID Otherwise return null
+   * @param dbModelReference
+   * @param modelName the name of the model to find
+   * @param numFields the minimum number of fields the model is required to have
+   * @return the model ID or null if something went wrong
+   */
+  private Long findModelIdByName(String dbModelReference, String modelName, int numFields) {
+    long start = metrics.start();
+    try {
+      Long prefsModelId = references.get(dbModelReference, modelName);
+      // if we have a reference saved to modelName and it exists and has at least
+      // numFields then return it
+      if (prefsModelId != null) {
+        ModelCache.Model model = getModel(prefsModelId, numFields);
+        if (model != null && model.fieldCount() >= numFields) { // could potentially have been renamed
+          return prefsModelId;
+        }
+      }
+      Long mid = _getModelId(modelName, numFields);
+      return mid;
+    } finally {
+      metrics.record("stage.findModelIdByName", start);
+    }
+  }
+
+  /**
+   * Try to find the given deck by name, accounting for potential renaming of the
+   * deck by the user as follows: If there's a deck with deckName then return it's
+   * ID If there's no deck with deckName, but a ref to deckName is stored in
+   * SharedPreferences, and that deck exist in AnkiDroid (i.e. it was renamed),
+   * then use that deck.Note: this deck will not be found if your app is
+   * re-installed If there's no reference to deckName anywhere then return null
+   * @param dbDeckReference
+   * @param deckName the name of the deck to find
+   * @return the did of the deck in Anki
+   */
+  private Long findDeckIdByName(String dbDeckReference, String deckName) {
+    long start = metrics.start();
+    try {
+      // Look for deckName in the deck list
+      Long did = _getDeckId(deckName);
+      if (did != null) {
+        // If the deck was found then return its ID
+        return did;
+      } else {
+        // Otherwise try to check if we have a reference to a deck that was renamed and
+        // return that
+        did = references.get(dbDeckReference, deckName);
+        if (did != null && getApi().getDeckName(did) != null) {
+          return did;
+        } else {
+          // If the deck really doesn't exist then return null
+          return null;
+        }
+      }
+    } finally {
+      metrics.record("stage.findDeckIdByName", start);
+    }
+  }
+
+  /**
+   * Get the ID of the deck which matches the name
+   * @param deckName Exact name of deck (note: deck names are unique in Anki)
+   * @return the ID of the deck that has given name, or null if no deck was found
+   *         or API error
+   */
+  private Long _getDeckId(String deckName) {
+    return deckIndex.find(deckName);
+  }
+
+  /**
+   * Get the ID of the model which matches the name
+   * @param modelName Exact name of model
+   * @return the ID of the model that has given name, or null if no model was found
+   *         or API error
+   */
+  private Long _getModelId(String modelName, int numFields) {
+    for (Long mid : modelIndex.findAll(modelName)) {
+      if (numFields <= 0) {
+        return mid; // first model wins
+      }
+      ModelCache.Model model = getModel(mid, numFields);
+      if (model != null && model.fieldCount() >= numFields) {
+        return mid;
+      }
+    }
+    // model no longer exists (by name nor old id), the number of fields was
+    // reduced, or API error
+    return null;
+  }
+
+  /**
+   * Gets all deck names and IDs, sorted by name
+   * @param options prefix, offset and limit to return part of the list, compact for parallel arrays
+   *          of IDs and names, all optional
+   * @return an array of all deck names and IDs, or null if no decks were found
+   *         or API error
+   */
+  @ReactMethod
+  public void getDeckList(final ReadableMap options, final Promise promise) {
+    runRead("getDeckList", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Map<Long, String> deckList = checkApiResult(getApi().getDeckList());
+          deckIndex.fill(deckList);
+          deckTree.fill(deckList);
+          promise.resolve(writeNamedList(deckList, options));
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Gets a deck and the decks below it from the deck hierarchy, parents before their children
+   * @param deckName - full name, e.g. "Course::Unit", null for all decks
+   * @param options prefix: true to also match decks whose last name part starts with the last part
+   *          of deckName. maxDepth: levels below the matched decks. compact: parallel arrays of IDs,
+   *          names and depths. All optional
+   * @return an array of { id, name, depth }, or API error
+   */
+  @ReactMethod
+  public void getDeckSubtree(final String deckName, final ReadableMap options, final Promise promise) {
+    runRead("getDeckSubtree", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          List<DeckTree.Deck> decks = deckTree.subtree(deckName, getBoolean(options, "prefix", false),
+              getInt(options, "maxDepth", -1));
+          if (getBoolean(options, "compact", false)) {
+            WritableArray ids = new WritableNativeArray();
+            WritableArray names = new WritableNativeArray();
+            WritableArray depths = new WritableNativeArray();
+            for (DeckTree.Deck deck : decks) {
+              ids.pushDouble(deck.id);
+              names.pushString(deck.name);
+              depths.pushInt(deck.depth);
+            }
+            WritableMap list = new WritableNativeMap();
+            list.putArray("ids", ids);
+            list.putArray("names", names);
+            list.putArray("depths", depths);
+            list.putInt("total", decks.size());
+            promise.resolve(list);
+            return;
+          }
+          WritableArray deckArray = new WritableNativeArray();
+          for (DeckTree.Deck deck : decks) {
+            WritableMap deckMap = new WritableNativeMap();
+            deckMap.putString("id", Long.toString(deck.id));
+            deckMap.putString("name", deck.name);
+            deckMap.putInt("depth", deck.depth);
+            deckArray.pushMap(deckMap);
+          }
+          promise.resolve(deckArray);
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Register decks and models once and get a handle for each, so notes can be added with
+   * #addNoteByHandle and #addNotesByHandle without sending the model definition every time. All
+   * decks and models are looked up, and created if they are missing, in one pass. The manifest is
+   * kept on the device and looked up again in the background when the app starts
+   * @param manifest decks: array of { name, dbReference }, models: array of { name, dbReference,
+   *          fields, cardNames, questionFormat, answerFormat, tags, css, deckName }. deckName is the
+   *          deck the model is created for
+   * @return decks and models: arrays of { handle, name, id, status }
+   */
+  @ReactMethod
+  public void provision(ReadableMap manifest, final Promise promise) {
+    final List<Provisions.Deck> decks = new ArrayList<>();
+    final List<Provisions.Model> models = new ArrayList<>();
+    try {
+      readManifest(manifest, decks, models);
+    } catch (Exception e) {
+      reject(promise, e);
+      return;
+    }
+    runWrite("provision", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          provisions.register(decks, models);
+          if (isApiReady()) {
+            provisions.resolve(true);
+          }
+          promise.resolve(writeProvisions());
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Get the registered decks and models and whether they were found, e.g. after the background
+   * lookup when the app started
+   * @return decks and models: arrays of { handle, name, id, status }
+   */
+  @ReactMethod
+  public void getProvisioned(final Promise promise) {
+    runRead("getProvisioned", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          promise.resolve(writeProvisions());
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  private void readManifest(ReadableMap manifest, List<Provisions.Deck> decks, List<Provisions.Model> models) {
+    ReadableArray deckArray = manifest.hasKey("decks") && !manifest.isNull("decks")
+        ? manifest.getArray("decks") : null;
+    for (int index = 0; deckArray != null && index < deckArray.size(); index++) {
+      ReadableMap deck = deckArray.getMap(index);
+      String name = getString(deck, "name", null);
+      String dbReference = getString(deck, "dbReference", null);
+      if (name == null || dbReference == null) {
+        throw new IllegalArgumentException("Deck " + index + " needs a name and dbReference");
+      }
+      decks.add(new Provisions.Deck(name, dbReference));
+    }
+    ReadableArray modelArray = manifest.hasKey("models") && !manifest.isNull("models")
+        ? manifest.getArray("models") : null;
+    for (int index = 0; modelArray != null && index < modelArray.size(); index++) {
+      ReadableMap model = modelArray.getMap(index);
+      String name = getString(model, "name", null);
+      String dbReference = getString(model, "dbReference", null);
+      String[] fields = getStringArray(model, "fields");
+      String[] cardNames = getStringArray(model, "cardNames");
+      String[] questionFormat = getStringArray(model, "questionFormat");
+      String[] answerFormat = getStringArray(model, "answerFormat");
+      if (name == null || dbReference == null || fields == null || cardNames == null || questionFormat == null
+          || answerFormat == null) {
+        throw new IllegalArgumentException("Model " + index
+            + " needs a name, dbReference, fields, cardNames, questionFormat and answerFormat");
+      }
+      models.add(new Provisions.Model(name, dbReference, fields, cardNames, questionFormat, answerFormat,
+          getStringArray(model, "tags"), getString(model, "css", null), getString(model, "deckName", null)));
+    }
+  }
+
+  private String[] getStringArray(ReadableMap map, String key) {
+    return map.hasKey(key) && !map.isNull(key) ? convertReadableArray(map.getArray(key)) : null;
+  }
+
+  private WritableMap writeProvisions() {
+    WritableArray decks = new WritableNativeArray();
+    for (Provisions.Deck deck : provisions.getDecks()) {
+      decks.pushMap(writeProvision(deck.handle, deck.name, deck.id, deck.status));
+    }
+    WritableArray models = new WritableNativeArray();
+    for (Provisions.Model model : provisions.getModels()) {
+      models.pushMap(writeProvision(model.handle, model.name, model.id, model.status));
+    }
+    WritableMap result = new WritableNativeMap();
+    result.putArray("decks", decks);
+    result.putArray("models", models);
+    return result;
+  }
+
+  private static WritableMap writeProvision(String handle, String name, Long id, Provisions.Status status) {
+    WritableMap map = new WritableNativeMap();
+    map.putString("handle", handle);
+    map.putString("name", name);
+    map.putString("id", toIdString(id));
+    map.putString("status", status.name());
+    return map;
+  }
+
+  /**
+   * Get the IDs of many decks of a hierarchy, creating only the missing ones. The deck list is
+   * loaded at most once before and once after, instead of once per deck
+   * @param incomingDeckNames - full names, e.g. "Course::Unit::Lesson"
+   * @return ids: one per name, null if it could not be created. created: number of created decks
+   */
+  @ReactMethod
+  public void createDecks(ReadableArray incomingDeckNames, final Promise promise) {
+    final String[] deckNames = convertReadableArray(incomingDeckNames);
+    if (deckNames == null) {
+      promise.reject("Deck names must be strings");
+      return;
+    }
+    runWrite("createDecks", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          DeckTree.Resolved resolved = deckTree.resolve(Arrays.asList(deckNames), new DeckTree.Creator() {
+            @Override
+            public Long create(String name) {
+              long start = metrics.start();
+              Long did = checkApiResult(getApi().addNewDeck(name));
+              metrics.record("stage.addNewDeck", start, did == null);
+              if (did != null) {
+                deckIndex.put(name, did);
+              }
+              return did;
+            }
+          });
+          WritableArray ids = new WritableNativeArray();
+          for (Long did : resolved.ids) {
+            if (did == null) {
+              ids.pushNull();
+            } else {
+              ids.pushString(did.toString());
+            }
+          }
+          WritableMap result = new WritableNativeMap();
+          result.putArray("ids", ids);
+          result.putInt("created", resolved.created);
+          promise.resolve(result);
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Gets all model names and IDs, sorted by name
+   * @param options same as #getDeckList
+   * @return an array of all model names and IDs, or API error
+   */
+  @ReactMethod
+  public void getModelList(final ReadableMap options, final Promise promise) {
+    runRead("getModelList", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Map<Long, String> modelList = checkApiResult(getApi().getModelList(0)); // search for the minimum number of fields required
+          modelIndex.fill(modelList);
+          promise.resolve(writeNamedList(modelList, options));
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Gets all field names for a specific model, in the order of the model
+   * @param options same as #getDeckList, the compact IDs are the field indexes
+   * @return an array of all fields, or API error
+   */
+  @ReactMethod
+  public void getFieldList(final String modelName, final String modelId, final ReadableMap options,
+      final Promise promise) {
+    runRead("getFieldList", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          // use the model ID if supplied
+          Long mid = modelId != null ? Long.parseLong(modelId) : _getModelId(modelName, 0);
+          if (mid == null) {
+            promise.reject("Model not found. modelName: " + modelName);
+            return;
+          }
+          ModelCache.Model model = modelCache.get(mid);
+          String[] fieldList = model == null ? new String[0] : model.fields;
+          long[] fieldIndexes = new long[fieldList.length];
+          for (int index = 0; index < fieldIndexes.length; index++) {
+            fieldIndexes[index] = index;
+          }
+          ListSlice slice = selectList(fieldIndexes, fieldList, options, false);
+          if (getBoolean(options, "compact", false)) {
+            promise.resolve(writeCompactList(slice));
+            return;
+          }
+          WritableArray fieldArray = new WritableNativeArray();
+          for (String field : slice.names) {
+            fieldArray.pushString(field);
+          }
+          promise.resolve(fieldArray);
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * @param entries names by ID, may be null
+   * @param options see #getDeckList
+   * @return the selected entries as { id, name } maps, or as compact list
+   */
+  private static Object writeNamedList(Map<Long, String> entries, ReadableMap options) {
+    long[] ids = new long[entries == null ? 0 : entries.size()];
+    String[] names = new String[ids.length];
+    if (entries != null) {
+      int index = 0;
+      for (Map.Entry<Long, String> entry : entries.entrySet()) {
+        ids[index] = entry.getKey();
+        names[index++] = entry.getValue();
+      }
+    }
+    ListSlice slice = selectList(ids, names, options, true);
+    if (getBoolean(options, "compact", false)) {
+      return writeCompactList(slice);
+    }
+    WritableArray array = new WritableNativeArray();
+    for (int index = 0; index < slice.ids.length; index++) {
+      WritableMap map = new WritableNativeMap();
+      map.putString("id", Long.toString(slice.ids[index]));
+      map.putString("name", slice.names[index]);
+      array.pushMap(map);
+    }
+    return array;
+  }
+
+  private static ListSlice selectList(long[] ids, String[] names, ReadableMap options, boolean sortByName) {
+    return ListSlice.select(ids, names, getString(options, "prefix", null), getInt(options, "offset", 0),
+        getInt(options, "limit", -1), sortByName);
+  }
+
+  /**
+   * One map with parallel arrays instead of a map per entry. The IDs are numbers, deck and model IDs
+   * are creation times in ms and fit a double exactly
+   */
+  private static WritableMap writeCompactList(ListSlice slice) {
+    WritableArray ids = new WritableNativeArray();
+    WritableArray names = new WritableNativeArray();
+    for (int index = 0; index < slice.ids.length; index++) {
+      ids.pushDouble(slice.ids[index]);
+      names.pushString(slice.names[index]);
+    }
+    WritableMap list = new WritableNativeMap();
+    list.putArray("ids", ids);
+    list.putArray("names", names);
+    list.putInt("total", slice.total);
+    return list;
+  }
+
+  /**
+   * Create the new note and add it to the deck
+   * @param deckName
+   * @param deckId - will not create a new deck if provided
+   * @param modelName
+   * @param modelId - will not create a new model if provided
+   * @param dbDeckReference
+   * @param dbModelReference
+   * @param incomingModelFields
+   * @param incomingValueFields
+   * @param incomingTags
+   * @param incomingCardNames
+   * @param incomingQuestionFormat
+   * @param incomingAnswerFormat
+   * @param css - null for default CSS.
+   * @param idempotencyKey - null for none. A call with the key of an earlier successful call returns
+   *          the note ID of that call without adding the note again
+   * @return might be null if there was an error
+   */
+  @ReactMethod
+  public void addNote(final String deckName, final String deckId, final String modelName, final String modelId, final String dbDeckReference, final String dbModelReference,
+      final ReadableArray incomingModelFields, final ReadableArray incomingValueFields, final ReadableArray incomingTags,
+      final ReadableArray incomingCardNames, final ReadableArray incomingQuestionFormat, final ReadableArray incomingAnswerFormat,
+      final String css, String idempotencyKey, final Promise promise) {
+    // convert the arguments on the calling thread so the queue does not hold on to the bridge arrays
+    addNote(deckName, deckId, modelName, modelId, dbDeckReference, dbModelReference,
+        convertReadableArray(incomingModelFields), convertReadableArray(incomingValueFields),
+        convertReadableArray(incomingTags), convertReadableArray(incomingCardNames),
+        convertReadableArray(incomingQuestionFormat), convertReadableArray(incomingAnswerFormat), css, idempotencyKey,
+        promise);
+  }
+
+  /**
+   * Add a note with a deck and model registered by #provision. Only the value fields cross the
+   * bridge, the rest of the definition is taken from the registered model
+   * @param deckHandle
+   * @param modelHandle
+   * @param incomingValueFields
+   * @param incomingTags - null for the tags of the registered model
+   * @param idempotencyKey - same as #addNote
+   */
+  @ReactMethod
+  public void addNoteByHandle(String deckHandle, String modelHandle, ReadableArray incomingValueFields,
+      ReadableArray incomingTags, String idempotencyKey, Promise promise) {
+    Provisions.Deck deck = provisions.getDeck(deckHandle);
+    Provisions.Model model = provisions.getModel(modelHandle);
+    if (deck == null || model == null) {
+      promise.reject("Unknown handle: " + (deck == null ? deckHandle : modelHandle));
+      return;
+    }
+    addNote(deck.name, toIdString(deck.id), model.name, toIdString(model.id), deck.dbReference, model.dbReference,
+        model.fields, convertReadableArray(incomingValueFields),
+        incomingTags == null ? model.tags : convertReadableArray(incomingTags), model.cardNames, model.questionFormat,
+        model.answerFormat, model.css, idempotencyKey, promise);
+  }
+
+  private static String toIdString(Long id) {
+    return id == null ? null : id.toString();
+  }
+
+  private void addNote(final String deckName, final String deckId, final String modelName, final String modelId,
+      final String dbDeckReference, final String dbModelReference, final String[] modelFields,
+      final String[] valueFields, final String[] tagArray, final String[] cardNames, final String[] questionFormat,
+      final String[] answerFormat, final String css, String idempotencyKey, final Promise promise) {
+    final String operationKey = idempotencyKey == null ? null : "addNote" + KEY_SEPARATOR + idempotencyKey;
+
+    // not runWrite, a note that is batched itself does not flush the batch
+    run(writeQueue, "addNote", promise, new Runnable() {
+      @Override
+      public void run() {
+        boolean batched = operationKey == null && noteBatcher.isEnabled();
+        if (!batched) {
+          // the batched notes were sent before this one
+          noteBatcher.flushAll();
+        }
+        try {
+          if (operationKey != null) {
+            Long recordedNoteId = operations.begin(operationKey);
+            if (recordedNoteId != null) {
+              metrics.increment("notes.replayed", 1);
+              // still queued, the replay records the note ID
+              promise.resolve(recordedNoteId == OperationJournal.QUEUED ? QUEUED : recordedNoteId.toString());
+              return;
+            }
+          }
+          if (offlineWrites && (writeJournal.pendingCount() > 0 || !isApiReady())) {
+            // behind the notes that are already queued, so the notes are added in order
+            noteBatcher.flushAll();
+            offlineReplay.queueNote(deckName, deckId, modelName, modelId, dbDeckReference, dbModelReference, css,
+                modelFields, cardNames, questionFormat, answerFormat, valueFields, tagArray, operationKey, null);
+            scheduleReplay();
+            promise.resolve(QUEUED);
+            return;
+          }
+          // queued media that was added since is referenced by its placeholder
+          String[] fields = writeJournal.resolve(valueFields);
+          // to account for no tags
+          Set<String> tags = tagArray == null ? null : new HashSet<String>(Arrays.asList(tagArray));
+
+          NoteTarget target = resolveTarget(deckName, deckId, modelName, modelId, dbDeckReference, dbModelReference,
+              modelFields, cardNames, questionFormat, answerFormat, css, valueFields.length);
+          if (target.error != null) {
+            promise.resolve(target.error);
+            return;
+          }
+          if (target.model.fieldCount() < valueFields.length) {
+            // the model does not have enough fields, look it up again on the retry
+            invalidateCaches();
+            promise.resolve(FAILED_TO_ADD_NOTE);
+            return;
+          }
+          long did = target.deckId;
+          long mid = target.modelId;
+
+          if (batched) {
+            // resolved once the batch is added
+            noteBatcher.add(mid, did, new PendingNote(fields, tags, promise));
+            return;
+          }
+
+          long attemptedAt = System.currentTimeMillis();
+          long insertStart = metrics.start();
+          Long addedNoteId;
+          try {
+            addedNoteId = checkApiResult(getApi().addNote(mid, did, fields, tags));
+          } catch (RuntimeException e) {
+            metrics.record("stage.insert", insertStart, true);
+            if (!offlineWrites) {
+              throw e;
+            }
+            // AnkiDroid could not take the note right now, add it with the next replay. It may have
+            // been added before the call failed, so the replay checks for it first
+            offlineReplay.queueNote(deckName, deckId, modelName, modelId, dbDeckReference, dbModelReference, css,
+                modelFields, cardNames, questionFormat, answerFormat, valueFields, tagArray, operationKey, attemptedAt);
+            promise.resolve(QUEUED);
+            return;
+          }
+          metrics.record("stage.insert", insertStart, addedNoteId == null);
+
+          if (addedNoteId == null) {
+            // the cached deck or model may have been deleted, look them up again on the retry
+            invalidateCaches();
+            promise.resolve(FAILED_TO_ADD_NOTE);
+          } else {
+            metrics.increment("notes.added", 1);
+            if (operationKey != null) {
+              operations.end(operationKey, addedNoteId);
+            }
+            promise.resolve(addedNoteId.toString());
+          }
+        } catch (Exception e) {
+          reject(promise, e);
+        } finally {
+          if (operationKey != null) {
+            // a failed call may run again with the same key
+            operations.end(operationKey, null);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Queue notes and media in a journal on the device while AnkiDroid is not installed, the permission
+   * is not granted or AnkiDroid fails to add a note. The journal is replayed once AnkiDroid can be
+   * reached, notes added in the meantime are queued behind it to keep them in order. #addNote
+   * resolves with QUEUED and #uploadMediaFromUri with a placeholder that is replaced by the media
+   * name in the queued notes
+   * @param options enabled (default false)
+   */
+  @ReactMethod
+  public void configureOfflineQueue(ReadableMap options, Promise promise) {
+    try {
+      offlineWrites = getBoolean(options, "enabled", false);
+      scheduleReplay();
+      promise.resolve(true);
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Add the queued notes and media now if AnkiDroid can be reached, otherwise only report how many
+   * are queued. The queue is also replayed on its own when the app is resumed or AnkiDroid is
+   * installed
+   * @return added, duplicates, failed, media and remaining
+   */
+  @ReactMethod
+  public void replayOfflineQueue(final Promise promise) {
+    runWrite("replayOfflineQueue", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          promise.resolve(offlineReplay.replay().toWritableMap(writeJournal.pendingCount()));
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Drop the queued notes and media without adding them
+   */
+  @ReactMethod
+  public void clearOfflineQueue(final Promise promise) {
+    runWrite("clearOfflineQueue", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          offlineReplay.clear();
+          promise.resolve(true);
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  private boolean isApiReady() {
+    return getApiStatus().isAvailable() && getApiStatus().isPermissionGranted();
+  }
+
+  /**
+   * Replay the offline journal on the write queue, unless a replay is already queued. The result is
+   * sent as an event
+   */
+  private void scheduleReplay() {
+    if (writeJournal.pendingCount() == 0 || !replayScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    boolean queued = writeQueue.execute(new Runnable() {
+      @Override
+      public void run() {
+        replayScheduled.set(false);
+        noteBatcher.flushAll();
+        try {
+          OfflineReplay.Result result = offlineReplay.replay();
+          if (result.replayed) {
+            sendEvent(OFFLINE_REPLAY_EVENT, result.toWritableMap(writeJournal.pendingCount()));
+          }
+        } catch (Exception e) {
+          onApiError(e);
+          // the rest stays queued for the next replay
+        }
+      }
+    });
+    if (!queued) {
+      replayScheduled.set(false);
+    }
+  }
+
+  /**
+   * A single #addNote call waiting in the NoteBatcher
+   */
+  private static class PendingNote {
+    final String[] fields;
+    final Set<String> tags;
+    final Promise promise;
+
+    PendingNote(String[] fields, Set<String> tags, Promise promise) {
+      this.fields = fields;
+      this.tags = tags;
+      this.promise = promise;
+    }
+  }
+
+  /**
+   * Add a batch of single #addNote calls with one call and resolve each with its own note ID.
+   * AddContentApi#addNotes only returns how many notes were added, so the IDs of the new notes are
+   * looked up by their first field afterwards. AnkiDroid compares first fields without HTML, so a
+   * batch in which two calls could match the same note is added one note at a time instead. A call
+   * whose new note can not be told apart, e.g. because another app or a sync added a note with the
+   * same first field at the same time, resolves with NOTE_ID_UNKNOWN, as its note may have been
+   * added. The other calls of the batch still get their IDs
+   * @param modelId
+   * @param deckId
+   * @param notes
+   */
+  private void addNoteBatch(long modelId, long deckId, List<PendingNote> notes) {
+    List<String[]> fields = new ArrayList<>(notes.size());
+    List<Set<String>> tags = new ArrayList<>(notes.size());
+    for (PendingNote note : notes) {
+      fields.add(note.fields);
+      tags.add(note.tags);
+    }
+    try {
+      metrics.increment("notes.batched", notes.size());
+      if (!hasDistinctFirstFields(fields)) {
+        metrics.increment("notes.batchFallback", notes.size());
+        for (PendingNote note : notes) {
+          addPendingNote(modelId, deckId, note);
+        }
+        return;
+      }
+      // AnkiDroid uses the creation time in milliseconds as the note ID
+      long addedSince = System.currentTimeMillis();
+      long insertStart = metrics.start();
+      int added = getApi().addNotes(modelId, deckId, fields, tags);
+      metrics.record("stage.batchInsert", insertStart, added == 0);
+      metrics.increment("notes.added", added);
+      long[] noteIds = added == 0 ? new long[notes.size()] : findAddedNoteIds(modelId, fields, addedSince, added);
+      boolean failed = false;
+      for (int index = 0; index < notes.size(); index++) {
+        if (noteIds[index] == UNKNOWN_NOTE_ID) {
+          metrics.increment("notes.idUnknown", 1);
+          notes.get(index).promise.resolve(NOTE_ID_UNKNOWN);
+        } else if (noteIds[index] == 0) {
+          failed = true;
+          notes.get(index).promise.resolve(FAILED_TO_ADD_NOTE);
+        } else {
+          notes.get(index).promise.resolve(Long.toString(noteIds[index]));
+        }
+      }
+      if (failed) {
+        // the cached deck or model may have been deleted, look them up again on the retry
+        invalidateCaches();
+      }
+    } catch (Exception e) {
+      // the model may have been changed, load it again for the next lookup
+      modelCache.remove(modelId);
+      for (PendingNote note : notes) {
+        reject(note.promise, e);
+      }
+    }
+  }
+
+  /**
+   * Add a note of a batch on its own
+   * @param modelId
+   * @param deckId
+   * @param note
+   */
+  private void addPendingNote(long modelId, long deckId, PendingNote note) {
+    try {
+      long insertStart = metrics.start();
+      Long addedNoteId = checkApiResult(getApi().addNote(modelId, deckId, note.fields, note.tags));
+      metrics.record("stage.insert", insertStart, addedNoteId == null);
+      if (addedNoteId == null) {
+        invalidateCaches();
+        note.promise.resolve(FAILED_TO_ADD_NOTE);
+      } else {
+        metrics.increment("notes.added", 1);
+        note.promise.resolve(addedNoteId.toString());
+      }
+    } catch (Exception e) {
+      modelCache.remove(modelId);
+      reject(note.promise, e);
+    }
+  }
+
+  /**
+   * @param fields the fields of the notes of a batch
+   * @return true if no two notes could have the same first field for AnkiDroid. Fields AnkiDroid
+   *         considers equal have the same checksum, so it never misses a match
+   */
+  private boolean hasDistinctFirstFields(List<String[]> fields) {
+    Set<Long> checksums = new HashSet<>(fields.size() * 2);
+    for (String[] row : fields) {
+      if (row.length == 0 || !checksums.add(fieldChecksum.checksum(row[0]))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find the IDs of notes that were just added, by their first field
+   * @param modelId
+   * @param fields the fields of the added notes, with distinct first fields
+   * @param addedSince when the notes were added, in milliseconds since the epoch
+   * @param added how many of the notes AnkiDroid added
+   * @return the note ID of each row, 0 if it was not added, UNKNOWN_NOTE_ID if its note can not be
+   *         told apart: its first field has more than one new note, more rows have new notes than
+   *         were added, or the lookup failed
+   */
+  private long[] findAddedNoteIds(long modelId, List<String[]> fields, long addedSince, int added) {
+    List<String> keys = new ArrayList<>(fields.size());
+    for (String[] row : fields) {
+      keys.add(row[0]);
+    }
+    long[] noteIds = new long[fields.size()];
+    long start = metrics.start();
+    SparseArray<List<NoteInfo>> notes = checkApiResult(getApi().findDuplicateNotes(modelId, keys));
+    metrics.record("stage.findNoteIds", start, notes == null);
+    if (notes == null) {
+      Arrays.fill(noteIds, UNKNOWN_NOTE_ID);
+      return noteIds;
+    }
+    // rows with at least one new note
+    int matched = 0;
+    for (int index = 0; index < notes.size(); index++) {
+      int key = notes.keyAt(index);
+      if (key < 0 || key >= keys.size()) {
+        continue;
+      }
+      for (NoteInfo note : notes.valueAt(index)) {
+        if (note.getId() < addedSince) {
+          continue;
+        }
+        if (noteIds[key] == 0) {
+          noteIds[key] = note.getId();
+          matched++;
+        } else {
+          // another note with the same first field was added since, e.g. by a sync
+          noteIds[key] = UNKNOWN_NOTE_ID;
+        }
+      }
+    }
+    if (matched != added) {
+      // notes were added by someone else, or not found yet. Only rows without a new note can be
+      // trusted when more notes were found than added
+      for (int row = 0; row < noteIds.length; row++) {
+        if (noteIds[row] != 0 || matched < added) {
+          noteIds[row] = UNKNOWN_NOTE_ID;
+        }
+      }
+    }
+    return noteIds;
+  }
+
+  /**
+   * Update the fields of existing notes. The notes are read a chunk at a time and only the notes
+   * whose fields changed are written
+   * @param incomingNoteIds
+   * @param incomingFieldRows - one array of fields per note, null entries keep the current value
+   * @return the updated, unchanged, not found and failed counts
+   */
+  @ReactMethod
+  public void updateNotes(ReadableArray incomingNoteIds, ReadableArray incomingFieldRows, final Promise promise) {
+    final long[] noteIds;
+    final List<String[]> fieldRows = new ArrayList<>(incomingFieldRows.size());
+    try {
+      noteIds = convertNoteIds(incomingNoteIds);
+      for (int index = 0; index < incomingFieldRows.size(); index++) {
+        fieldRows.add(convertReadableArrayWithNulls(incomingFieldRows.getArray(index)));
+      }
+      if (noteIds.length != fieldRows.size()) {
+        throw new IllegalArgumentException("Need one row of fields per note ID");
+      }
+    } catch (Exception e) {
+      reject(promise, e);
+      return;
+    }
+    runWrite("updateNotes", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          UpdateNotesResult result = noteUpdater.updateFields(noteIds, fieldRows, DEFAULT_CHUNK_SIZE);
+          metrics.increment("notes.updated", result.getUpdated());
+          metrics.increment("notes.unchanged", result.getUnchanged());
+          promise.resolve(result.toWritableMap());
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Replace the tags of existing notes. The notes are read a chunk at a time and only the notes
+   * whose tags changed are written
+   * @param incomingNoteIds
+   * @param incomingTagRows - one array of tags per note, null for no tags
+   * @return the updated, unchanged, not found and failed counts
+   */
+  @ReactMethod
+  public void updateNoteTags(ReadableArray incomingNoteIds, ReadableArray incomingTagRows, final Promise promise) {
+    final long[] noteIds;
+    final List<Set<String>> tagRows = new ArrayList<>(incomingTagRows.size());
+    try {
+      noteIds = convertNoteIds(incomingNoteIds);
+      for (String[] tags : convertReadableRows(incomingTagRows)) {
+        tagRows.add(tags == null ? new HashSet<String>() : new HashSet<String>(Arrays.asList(tags)));
+      }
+      if (noteIds.length != tagRows.size()) {
+        throw new IllegalArgumentException("Need one row of tags per note ID");
+      }
+    } catch (Exception e) {
+      reject(promise, e);
+      return;
+    }
+    runWrite("updateNoteTags", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          UpdateNotesResult result = noteUpdater.updateTags(noteIds, tagRows, DEFAULT_CHUNK_SIZE);
+          metrics.increment("notes.updated", result.getUpdated());
+          metrics.increment("notes.unchanged", result.getUnchanged());
+          promise.resolve(result.toWritableMap());
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * @param incomingNoteIds note IDs as strings, as they are returned by #addNote
+   * @return the note IDs
+   */
+  private static long[] convertNoteIds(ReadableArray incomingNoteIds) {
+    long[] noteIds = new long[incomingNoteIds.size()];
+    for (int index = 0; index < noteIds.length; index++) {
+      noteIds[index] = incomingNoteIds.getType(index) == ReadableType.Number ? (long) incomingNoteIds.getDouble(index)
+          : Long.parseLong(incomingNoteIds.getString(index));
+    }
+    return noteIds;
+  }
+
+  /**
+   * converts a ReadableArray that may hold nulls to a String[]
+   * @param incomingReadableArray
+   * @return the strings, null entries stay null
+   */
+  private static String[] convertReadableArrayWithNulls(ReadableArray incomingReadableArray) {
+    String[] array = new String[incomingReadableArray.size()];
+    for (int index = 0; index < array.length; index++) {
+      array[index] = incomingReadableArray.isNull(index) ? null : incomingReadableArray.getString(index);
+    }
+    return array;
+  }
+
+  /**
+   * Read the fields and tags of many notes with one query. The notes provider takes an Anki search,
+   * so the notes are found with a nid: search
+   * @param noteIds
+   * @return the notes that exist, by note ID
+   */
+  private Map<Long, NoteUpdater.Note> readNotes(List<Long> noteIds) {
+    Map<Long, NoteUpdater.Note> notes = new HashMap<>();
+    if (noteIds.isEmpty()) {
+      return notes;
+    }
+    StringBuilder search = new StringBuilder("nid:");
+    for (int index = 0; index < noteIds.size(); index++) {
+      search.append(index == 0 ? "" : ",").append(noteIds.get(index));
+    }
+    String[] projection = { FlashCardsContract.Note._ID, FlashCardsContract.Note.MID, FlashCardsContract.Note.FLDS,
+        FlashCardsContract.Note.TAGS };
+    Cursor cursor = checkApiResult(mContext.getContentResolver().query(FlashCardsContract.Note.CONTENT_URI,
+        projection, search.toString(), null, null));
+    if (cursor == null) {
+      throw new IllegalStateException("AnkiDroid did not return the notes");
+    }
+    try {
+      while (cursor.moveToNext()) {
+        long noteId = cursor.getLong(0);
+        String[] fields = cursor.getString(2).split(FIELD_SEPARATOR, -1);
+        Set<String> tags = new HashSet<>(NotePager.splitTags(cursor.getString(3)));
+        notes.put(noteId, new NoteUpdater.Note(noteId, cursor.getLong(1), fields, tags));
+      }
+    } finally {
+      cursor.close();
+    }
+    return notes;
+  }
+
+  /**
+   * Read notes a page at a time. The query stays open in AnkiDroid between the pages, so only one
+   * page is held in memory at a time. A page is continued with the cursor returned by the previous
+   * page and the same query. If the query was closed in the meantime it is run again and continues
+   * at the same position, the notes are ordered by ID
+   * @param query modelId, deckId and search (Anki search syntax) to filter the notes, all optional.
+   *          fields: the field names (needs modelId) or indexes to return, all fields if missing.
+   *          includeTags (default true). pageSize (default 500)
+   * @param continuation - the cursor returned with the previous page, null for the first page
+   * @return notes: { id, modelId, fields, tags }, cursor: for the next page or null after the last
+   *         page, total: number of notes found
+   */
+  @ReactMethod
+  public void queryNotes(ReadableMap query, final String continuation, final Promise promise) {
+    final String modelId;
+    final String search;
+    final Object[] fields;
+    final boolean includeTags;
+    final int pageSize;
+    try {
+      modelId = getString(query, "modelId", null);
+      String deckId = getString(query, "deckId", null);
+      String userSearch = getString(query, "search", null);
+      StringBuilder searchBuilder = new StringBuilder();
+      if (modelId != null) {
+        searchBuilder.append("mid:").append(Long.parseLong(modelId)).append(' ');
+      }
+      if (deckId != null) {
+        searchBuilder.append("did:").append(Long.parseLong(deckId)).append(' ');
+      }
+      if (userSearch != null && !userSearch.trim().isEmpty()) {
+        searchBuilder.append('(').append(userSearch).append(')');
+      }
+      search = searchBuilder.toString().trim();
+      ReadableArray incomingFields = query != null && query.hasKey("fields") && !query.isNull("fields")
+          ? query.getArray("fields") : null;
+      if (incomingFields == null) {
+        fields = null;
+      } else {
+        fields = new Object[incomingFields.size()];
+        for (int index = 0; index < fields.length; index++) {
+          fields[index] = incomingFields.getType(index) == ReadableType.Number ? (Object) incomingFields.getInt(index)
+              : incomingFields.getString(index);
+          if (fields[index] instanceof String && modelId == null) {
+            throw new IllegalArgumentException("Field names need a modelId, use field indexes otherwise");
+          }
+        }
+      }
+      includeTags = getBoolean(query, "includeTags", true);
+      pageSize = Math.max(1, Math.min(MAX_NOTE_PAGE_SIZE, getInt(query, "pageSize", DEFAULT_NOTE_PAGE_SIZE)));
+    } catch (Exception e) {
+      reject(promise, e);
+      return;
+    }
+    runRead("queryNotes", promise, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          int[] fieldIndexes = fields == null ? null : getFieldIndexes(modelId, fields);
+          promise.resolve(notePager.readPage(search, fieldIndexes, includeTags, pageSize, continuation));
+        } catch (Exception e) {
+          reject(promise, e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Close a note query before its last page was read, otherwise it is closed after a few minutes
+   * @param continuation - the cursor returned with the last page that was read
+   */
+  @ReactMethod
+  public void closeNoteQuery(String continuation, Promise promise) {
+    try {
+      if (continuation != null) {
+        notePager.close(continuation);
+      }
+      promise.resolve(true);
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * @param modelId
+   * @param fields field names or indexes
+   * @return the field indexes
+   */
+  private int[] getFieldIndexes(String modelId, Object[] fields) {
+    String[] fieldNames = null;
+    int[] fieldIndexes = new int[fields.length];
+    for (int index = 0; index < fields.length; index++) {
+      if (fields[index] instanceof Integer) {
+        fieldIndexes[index] = (Integer) fields[index];
+        continue;
+      }
+      if (fieldNames == null) {
+        ModelCache.Model model = getModel(Long.parseLong(modelId), -1);
+        if (model == null) {
+          throw new IllegalArgumentException("Model " + modelId + " does not exist");
+        }
+        fieldNames = model.fields;
+      }
+      fieldIndexes[index] = Arrays.asList(fieldNames).indexOf(fields[index]);
+      if (fieldIndexes[index] == -1) {
+        throw new IllegalArgumentException("Model " + modelId + " has no field " + fields[index]);
+      }
+    }
+    return fieldIndexes;
+  }
+
+  /**
+   * Create many new notes and add them to the deck. The deck and model are resolved once, then the
+   * rows are sent to AnkiDroid in chunks so a failing chunk does not abort the rest of the import
    * @param deckName
    * @param deckId - will not create a new deck if provided
    * @param modelName
@@ -422,56 +2618,598 @@ public class AnkiDroidModule extends ReactContextBaseJavaModule {
    * @param dbDeckReference
    * @param dbModelReference
    * @param incomingModelFields
-   * @param incomingValueFields
-   * @param incomingTags
+   * @param incomingValueFieldRows - one array of value fields per note
+   * @param incomingTags - tags for rows without their own tags, null for no tags
+   * @param incomingTagRows - optional per row tags, null to use incomingTags for every row
    * @param incomingCardNames
    * @param incomingQuestionFormat
    * @param incomingAnswerFormat
    * @param css - null for default CSS.
-   * @return might be null if there was an error
+   * @param chunkSize - number of notes per AnkiDroid call, 0 for the default
+   * @param skipDuplicates - leave out rows whose first field already exists for the model, checked with
+   *          one duplicate query per chunk
+   * @param idempotencyKey - null for none. The chunks of an earlier call with the key and the same
+   *          chunk size that added notes are not added again, only their added count is reported
+   * @return the added, duplicate and failed counts for the whole import and for each chunk, or an
+   *         error String
+   */
+  @ReactMethod
+  public void addNotes(String deckName, String deckId, String modelName, String modelId, String dbDeckReference,
+      String dbModelReference, ReadableArray incomingModelFields, ReadableArray incomingValueFieldRows,
+      ReadableArray incomingTags, ReadableArray incomingTagRows, ReadableArray incomingCardNames,
+      ReadableArray incomingQuestionFormat, ReadableArray incomingAnswerFormat, String css, int chunkSize,
+      boolean skipDuplicates, String idempotencyKey, Promise promise) {
+    try {
+      Job job = startJob("addNotes", addNotesTask(deckName, deckId, modelName, modelId, dbDeckReference,
+          dbModelReference, incomingModelFields, incomingValueFieldRows, incomingTags, incomingTagRows,
+          incomingCardNames, incomingQuestionFormat, incomingAnswerFormat, css, chunkSize, skipDuplicates,
+          idempotencyKey), promise);
+      if (job != null) {
+        job.waitFor(promise);
+      }
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Same as #addNotes, but resolves with a job ID right away. Use #waitForJob for the result,
+   * #getJobStatus for the progress and #cancelJob to stop adding the remaining chunks
+   * @return the job ID
    */
   @ReactMethod
-  public void addNote(String deckName, String deckId, String modelName, String modelId, String dbDeckReference, String dbModelReference,
-      ReadableArray incomingModelFields, ReadableArray incomingValueFields, ReadableArray incomingTags,
-      ReadableArray incomingCardNames, ReadableArray incomingQuestionFormat, ReadableArray incomingAnswerFormat,
-      String css, Promise promise) {
+  public void startAddNotes(String deckName, String deckId, String modelName, String modelId, String dbDeckReference,
+      String dbModelReference, ReadableArray incomingModelFields, ReadableArray incomingValueFieldRows,
+      ReadableArray incomingTags, ReadableArray incomingTagRows, ReadableArray incomingCardNames,
+      ReadableArray incomingQuestionFormat, ReadableArray incomingAnswerFormat, String css, int chunkSize,
+      boolean skipDuplicates, String idempotencyKey, Promise promise) {
     try {
-      String[] modelFields = convertReadableArray(incomingModelFields);
-      String[] valueFields = convertReadableArray(incomingValueFields);
-      String[] tagArray = convertReadableArray(incomingTags);
-      String[] cardNames = convertReadableArray(incomingCardNames);
-      String[] questionFormat = convertReadableArray(incomingQuestionFormat);
-      String[] answerFormat = convertReadableArray(incomingAnswerFormat);
-      
-      // to account for no tags
-      Set<String> tags = tagArray == null ? null : new HashSet<String>(Arrays.asList(tagArray));
+      Job job = startJob("addNotes", addNotesTask(deckName, deckId, modelName, modelId, dbDeckReference,
+          dbModelReference, incomingModelFields, incomingValueFieldRows, incomingTags, incomingTagRows,
+          incomingCardNames, incomingQuestionFormat, incomingAnswerFormat, css, chunkSize, skipDuplicates,
+          idempotencyKey), promise);
+      if (job != null) {
+        promise.resolve(job.id);
+      }
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
 
-      // use the deck ID if supplied
-      Long did = deckId != null ? Long.parseLong(deckId) : getDeckIdOrCreateIfNew(dbDeckReference, deckName);
+  /**
+   * Same as #addNotes, with a deck and model registered by #provision. Only the notes cross the
+   * bridge, the rest of the definition is taken from the registered model
+   * @param deckHandle
+   * @param modelHandle
+   * @param incomingValueFieldRows - one array of value fields per note
+   * @param incomingTags - tags for rows without their own tags, null for the tags of the model
+   * @param incomingTagRows - optional per row tags
+   */
+  @ReactMethod
+  public void addNotesByHandle(String deckHandle, String modelHandle, ReadableArray incomingValueFieldRows,
+      ReadableArray incomingTags, ReadableArray incomingTagRows, int chunkSize, boolean skipDuplicates,
+      String idempotencyKey, Promise promise) {
+    try {
+      Job job = startJob("addNotes", addNotesTask(deckHandle, modelHandle, incomingValueFieldRows, incomingTags,
+          incomingTagRows, chunkSize, skipDuplicates, idempotencyKey), promise);
+      if (job != null) {
+        job.waitFor(promise);
+      }
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
 
-      if (did == null) {
-        promise.resolve(FAILED_TO_CREATE_DECK);
-        return;
+  /**
+   * Same as #addNotesByHandle, but resolves with a job ID right away
+   * @return the job ID
+   */
+  @ReactMethod
+  public void startAddNotesByHandle(String deckHandle, String modelHandle, ReadableArray incomingValueFieldRows,
+      ReadableArray incomingTags, ReadableArray incomingTagRows, int chunkSize, boolean skipDuplicates,
+      String idempotencyKey, Promise promise) {
+    try {
+      Job job = startJob("addNotes", addNotesTask(deckHandle, modelHandle, incomingValueFieldRows, incomingTags,
+          incomingTagRows, chunkSize, skipDuplicates, idempotencyKey), promise);
+      if (job != null) {
+        promise.resolve(job.id);
       }
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Convert the #addNotes arguments and build the task that adds the notes. The arguments are
+   * converted on the calling thread so the queue does not hold on to the bridge arrays
+   */
+  private Job.Task addNotesTask(final String deckName, final String deckId, final String modelName,
+      final String modelId, final String dbDeckReference, final String dbModelReference,
+      ReadableArray incomingModelFields, ReadableArray incomingValueFieldRows, ReadableArray incomingTags,
+      ReadableArray incomingTagRows, ReadableArray incomingCardNames, ReadableArray incomingQuestionFormat,
+      ReadableArray incomingAnswerFormat, final String css, final int chunkSize, final boolean skipDuplicates,
+      final String idempotencyKey) {
+    return addNotesTask(deckName, deckId, modelName, modelId, dbDeckReference, dbModelReference,
+        convertReadableArray(incomingModelFields), convertReadableRows(incomingValueFieldRows),
+        convertReadableArray(incomingTags), incomingTagRows == null ? null : convertReadableRows(incomingTagRows),
+        convertReadableArray(incomingCardNames), convertReadableArray(incomingQuestionFormat),
+        convertReadableArray(incomingAnswerFormat), css, chunkSize, skipDuplicates, idempotencyKey);
+  }
 
-      // use the model ID if supplied
-      Long mid = modelId != null ? Long.parseLong(modelId) : getModelIdOrCreateIfNew(dbModelReference, modelName, modelFields, did, cardNames, questionFormat,
-      answerFormat, css);
+  /**
+   * Convert the #addNotesByHandle arguments and build the task that adds the notes with the
+   * registered deck and model
+   */
+  private Job.Task addNotesTask(String deckHandle, String modelHandle, ReadableArray incomingValueFieldRows,
+      ReadableArray incomingTags, ReadableArray incomingTagRows, int chunkSize, boolean skipDuplicates,
+      String idempotencyKey) {
+    Provisions.Deck deck = provisions.getDeck(deckHandle);
+    Provisions.Model model = provisions.getModel(modelHandle);
+    if (deck == null || model == null) {
+      throw new IllegalArgumentException("Unknown handle: " + (deck == null ? deckHandle : modelHandle));
+    }
+    return addNotesTask(deck.name, toIdString(deck.id), model.name, toIdString(model.id), deck.dbReference,
+        model.dbReference, model.fields, convertReadableRows(incomingValueFieldRows),
+        incomingTags == null ? model.tags : convertReadableArray(incomingTags),
+        incomingTagRows == null ? null : convertReadableRows(incomingTagRows), model.cardNames, model.questionFormat,
+        model.answerFormat, model.css, chunkSize, skipDuplicates, idempotencyKey);
+  }
 
-      if (mid == null) {
-        promise.resolve(FAILED_TO_CREATE_MODEL);
-        return;
+  private Job.Task addNotesTask(final String deckName, final String deckId, final String modelName,
+      final String modelId, final String dbDeckReference, final String dbModelReference, final String[] modelFields,
+      final List<String[]> valueFieldRows, final String[] tagArray, final List<String[]> tagRows,
+      final String[] cardNames, final String[] questionFormat, final String[] answerFormat, final String css,
+      final int chunkSize, final boolean skipDuplicates, final String idempotencyKey) {
+    return new Job.Task() {
+      @Override
+      public Object run(Job job) throws InterruptedException {
+        // to account for no tags
+        Set<String> defaultTags = tagArray == null ? null : new HashSet<String>(Arrays.asList(tagArray));
+        List<Set<String>> tags = new ArrayList<>(valueFieldRows.size());
+        for (int row = 0; row < valueFieldRows.size(); row++) {
+          String[] rowTags = tagRows == null || row >= tagRows.size() ? null : tagRows.get(row);
+          tags.add(rowTags == null ? defaultTags : new HashSet<String>(Arrays.asList(rowTags)));
+        }
+
+        int numFields = modelFields == null ? -1 : modelFields.length;
+        NoteTarget target = resolveTarget(deckName, deckId, modelName, modelId, dbDeckReference, dbModelReference,
+            modelFields, cardNames, questionFormat, answerFormat, css, numFields);
+        if (target.error != null) {
+          return target.error;
+        }
+        return addNoteChunks(job, target.modelId, target.deckId, valueFieldRows, tags,
+            chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE, numFields, skipDuplicates, idempotencyKey);
       }
+    };
+  }
 
-      Long addedNoteId = getApi().addNote(mid, did, valueFields, tags);
+  /**
+   * Add the rows to AnkiDroid in chunks. Rows with missing or mismatched fields are reported as failed
+   * without being sent. AddContentApi#addNotes only reports how many notes of a chunk were added, so
+   * the rows of a chunk are only listed individually when the whole chunk failed. Stops before the
+   * next chunk once the job was cancelled
+   * @param job
+   * @param modelId
+   * @param deckId
+   * @param valueFieldRows
+   * @param tags one entry per row
+   * @param chunkSize
+   * @param numFields expected number of fields per row, -1 to skip the check
+   * @param skipDuplicates true to leave out the rows whose first field already exists for the model
+   * @param idempotencyKey null for none, otherwise the added count of each chunk is recorded and the
+   *          chunks recorded by an earlier call are skipped
+   * @return the totals, all failed and duplicate row indices and a result per chunk
+   * @throws InterruptedException if the job was interrupted while waiting for a call with the same key
+   */
+  private AddNotesResult addNoteChunks(Job job, long modelId, long deckId, List<String[]> valueFieldRows,
+      List<Set<String>> tags, int chunkSize, int numFields, boolean skipDuplicates, String idempotencyKey)
+      throws InterruptedException {
+    AddNotesResult result = new AddNotesResult();
+    job.setProgress(result);
 
-      if (addedNoteId == null) {
-        promise.resolve(FAILED_TO_ADD_NOTE);
-      } else {
-        promise.resolve(addedNoteId.toString());
+    for (int start = 0; start < valueFieldRows.size() && !job.isCancelled(); start += chunkSize) {
+      int end = Math.min(start + chunkSize, valueFieldRows.size());
+      // the chunk size is part of the key, so the chunks of a retry line up with the recorded ones
+      String chunkKey = idempotencyKey == null ? null
+          : "addNotes" + KEY_SEPARATOR + idempotencyKey + KEY_SEPARATOR + chunkSize + KEY_SEPARATOR + start;
+      if (chunkKey != null) {
+        Long recordedAdded = operations.begin(chunkKey);
+        if (recordedAdded != null) {
+          metrics.increment("notes.replayed", recordedAdded);
+          result.addReplayedChunk(start, end - start, recordedAdded.intValue());
+          continue;
+        }
+      }
+      try {
+        addNoteChunk(result, modelId, deckId, valueFieldRows, tags, start, end, numFields, skipDuplicates, chunkKey);
+      } finally {
+        if (chunkKey != null) {
+          operations.end(chunkKey, null);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Add the rows of one chunk, see #addNoteChunks
+   * @param result where the chunk result is added
+   * @param chunkKey to record the added count under once notes were added, null for none
+   */
+  private void addNoteChunk(AddNotesResult result, long modelId, long deckId, List<String[]> valueFieldRows,
+      List<Set<String>> tags, int start, int end, int numFields, boolean skipDuplicates, String chunkKey) {
+    List<String[]> chunkFields = new ArrayList<>(end - start);
+    List<Set<String>> chunkTags = new ArrayList<>(end - start);
+    List<Integer> chunkRows = new ArrayList<>(end - start);
+    List<Integer> chunkFailedRows = new ArrayList<>();
+
+    for (int row = start; row < end; row++) {
+      String[] fields = valueFieldRows.get(row);
+      if (fields == null || (numFields != -1 && fields.length != numFields)) {
+        chunkFailedRows.add(row);
+        continue;
+      }
+      chunkFields.add(fields);
+      chunkTags.add(tags.get(row));
+      chunkRows.add(row);
+    }
+
+    List<Integer> chunkDuplicateRows = new ArrayList<>();
+    String error = null;
+    if (skipDuplicates && !chunkFields.isEmpty()) {
+      boolean[] duplicates;
+      try {
+        duplicates = duplicateFilter.find(modelId, chunkFields);
+      } catch (IllegalStateException e) {
+        // adding the rows anyway could add the duplicates the caller asked to skip
+        error = e.toString();
+        chunkFailedRows.addAll(chunkRows);
+        chunkFields.clear();
+        duplicates = new boolean[0];
+      }
+      int kept = 0;
+      for (int index = 0; index < duplicates.length; index++) {
+        if (duplicates[index]) {
+          chunkDuplicateRows.add(chunkRows.get(index));
+          continue;
+        }
+        chunkFields.set(kept, chunkFields.get(index));
+        chunkTags.set(kept, chunkTags.get(index));
+        chunkRows.set(kept, chunkRows.get(index));
+        kept++;
+      }
+      chunkFields.subList(kept, chunkFields.size()).clear();
+      chunkTags.subList(kept, chunkTags.size()).clear();
+      chunkRows.subList(kept, chunkRows.size()).clear();
+    }
+
+    int chunkAdded = 0;
+    if (!chunkFields.isEmpty()) {
+      long insertStart = metrics.start();
+      try {
+        chunkAdded = getApi().addNotes(modelId, deckId, chunkFields, chunkTags);
+        metrics.record("stage.bulkInsert", insertStart);
+        metrics.increment("notes.added", chunkAdded);
+      } catch (Exception e) {
+        metrics.record("stage.bulkInsert", insertStart, true);
+        onApiError(e);
+        error = e.toString();
+        // the model may have been changed, load it again for the next lookup
+        modelCache.remove(modelId);
+        chunkFailedRows.addAll(chunkRows);
+      }
+    }
+    if (chunkKey != null && chunkAdded > 0) {
+      // a chunk that added nothing can safely run again
+      operations.end(chunkKey, (long) chunkAdded);
+    }
+    int chunkFailed = (end - start) - chunkAdded - chunkDuplicateRows.size();
+    result.addChunk(start, end - start, chunkAdded, chunkFailed, chunkFailedRows, chunkDuplicateRows, error);
+  }
+
+  /**
+   * Import notes from a local TSV, CSV or JSON lines file. The file is read one row at a time and the
+   * rows are added in batches, so the notes never pass through the bridge. A progress event is sent
+   * after each batch
+   * @param filePath path of the file, may start with file://
+   * @param importOptions format, columns, hasHeader, tagsColumn, batchSize, skipDuplicates and importId
+   * @param deckName
+   * @param deckId - will not create a new deck if provided
+   * @param modelName
+   * @param modelId - will not create a new model if provided
+   * @param dbDeckReference
+   * @param dbModelReference
+   * @param incomingModelFields
+   * @param incomingTags - tags for every note, null for no tags
+   * @param incomingCardNames
+   * @param incomingQuestionFormat
+   * @param incomingAnswerFormat
+   * @param css - null for default CSS.
+   * @return the read, added, duplicate and failed counts, or an error String
+   */
+  @ReactMethod
+  public void importNotesFromFile(String filePath, ReadableMap importOptions, String deckName, String deckId,
+      String modelName, String modelId, String dbDeckReference, String dbModelReference,
+      ReadableArray incomingModelFields, ReadableArray incomingTags, ReadableArray incomingCardNames,
+      ReadableArray incomingQuestionFormat, ReadableArray incomingAnswerFormat, String css, Promise promise) {
+    try {
+      Job job = startJob("importNotesFromFile", importNotesTask(filePath, importOptions, deckName, deckId,
+          modelName, modelId, dbDeckReference, dbModelReference, incomingModelFields, incomingTags,
+          incomingCardNames, incomingQuestionFormat, incomingAnswerFormat, css), promise);
+      if (job != null) {
+        job.waitFor(promise);
+      }
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Same as #importNotesFromFile, but resolves with a job ID right away. Use #waitForJob for the
+   * result, #getJobStatus for the progress and #cancelJob to stop after the current batch
+   * @return the job ID
+   */
+  @ReactMethod
+  public void startImportNotesFromFile(String filePath, ReadableMap importOptions, String deckName, String deckId,
+      String modelName, String modelId, String dbDeckReference, String dbModelReference,
+      ReadableArray incomingModelFields, ReadableArray incomingTags, ReadableArray incomingCardNames,
+      ReadableArray incomingQuestionFormat, ReadableArray incomingAnswerFormat, String css, Promise promise) {
+    try {
+      Job job = startJob("importNotesFromFile", importNotesTask(filePath, importOptions, deckName, deckId,
+          modelName, modelId, dbDeckReference, dbModelReference, incomingModelFields, incomingTags,
+          incomingCardNames, incomingQuestionFormat, incomingAnswerFormat, css), promise);
+      if (job != null) {
+        promise.resolve(job.id);
+      }
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Same as #importNotesFromFile, with a deck and model registered by #provision
+   * @param filePath
+   * @param importOptions
+   * @param deckHandle
+   * @param modelHandle
+   * @param incomingTags - tags for every note, null for the tags of the model
+   * @return the read, added, duplicate and failed counts, or an error String
+   */
+  @ReactMethod
+  public void importNotesFromFileByHandle(String filePath, ReadableMap importOptions, String deckHandle,
+      String modelHandle, ReadableArray incomingTags, Promise promise) {
+    try {
+      Job job = startJob("importNotesFromFile", importNotesTask(filePath, importOptions, deckHandle, modelHandle,
+          incomingTags), promise);
+      if (job != null) {
+        job.waitFor(promise);
+      }
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Same as #importNotesFromFileByHandle, but resolves with a job ID right away
+   * @return the job ID
+   */
+  @ReactMethod
+  public void startImportNotesFromFileByHandle(String filePath, ReadableMap importOptions, String deckHandle,
+      String modelHandle, ReadableArray incomingTags, Promise promise) {
+    try {
+      Job job = startJob("importNotesFromFile", importNotesTask(filePath, importOptions, deckHandle, modelHandle,
+          incomingTags), promise);
+      if (job != null) {
+        promise.resolve(job.id);
+      }
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Convert the #importNotesFromFile arguments and build the task that imports the file
+   */
+  private Job.Task importNotesTask(String filePath, ReadableMap importOptions, String deckName, String deckId,
+      String modelName, String modelId, String dbDeckReference, String dbModelReference,
+      ReadableArray incomingModelFields, ReadableArray incomingTags, ReadableArray incomingCardNames,
+      ReadableArray incomingQuestionFormat, ReadableArray incomingAnswerFormat, String css) {
+    return importNotesTask(filePath, importOptions, deckName, deckId, modelName, modelId, dbDeckReference,
+        dbModelReference, convertReadableArray(incomingModelFields), convertReadableArray(incomingTags),
+        convertReadableArray(incomingCardNames), convertReadableArray(incomingQuestionFormat),
+        convertReadableArray(incomingAnswerFormat), css);
+  }
+
+  /**
+   * Convert the #importNotesFromFileByHandle arguments and build the task that imports the file into
+   * the registered deck and model
+   */
+  private Job.Task importNotesTask(String filePath, ReadableMap importOptions, String deckHandle,
+      String modelHandle, ReadableArray incomingTags) {
+    Provisions.Deck deck = provisions.getDeck(deckHandle);
+    Provisions.Model model = provisions.getModel(modelHandle);
+    if (deck == null || model == null) {
+      throw new IllegalArgumentException("Unknown handle: " + (deck == null ? deckHandle : modelHandle));
+    }
+    return importNotesTask(filePath, importOptions, deck.name, toIdString(deck.id), model.name,
+        toIdString(model.id), deck.dbReference, model.dbReference, model.fields,
+        incomingTags == null ? model.tags : convertReadableArray(incomingTags), model.cardNames,
+        model.questionFormat, model.answerFormat, model.css);
+  }
+
+  private Job.Task importNotesTask(String filePath, ReadableMap importOptions, final String deckName,
+      final String deckId, final String modelName, final String modelId, final String dbDeckReference,
+      final String dbModelReference, final String[] modelFields, final String[] tagArray, final String[] cardNames,
+      final String[] questionFormat, final String[] answerFormat, final String css) {
+    final File file = new File(filePath.replaceFirst("^file://", ""));
+    final NoteFileReader.Format format = NoteFileReader.Format.from(getString(importOptions, "format", null), file);
+    final boolean hasHeader = getBoolean(importOptions, "hasHeader", format == NoteFileReader.Format.CSV);
+    final boolean skipDuplicates = getBoolean(importOptions, "skipDuplicates", false);
+    final int requestedBatchSize = getInt(importOptions, "batchSize", DEFAULT_CHUNK_SIZE);
+    final int batchSize = requestedBatchSize > 0 ? Math.min(MAX_IMPORT_BATCH_SIZE, requestedBatchSize)
+        : DEFAULT_CHUNK_SIZE;
+    final String importId = getString(importOptions, "importId", filePath);
+    final Object tagsColumn = getColumn(importOptions, "tagsColumn");
+    final Object[] columns = getColumns(importOptions, modelFields, format, hasHeader, tagsColumn);
+
+    return new Job.Task() {
+      @Override
+      public Object run(Job job) throws IOException {
+        NoteTarget target = resolveTarget(deckName, deckId, modelName, modelId, dbDeckReference, dbModelReference,
+            modelFields, cardNames, questionFormat, answerFormat, css, modelFields.length);
+        if (target.error != null) {
+          return target.error;
+        }
+        Set<String> tags = tagArray == null ? null : new HashSet<String>(Arrays.asList(tagArray));
+        // the tags column is optional, a row without it only gets the default tags
+        try (NoteFileReader reader = new NoteFileReader(file, format, columns, modelFields.length, hasHeader)) {
+          return noteImporter.importNotes(job, reader, target.modelId, target.deckId, modelFields.length,
+              tagsColumn != null, tags, batchSize, skipDuplicates, importId);
+        }
+      }
+    };
+  }
+
+  /**
+   * Queue a job on the write queue
+   * @param type name of the operation
+   * @param task
+   * @param promise rejected with BUSY if the queue is full
+   * @return the job, or null if it could not be queued
+   */
+  private Job startJob(String type, final Job.Task task, Promise promise) {
+    final Job job = jobs.create(type);
+    final long start = metrics.start();
+    boolean queued = writeQueue.execute(new Runnable() {
+      @Override
+      public void run() {
+        metrics.record("queue." + writeQueue.name + ".wait", start);
+        // the batched notes were sent before the job
+        noteBatcher.flushAll();
+        job.run(new Job.Task() {
+          @Override
+          public Object run(Job runningJob) throws Exception {
+            try {
+              return task.run(runningJob);
+            } catch (Exception e) {
+              onApiError(e);
+              throw e;
+            }
+          }
+        });
+        metrics.record(job.type, start, job.getState() == Job.State.FAILED);
+      }
+    });
+    if (!queued) {
+      metrics.increment("queue." + writeQueue.name + ".busy", 1);
+      String message = "Too many pending operations, retry after " + writeQueue.retryAfterMillis() + " ms";
+      job.fail(BUSY, message);
+      promise.reject(BUSY, message);
+      return null;
+    }
+    return job;
+  }
+
+  /**
+   * Cancel a job. A queued job will not start and a running job stops after its current batch
+   * @param jobId
+   * @return true if the job was still running or queued
+   */
+  @ReactMethod
+  public void cancelJob(String jobId, Promise promise) {
+    try {
+      Job job = jobs.get(jobId);
+      promise.resolve(job != null && job.cancel());
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Get the state and progress of a job
+   * @param jobId
+   * @return id, type, state, progress, result and error of the job, or null if the job is unknown
+   */
+  @ReactMethod
+  public void getJobStatus(String jobId, Promise promise) {
+    try {
+      Job job = jobs.get(jobId);
+      promise.resolve(job == null ? null : job.toWritableMap());
+    } catch (Exception e) {
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Wait for a job to finish
+   * @param jobId
+   * @return the result of the job, rejected with CANCELLED if the job was cancelled
+   */
+  @ReactMethod
+  public void waitForJob(String jobId, Promise promise) {
+    try {
+      Job job = jobs.get(jobId);
+      if (job == null) {
+        promise.reject("Unknown job: " + jobId);
+        return;
       }
+      job.waitFor(promise);
     } catch (Exception e) {
-      promise.reject(e.toString());
+      reject(promise, e);
+    }
+  }
+
+  /**
+   * Get the columns to read for each model field, followed by the tags column if there is one.
+   * Defaults to the model field names for files with names and to the first columns otherwise
+   */
+  private static Object[] getColumns(ReadableMap importOptions, String[] modelFields, NoteFileReader.Format format,
+      boolean hasHeader, Object tagsColumn) {
+    ReadableArray incomingColumns = importOptions != null && importOptions.hasKey("columns")
+        && !importOptions.isNull("columns") ? importOptions.getArray("columns") : null;
+    if (incomingColumns != null && incomingColumns.size() != modelFields.length) {
+      throw new IllegalArgumentException("columns must have one entry per model field");
+    }
+    Object[] columns = new Object[modelFields.length + (tagsColumn == null ? 0 : 1)];
+    for (int index = 0; index < modelFields.length; index++) {
+      if (incomingColumns != null) {
+        columns[index] = incomingColumns.getType(index) == ReadableType.Number ? (Object) incomingColumns.getInt(index)
+            : incomingColumns.getString(index);
+      } else if (hasHeader || format == NoteFileReader.Format.JSONL) {
+        columns[index] = modelFields[index];
+      } else {
+        columns[index] = index;
+      }
+    }
+    if (tagsColumn != null) {
+      columns[modelFields.length] = tagsColumn;
+    }
+    return columns;
+  }
+
+  private static Object getColumn(ReadableMap options, String key) {
+    if (options == null || !options.hasKey(key) || options.isNull(key)) {
+      return null;
+    }
+    return options.getType(key) == ReadableType.Number ? (Object) options.getInt(key) : options.getString(key);
+  }
+
+  private static String getString(ReadableMap options, String key, String defaultValue) {
+    return options != null && options.hasKey(key) && !options.isNull(key) ? options.getString(key) : defaultValue;
+  }
+
+  private static boolean getBoolean(ReadableMap options, String key, boolean defaultValue) {
+    return options != null && options.hasKey(key) && !options.isNull(key) ? options.getBoolean(key) : defaultValue;
+  }
+
+  /**
+   * Send an event to JS through the DeviceEventEmitter
+   * @param eventName
+   * @param params
+   */
+  private void sendEvent(String eventName, WritableMap params) {
+    if (reactContext.hasActiveCatalystInstance()) {
+      reactContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(eventName, params);
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,62 @@
+package com.is343.reactnativeankidroid;
+
+/**
+ * Cached answers to whether AnkiDroid is installed with its API enabled and whether the app was
+ * granted the API permission, so they are not looked up through the PackageManager before every
+ * operation. The cache is dropped when a package is added, removed or replaced, and when a call to
+ * the provider is refused or returns nothing, as disabling the API in AnkiDroid sends no broadcast
+ */
+class ApiStatus {
+  /**
+   * Does the actual lookups
+   */
+  interface Checker {
+    /**
+     * @return true if AnkiDroid is installed and the API is enabled
+     */
+    boolean isAvailable();
+
+    /**
+     * @return true if the API permission is granted
+     */
+    boolean isPermissionGranted();
+  }
+
+  private final Checker checker;
+  private Boolean available;
+  private boolean permissionGranted;
+
+  ApiStatus(Checker checker) {
+    this.checker = checker;
+  }
+
+  /**
+   * @return true if the API is available to use
+   */
+  synchronized boolean isAvailable() {
+    if (available == null) {
+      available = checker.isAvailable();
+    }
+    return available;
+  }
+
+  /**
+   * Only a granted permission is cached, a denied one may be granted at any time. Revoking a
+   * permission restarts the app, which clears the cache
+   * @return true if the API permission is granted
+   */
+  synchronized boolean isPermissionGranted() {
+    if (!permissionGranted) {
+      permissionGranted = checker.isPermissionGranted();
+    }
+    return permissionGranted;
+  }
+
+  /**
+   * Look everything up again on the next check
+   */
+  synchronized void invalidate() {
+    available = null;
+    permissionGranted = false;
+  }
+}
@@ -0,0 +1,140 @@
+package com.is343.reactnativeankidroid;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Open query cursors that JS reads a page at a time, by continuation ID. A cursor is taken out while
+ * a page is read, so two calls never read the same cursor. The least recently used cursors are
+ * closed once there are too many, and cursors that were not read for a while are closed on the next
+ * call. A closed cursor is opened again by the caller, so this only saves the work of running the
+ * query and skipping to the position again
+ * @param <C> an open cursor
+ */
+class CursorRegistry<C extends Closeable> {
+  private static class Entry<C> {
+    final C cursor;
+    final long lastUsed;
+
+    Entry(C cursor, long lastUsed) {
+      this.cursor = cursor;
+      this.lastUsed = lastUsed;
+    }
+  }
+
+  private final int maxOpen;
+  private final long idleMillis;
+  private final Map<String, Entry<C>> cursors = new LinkedHashMap<>();
+  private long nextId;
+
+  /**
+   * @param maxOpen cursors kept open, the least recently used are closed first
+   * @param idleMillis how long a cursor is kept open without being read
+   */
+  CursorRegistry(int maxOpen, long idleMillis) {
+    this.maxOpen = maxOpen;
+    this.idleMillis = idleMillis;
+  }
+
+  /**
+   * @return a new continuation ID
+   */
+  synchronized String newId() {
+    return Long.toString(++nextId, 36);
+  }
+
+  /**
+   * Take an open cursor out of the registry to read the next page
+   * @param id continuation ID
+   * @return the cursor, or null if it was closed
+   */
+  C take(String id) {
+    Entry<C> entry;
+    synchronized (this) {
+      entry = cursors.remove(id);
+    }
+    closeIdle();
+    return entry == null ? null : entry.cursor;
+  }
+
+  /**
+   * Keep a cursor open for the next page
+   * @param id continuation ID
+   * @param cursor
+   */
+  void put(String id, C cursor) {
+    List<C> closing = new ArrayList<>();
+    synchronized (this) {
+      Entry<C> previous = cursors.put(id, new Entry<>(cursor, System.currentTimeMillis()));
+      if (previous != null && previous.cursor != cursor) {
+        closing.add(previous.cursor);
+      }
+      Iterator<Entry<C>> eldest = cursors.values().iterator();
+      while (cursors.size() > maxOpen) {
+        closing.add(eldest.next().cursor);
+        eldest.remove();
+      }
+    }
+    close(closing);
+  }
+
+  /**
+   * Close a cursor that is no longer needed, e.g. when JS stops reading early
+   * @param id continuation ID
+   */
+  void close(String id) {
+    C cursor = take(id);
+    if (cursor != null) {
+      close(cursor);
+    }
+  }
+
+  /**
+   * Close all cursors
+   */
+  void closeAll() {
+    List<C> closing = new ArrayList<>();
+    synchronized (this) {
+      for (Entry<C> entry : cursors.values()) {
+        closing.add(entry.cursor);
+      }
+      cursors.clear();
+    }
+    close(closing);
+  }
+
+  private void closeIdle() {
+    List<C> closing = new ArrayList<>();
+    long idleSince = System.currentTimeMillis() - idleMillis;
+    synchronized (this) {
+      Iterator<Entry<C>> entries = cursors.values().iterator();
+      while (entries.hasNext()) {
+        Entry<C> entry = entries.next();
+        if (entry.lastUsed < idleSince) {
+          closing.add(entry.cursor);
+          entries.remove();
+        }
+      }
+    }
+    close(closing);
+  }
+
+  private static <C extends Closeable> void close(List<C> cursors) {
+    for (C cursor : cursors) {
+      close(cursor);
+    }
+  }
+
+  private static void close(Closeable cursor) {
+    try {
+      cursor.close();
+    } catch (IOException e) {
+      // nothing is left to read from it
+    }
+  }
+}
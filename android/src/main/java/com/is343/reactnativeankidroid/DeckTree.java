@@ -0,0 +1,309 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Trie of the AnkiDroid decks by the parts of their names, split on "::". Answers subtree and
+ * prefix queries without scanning the deck list, and resolves many decks of a hierarchy at once,
+ * creating only the missing ones. Deck names are matched ignoring case, like AnkiDroid does. The
+ * deck list is loaded once and refreshed after decks were created whose parents are not known yet
+ */
+class DeckTree {
+  static final String SEPARATOR = "::";
+
+  /**
+   * Creates a missing deck in AnkiDroid, which also creates its missing parents
+   */
+  interface Creator {
+    /**
+     * @param name full name of the deck
+     * @return the deck ID, or null if there was an API error
+     */
+    Long create(String name);
+  }
+
+  /**
+   * A deck found in the tree
+   */
+  static class Deck {
+    final long id;
+    final String name;
+    // 0 for the root of the query
+    final int depth;
+
+    Deck(long id, String name, int depth) {
+      this.id = id;
+      this.name = name;
+      this.depth = depth;
+    }
+  }
+
+  /**
+   * IDs of resolved decks
+   */
+  static class Resolved {
+    // one per name, null if it could not be created
+    final Long[] ids;
+    int created;
+
+    Resolved(int size) {
+      ids = new Long[size];
+    }
+  }
+
+  private static class Node {
+    // full name, as AnkiDroid has it once the deck itself was added
+    String name;
+    // null while the deck only is known as the parent of another deck
+    Long id;
+    // by folded name part, sorted
+    final TreeMap<String, Node> children = new TreeMap<>();
+
+    Node(String name) {
+      this.name = name;
+    }
+  }
+
+  private final NameIndex.Loader loader;
+  private Node root;
+  // the root only holds the decks created since the list could not be loaded
+  private boolean incomplete;
+
+  /**
+   * @param loader used to fill and refresh the tree
+   */
+  DeckTree(NameIndex.Loader loader) {
+    this.loader = loader;
+  }
+
+  /**
+   * Get a deck and all decks below it, parents before their children
+   * @param name full name of the deck, null for all decks
+   * @param prefix true to also match decks whose last name part starts with the last part of name,
+   *          e.g. "Course::Unit" matches "Course::Unit 1" and "Course::Unit 2"
+   * @param maxDepth levels below the matched decks, negative for all
+   * @return the decks, empty if there is no match or API error
+   */
+  synchronized List<Deck> subtree(String name, boolean prefix, int maxDepth) {
+    List<Deck> decks = new ArrayList<>();
+    if (!load()) {
+      return decks;
+    }
+    if (name == null || name.isEmpty()) {
+      for (Node child : root.children.values()) {
+        collect(child, 0, maxDepth, decks);
+      }
+      return decks;
+    }
+    String[] parts = split(name);
+    Node parent = root;
+    for (int index = 0; index < parts.length - 1 && parent != null; index++) {
+      parent = parent.children.get(fold(parts[index]));
+    }
+    if (parent == null) {
+      return decks;
+    }
+    String last = fold(parts[parts.length - 1]);
+    if (!prefix) {
+      Node node = parent.children.get(last);
+      if (node != null) {
+        collect(node, 0, maxDepth, decks);
+      }
+      return decks;
+    }
+    // the children are sorted, so the matches are next to each other
+    for (Map.Entry<String, Node> child : parent.children.tailMap(last).entrySet()) {
+      if (!child.getKey().startsWith(last)) {
+        break;
+      }
+      collect(child.getValue(), 0, maxDepth, decks);
+    }
+    return decks;
+  }
+
+  /**
+   * Get the IDs of many decks, creating the missing ones. Parents are created before their children
+   * so each missing deck is created with one call, and the deck list is only loaded again if a
+   * deck was created whose parents were not in the list. The creator is called without holding the
+   * tree, as it may wait for another thread that adds a deck
+   * @param names full names of the decks
+   * @param creator creates a missing deck
+   * @return the IDs in the order of the names
+   */
+  Resolved resolve(List<String> names, Creator creator) {
+    Resolved resolved = new Resolved(names.size());
+    List<Integer> order = new ArrayList<>(names.size());
+    final int[] depths = new int[names.size()];
+    for (int index = 0; index < names.size(); index++) {
+      order.add(index);
+      depths[index] = names.get(index) == null ? 0 : split(names.get(index)).length;
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer left, Integer right) {
+        return depths[left] != depths[right] ? depths[left] - depths[right] : left.compareTo(right);
+      }
+    });
+    boolean missingParents = false;
+    for (int index : order) {
+      String name = names.get(index);
+      if (name == null || name.isEmpty()) {
+        continue;
+      }
+      Long id;
+      synchronized (this) {
+        Node node = find(name);
+        id = node == null ? null : node.id;
+      }
+      if (id == null) {
+        id = creator.create(name);
+        if (id == null) {
+          continue;
+        }
+        synchronized (this) {
+          missingParents |= add(tree(), name, id);
+        }
+        resolved.created++;
+      }
+      resolved.ids[index] = id;
+    }
+    if (missingParents) {
+      synchronized (this) {
+        // learn the IDs of the parents AnkiDroid created on its own
+        refresh();
+      }
+    }
+    return resolved;
+  }
+
+  /**
+   * Add a newly created deck without reloading the whole list
+   * @param name
+   * @param id
+   */
+  synchronized void put(String name, long id) {
+    if (root != null && add(root, name, id)) {
+      // AnkiDroid created the parents as well, their IDs are loaded on the next query
+      root = null;
+    }
+  }
+
+  /**
+   * Replace the tree with a list that was already loaded elsewhere
+   * @param list ID to name map, ignored if null
+   */
+  synchronized void fill(Map<Long, String> list) {
+    if (list != null) {
+      root = build(list);
+      incomplete = false;
+    }
+  }
+
+  /**
+   * Drop the tree, it will be loaded again on the next query
+   */
+  synchronized void invalidate() {
+    root = null;
+    incomplete = false;
+  }
+
+  private boolean load() {
+    if (root == null || incomplete) {
+      refresh();
+    }
+    return root != null && !incomplete;
+  }
+
+  /**
+   * @return the tree, empty if it could not be loaded
+   */
+  private Node tree() {
+    if (!load() && root == null) {
+      root = new Node("");
+      incomplete = true;
+    }
+    return root;
+  }
+
+  private void refresh() {
+    Map<Long, String> list = loader.load();
+    if (list != null) {
+      root = build(list);
+      incomplete = false;
+    }
+  }
+
+  private static Node build(Map<Long, String> list) {
+    Node tree = new Node("");
+    for (Map.Entry<Long, String> entry : list.entrySet()) {
+      if (entry.getValue() != null) {
+        add(tree, entry.getValue(), entry.getKey());
+      }
+    }
+    return tree;
+  }
+
+  /**
+   * @return true if a parent of the deck was not in the tree yet
+   */
+  private static boolean add(Node tree, String name, long id) {
+    String[] parts = split(name);
+    Node node = tree;
+    boolean missingParents = false;
+    StringBuilder path = new StringBuilder();
+    for (int index = 0; index < parts.length; index++) {
+      path.append(index == 0 ? "" : SEPARATOR).append(parts[index]);
+      String key = fold(parts[index]);
+      Node child = node.children.get(key);
+      if (child == null) {
+        child = new Node(path.toString());
+        node.children.put(key, child);
+        missingParents |= index < parts.length - 1;
+      }
+      node = child;
+    }
+    node.id = id;
+    node.name = name;
+    return missingParents;
+  }
+
+  private Node find(String name) {
+    Node node = tree();
+    for (String part : split(name)) {
+      node = node.children.get(fold(part));
+      if (node == null) {
+        return null;
+      }
+    }
+    return node;
+  }
+
+  private static void collect(Node node, int depth, int maxDepth, List<Deck> decks) {
+    if (node.id != null) {
+      decks.add(new Deck(node.id, node.name, depth));
+    }
+    if (maxDepth >= 0 && depth >= maxDepth) {
+      return;
+    }
+    for (Node child : node.children.values()) {
+      collect(child, depth + 1, maxDepth, decks);
+    }
+  }
+
+  private static String[] split(String name) {
+    return name.split(SEPARATOR, -1);
+  }
+
+  /**
+   * Case folds the same way as NameIndex
+   */
+  private static String fold(String part) {
+    return part.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,104 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the rows of a batch whose first field already exists for the model, or appears earlier in
+ * the same batch. Each distinct first field is sent once in a single duplicate query, and the
+ * answer is mapped back to the rows through a hash index
+ */
+class DuplicateFilter {
+  /**
+   * Looks up which keys already exist, e.g. AddContentApi#findDuplicateNotes
+   */
+  interface Finder {
+    /**
+     * @param modelId
+     * @param keys first field values
+     * @return the indices of the keys that already exist, null if there was an API error
+     */
+    int[] find(long modelId, List<String> keys);
+  }
+
+  private final Finder finder;
+
+  DuplicateFilter(Finder finder) {
+    this.finder = finder;
+  }
+
+  /**
+   * @param modelId
+   * @param rows the note fields, null rows are never duplicates
+   * @return for each row whether it is a duplicate
+   * @throws IllegalStateException if the duplicates could not be looked up, the rows must not be
+   *           added as if none existed
+   */
+  boolean[] find(long modelId, List<String[]> rows) {
+    boolean[] duplicates = new boolean[rows.size()];
+    // first row for each distinct first field
+    Map<String, Integer> firstRows = new HashMap<>(rows.size() * 2);
+    List<String> keys = new ArrayList<>(rows.size());
+    int[] keyRows = new int[rows.size()];
+    for (int row = 0; row < rows.size(); row++) {
+      String[] fields = rows.get(row);
+      if (fields == null || fields.length == 0 || fields[0] == null) {
+        continue;
+      }
+      Integer firstRow = firstRows.get(fields[0]);
+      if (firstRow != null) {
+        duplicates[row] = true;
+        continue;
+      }
+      firstRows.put(fields[0], row);
+      keyRows[keys.size()] = row;
+      keys.add(fields[0]);
+    }
+    if (keys.isEmpty()) {
+      return duplicates;
+    }
+    int[] existing = finder.find(modelId, keys);
+    if (existing == null) {
+      throw new IllegalStateException("Could not look up the duplicates");
+    }
+    for (int key : existing) {
+      if (key < 0 || key >= keys.size()) {
+        continue;
+      }
+      duplicates[keyRows[key]] = true;
+    }
+    return duplicates;
+  }
+
+  /**
+   * Remove the duplicate rows and their tags
+   * @param modelId
+   * @param rows the note fields, changed in place
+   * @param tags one entry per row, changed in place
+   * @return the indices of the removed rows, in the original order
+   * @throws IllegalStateException if the duplicates could not be looked up, nothing was removed
+   */
+  <T> List<Integer> remove(long modelId, List<String[]> rows, List<T> tags) {
+    if (tags.size() != rows.size()) {
+      throw new IllegalStateException("List of tags must be the same length as the list of fields");
+    }
+    boolean[] duplicates = find(modelId, rows);
+    List<Integer> removed = new ArrayList<>();
+    int kept = 0;
+    for (int row = 0; row < duplicates.length; row++) {
+      if (duplicates[row]) {
+        removed.add(row);
+        continue;
+      }
+      // compact in place instead of removing one element at a time
+      rows.set(kept, rows.get(row));
+      tags.set(kept, tags.get(row));
+      kept++;
+    }
+    rows.subList(kept, rows.size()).clear();
+    tags.subList(kept, tags.size()).clear();
+    return removed;
+  }
+}
@@ -0,0 +1,111 @@
+package com.is343.reactnativeankidroid;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The checksum AnkiDroid stores for the first field of a note and compares when it looks for
+ * duplicates: image tags are replaced by their file name, style, script and other tags are removed
+ * and entities are decoded, then the first 32 bits of the SHA-1 of the text are taken. Fields
+ * AnkiDroid considers equal always get the same checksum
+ */
+class FieldChecksum {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  // the patterns AnkiDroid strips from a first field before its checksum
+  private static final Pattern STYLE = Pattern.compile("(?si)<style.*?>.*?</style>");
+  private static final Pattern SCRIPT = Pattern.compile("(?si)<script.*?>.*?</script>");
+  private static final Pattern TAG = Pattern.compile("(?s)<.*?>");
+  private static final Pattern IMAGE = Pattern.compile("(?i)<img[^>]+src=[\"']?([^\"'>]+)[\"']?[^>]*>");
+  private static final Pattern ENTITY = Pattern.compile("&#?\\w+;");
+  private static final Pattern NUMERIC_ENTITY = Pattern.compile("&#([xX]?)([0-9a-fA-F]+);");
+
+  /**
+   * Decodes one HTML entity, AnkiDroid uses android.text.Html#fromHtml
+   */
+  interface EntityDecoder {
+    /**
+     * @param entity e.g. "&amp;amp;" or "&amp;#38;"
+     * @return the text, or the entity itself if it is unknown
+     */
+    String decode(String entity);
+  }
+
+  /**
+   * Decodes numeric entities and the entities predefined by XML, for use without Android
+   */
+  static final EntityDecoder BASIC_ENTITIES = new EntityDecoder() {
+    @Override
+    public String decode(String entity) {
+      Matcher numeric = NUMERIC_ENTITY.matcher(entity);
+      if (numeric.matches()) {
+        try {
+          return new String(Character.toChars(Integer.parseInt(numeric.group(2),
+              numeric.group(1).isEmpty() ? 10 : 16)));
+        } catch (IllegalArgumentException e) {
+          return entity;
+        }
+      }
+      switch (entity) {
+        case "&amp;":
+          return "&";
+        case "&lt;":
+          return "<";
+        case "&gt;":
+          return ">";
+        case "&quot;":
+          return "\"";
+        case "&apos;":
+          return "'";
+        default:
+          return entity;
+      }
+    }
+  };
+
+  private final EntityDecoder entityDecoder;
+
+  FieldChecksum() {
+    this(BASIC_ENTITIES);
+  }
+
+  /**
+   * @param entityDecoder decodes the entities of first fields like AnkiDroid does
+   */
+  FieldChecksum(EntityDecoder entityDecoder) {
+    this.entityDecoder = entityDecoder;
+  }
+
+  /**
+   * @param firstField
+   * @return the checksum AnkiDroid stores for the field
+   */
+  long checksum(String firstField) {
+    String text = IMAGE.matcher(firstField).replaceAll(" $1 ");
+    text = STYLE.matcher(text).replaceAll("");
+    text = SCRIPT.matcher(text).replaceAll("");
+    text = TAG.matcher(text).replaceAll("");
+    text = decodeEntities(text.replace("&nbsp;", " "));
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(UTF_8));
+      return (digest[0] & 0xFFL) << 24 | (digest[1] & 0xFFL) << 16 | (digest[2] & 0xFFL) << 8 | (digest[3] & 0xFFL);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private String decodeEntities(String text) {
+    if (text.indexOf('&') == -1) {
+      return text;
+    }
+    Matcher matcher = ENTITY.matcher(text);
+    StringBuffer decoded = new StringBuffer(text.length());
+    while (matcher.find()) {
+      matcher.appendReplacement(decoded, Matcher.quoteReplacement(entityDecoder.decode(matcher.group())));
+    }
+    matcher.appendTail(decoded);
+    return decoded.toString();
+  }
+}
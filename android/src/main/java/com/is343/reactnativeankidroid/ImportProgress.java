@@ -0,0 +1,51 @@
+package com.is343.reactnativeankidroid;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+/**
+ * Counts of an import from a file. Updated by the import after each batch while JS may read them,
+ * so all access is synchronized
+ */
+class ImportProgress implements Job.Result {
+  private final String importId;
+  private int read;
+  private int added;
+  private int duplicates;
+  private int failed;
+  private boolean done;
+  // the last error of the provider, null if every batch could be sent
+  private String error;
+
+  ImportProgress(String importId) {
+    this.importId = importId;
+  }
+
+  synchronized void add(int batchRead, int batchAdded, int batchDuplicates, int batchFailed) {
+    read += batchRead;
+    added += batchAdded;
+    duplicates += batchDuplicates;
+    failed += batchFailed;
+  }
+
+  synchronized void setError(String error) {
+    this.error = error;
+  }
+
+  synchronized void finish() {
+    done = true;
+  }
+
+  @Override
+  public synchronized WritableMap toWritableMap() {
+    WritableMap map = new WritableNativeMap();
+    map.putString("importId", importId);
+    map.putInt("read", read);
+    map.putInt("added", added);
+    map.putInt("duplicates", duplicates);
+    map.putInt("failed", failed);
+    map.putBoolean("done", done);
+    map.putString("error", error);
+    return map;
+  }
+}
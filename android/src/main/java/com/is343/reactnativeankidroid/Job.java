@@ -0,0 +1,185 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+/**
+ * A long running operation that JS can follow, wait for and cancel by its ID. The task checks
+ * #isCancelled between batches and stops early once the job was cancelled
+ */
+class Job {
+  static final String CANCELLED = "CANCELLED";
+
+  enum State {
+    QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+  }
+
+  /**
+   * Progress or result of a job. A new map is created for every call, as bridge maps can only be
+   * sent once
+   */
+  interface Result {
+    WritableMap toWritableMap();
+  }
+
+  /**
+   * The work of a job
+   */
+  interface Task {
+    /**
+     * @param job to check for cancellation and report progress to
+     * @return the result, or an error String such as FAILED_TO_CREATE_DECK
+     * @throws Exception fails the job
+     */
+    Object run(Job job) throws Exception;
+  }
+
+  final String id;
+  final String type;
+  private final List<Promise> waiters = new ArrayList<>();
+  private volatile boolean cancelled;
+  private State state = State.QUEUED;
+  private Result progress;
+  private Object result;
+  private String error;
+  private String errorCode;
+
+  Job(String id, String type) {
+    this.id = id;
+    this.type = type;
+  }
+
+  boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Ask the job to stop. A queued job will not start, a running job stops after the current batch
+   * @return false if the job had already finished
+   */
+  synchronized boolean cancel() {
+    if (isFinished()) {
+      return false;
+    }
+    cancelled = true;
+    return true;
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+  synchronized boolean isFinished() {
+    return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+  }
+
+  synchronized void setProgress(Result progress) {
+    this.progress = progress;
+  }
+
+  /**
+   * Run the task, unless the job was cancelled while queued, and notify the waiters
+   * @param task
+   */
+  void run(Task task) {
+    synchronized (this) {
+      if (cancelled) {
+        finish(State.CANCELLED, null, null);
+        return;
+      }
+      state = State.RUNNING;
+    }
+    try {
+      Object taskResult = task.run(this);
+      synchronized (this) {
+        finish(cancelled ? State.CANCELLED : State.COMPLETED, taskResult, null);
+      }
+    } catch (Exception e) {
+      synchronized (this) {
+        finish(State.FAILED, null, e.toString());
+      }
+    }
+  }
+
+  /**
+   * Fail the job without running it, e.g. when it could not be queued
+   * @param code
+   * @param message
+   */
+  synchronized void fail(String code, String message) {
+    errorCode = code;
+    finish(State.FAILED, null, message);
+  }
+
+  /**
+   * Resolve the promise with the result once the job is done. Rejected if the job failed or with
+   * CANCELLED if it was cancelled
+   * @param promise
+   */
+  synchronized void waitFor(Promise promise) {
+    if (isFinished()) {
+      settle(promise);
+    } else {
+      waiters.add(promise);
+    }
+  }
+
+  /**
+   * @return id, type, state, progress, result and error of the job
+   */
+  synchronized WritableMap toWritableMap() {
+    WritableMap map = new WritableNativeMap();
+    map.putString("id", id);
+    map.putString("type", type);
+    map.putString("state", state.name());
+    if (progress != null) {
+      map.putMap("progress", progress.toWritableMap());
+    } else {
+      map.putNull("progress");
+    }
+    if (result instanceof Result) {
+      map.putMap("result", ((Result) result).toWritableMap());
+    } else if (result != null) {
+      map.putString("result", result.toString());
+    } else {
+      map.putNull("result");
+    }
+    map.putString("error", error);
+    return map;
+  }
+
+  private void finish(State finalState, Object taskResult, String taskError) {
+    state = finalState;
+    result = taskResult;
+    error = taskError;
+    if (taskResult instanceof Result) {
+      progress = (Result) taskResult;
+    }
+    for (Promise waiter : waiters) {
+      settle(waiter);
+    }
+    waiters.clear();
+  }
+
+  private void settle(Promise promise) {
+    switch (state) {
+      case CANCELLED:
+        promise.reject(CANCELLED, "Job " + id + " was cancelled");
+        break;
+      case FAILED:
+        if (errorCode != null) {
+          promise.reject(errorCode, error);
+        } else {
+          promise.reject(error);
+        }
+        break;
+      default:
+        promise.resolve(result instanceof Result ? ((Result) result).toWritableMap() : result);
+        break;
+    }
+  }
+}
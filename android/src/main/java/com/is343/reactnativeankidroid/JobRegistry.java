@@ -0,0 +1,66 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the jobs by ID. Finished jobs are kept for a while so their status and result can still be
+ * read, the oldest ones are dropped first
+ */
+class JobRegistry {
+  private static final int MAX_FINISHED_JOBS = 50;
+
+  private final Map<String, Job> jobs = new LinkedHashMap<>();
+  private long nextId;
+
+  /**
+   * @param type name of the operation, e.g. "addNotes"
+   * @return a new queued job
+   */
+  synchronized Job create(String type) {
+    trim();
+    Job job = new Job(type + "-" + System.currentTimeMillis() + "-" + (++nextId), type);
+    jobs.put(job.id, job);
+    return job;
+  }
+
+  /**
+   * @param id
+   * @return the job, or null if it is unknown or was dropped
+   */
+  synchronized Job get(String id) {
+    return jobs.get(id);
+  }
+
+  /**
+   * @return the jobs that have not finished yet
+   */
+  synchronized List<Job> active() {
+    List<Job> active = new ArrayList<>();
+    for (Job job : jobs.values()) {
+      if (!job.isFinished()) {
+        active.add(job);
+      }
+    }
+    return active;
+  }
+
+  private void trim() {
+    int finished = 0;
+    for (Job job : jobs.values()) {
+      if (job.isFinished()) {
+        finished++;
+      }
+    }
+    Iterator<Job> iterator = jobs.values().iterator();
+    while (finished > MAX_FINISHED_JOBS && iterator.hasNext()) {
+      if (iterator.next().isFinished()) {
+        iterator.remove();
+        finished--;
+      }
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The part of a list of IDs and names that JS asked for, so a picker that shows a few entries does
+ * not get all of them over the bridge. Entries are matched by name prefix, ignoring case, before
+ * the offset and limit are applied
+ */
+class ListSlice {
+  final long[] ids;
+  final String[] names;
+  // number of entries that match the prefix
+  final int total;
+
+  private ListSlice(long[] ids, String[] names, int total) {
+    this.ids = ids;
+    this.names = names;
+    this.total = total;
+  }
+
+  /**
+   * @param ids
+   * @param names one per ID
+   * @param prefix null for all entries
+   * @param offset number of matching entries to skip
+   * @param limit maximum number of entries, negative for all
+   * @param sortByName false to keep the order of the entries
+   * @return the entries
+   */
+  static ListSlice select(final long[] ids, final String[] names, String prefix, int offset, int limit,
+      boolean sortByName) {
+    List<Integer> matches = new ArrayList<>(ids.length);
+    for (int index = 0; index < ids.length; index++) {
+      if (prefix == null || prefix.isEmpty()
+          || (names[index] != null && names[index].regionMatches(true, 0, prefix, 0, prefix.length()))) {
+        matches.add(index);
+      }
+    }
+    if (sortByName) {
+      Collections.sort(matches, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer left, Integer right) {
+          String leftName = names[left] == null ? "" : names[left];
+          String rightName = names[right] == null ? "" : names[right];
+          int compared = leftName.compareToIgnoreCase(rightName);
+          return compared != 0 ? compared : Long.compare(ids[left], ids[right]);
+        }
+      });
+    }
+    int start = Math.min(Math.max(0, offset), matches.size());
+    int end = limit < 0 ? matches.size() : Math.min(matches.size(), start + limit);
+    long[] sliceIds = new long[end - start];
+    String[] sliceNames = new String[end - start];
+    for (int index = start; index < end; index++) {
+      sliceIds[index - start] = ids[matches.get(index)];
+      sliceNames[index - start] = names[matches.get(index)];
+    }
+    return new ListSlice(sliceIds, sliceNames, matches.size());
+  }
+}
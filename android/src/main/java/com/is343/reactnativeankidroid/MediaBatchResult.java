@@ -0,0 +1,82 @@
+package com.is343.reactnativeankidroid;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+/**
+ * Per file results of a media batch upload. Files finish on several threads while JS may read the
+ * progress, so all access is synchronized
+ */
+class MediaBatchResult implements Job.Result {
+  private final String[] fileUris;
+  private final String[] names;
+  private final boolean[] cached;
+  private final String[] errors;
+  private final long[] bytesSaved;
+  private int uploaded;
+  private int cachedCount;
+  private int failed;
+  private long totalBytesSaved;
+
+  /**
+   * @param fileUris the files of the batch, in the order they were sent
+   */
+  MediaBatchResult(String[] fileUris) {
+    this.fileUris = fileUris;
+    this.names = new String[fileUris.length];
+    this.cached = new boolean[fileUris.length];
+    this.errors = new String[fileUris.length];
+    this.bytesSaved = new long[fileUris.length];
+  }
+
+  /**
+   * @param index of the file in the batch
+   * @param formattedName name returned by AnkiDroid, e.g. <img src="name.jpg">
+   * @param fromCache true if the same content was uploaded before and nothing was copied
+   * @param saved bytes that were not copied because the image was shrunk first
+   */
+  synchronized void setName(int index, String formattedName, boolean fromCache, long saved) {
+    names[index] = formattedName;
+    cached[index] = fromCache;
+    bytesSaved[index] = saved;
+    totalBytesSaved += saved;
+    if (fromCache) {
+      cachedCount++;
+    } else {
+      uploaded++;
+    }
+  }
+
+  /**
+   * @param index of the file in the batch
+   * @param error
+   */
+  synchronized void setError(int index, String error) {
+    errors[index] = error;
+    failed++;
+  }
+
+  @Override
+  public synchronized WritableMap toWritableMap() {
+    WritableArray files = new WritableNativeArray();
+    for (int index = 0; index < fileUris.length; index++) {
+      WritableMap file = new WritableNativeMap();
+      file.putString("fileUri", fileUris[index]);
+      file.putString("name", names[index]);
+      file.putBoolean("cached", cached[index]);
+      file.putString("error", errors[index]);
+      file.putDouble("bytesSaved", bytesSaved[index]);
+      files.pushMap(file);
+    }
+    WritableMap result = new WritableNativeMap();
+    result.putInt("total", fileUris.length);
+    result.putInt("uploaded", uploaded);
+    result.putInt("cached", cachedCount);
+    result.putInt("failed", failed);
+    result.putDouble("bytesSaved", totalBytesSaved);
+    result.putArray("files", files);
+    return result;
+  }
+}
@@ -0,0 +1,200 @@
+package com.is343.reactnativeankidroid;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent SHA-256 to formatted media name cache, so uploading the same content again returns
+ * the name AnkiDroid gave it the first time instead of copying the file into the media folder again.
+ * New entries are appended to a file, which is rewritten once it holds too many stale lines. The
+ * least recently used entries are dropped first
+ */
+class MediaCache {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final File file;
+  private final int maxEntries;
+  private Map<String, String> names;
+  private int fileLines;
+
+  /**
+   * @param file where the entries are kept between app starts
+   * @param maxEntries number of entries kept, the least recently used are dropped first
+   */
+  MediaCache(File file, int maxEntries) {
+    this.file = file;
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Hash the content of a file
+   * @param file
+   * @return the lower case hex SHA-256 of the content
+   * @throws IOException if the file can not be read
+   */
+  static String hash(File file) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream input = new FileInputStream(file)) {
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    byte[] bytes = digest.digest();
+    char[] hex = new char[bytes.length * 2];
+    for (int index = 0; index < bytes.length; index++) {
+      hex[index * 2] = HEX[(bytes[index] >> 4) & 0xF];
+      hex[index * 2 + 1] = HEX[bytes[index] & 0xF];
+    }
+    return new String(hex);
+  }
+
+  /**
+   * @param hash SHA-256 of the content
+   * @param mimeType "audio" or "image", as the formatted name differs
+   * @return the cache key
+   */
+  static String key(String hash, String mimeType) {
+    return hash + ":" + mimeType;
+  }
+
+  /**
+   * @param key
+   * @return the formatted media name, or null if the content was not uploaded before
+   */
+  synchronized String get(String key) {
+    return getNames().get(key);
+  }
+
+  /**
+   * Remember the formatted media name of uploaded content
+   * @param key
+   * @param formattedName
+   */
+  synchronized void put(String key, String formattedName) {
+    putAll(Collections.singletonMap(key, formattedName));
+  }
+
+  /**
+   * Remember the formatted media names of a batch of uploads with a single file write
+   * @param entries key to formatted media name
+   */
+  synchronized void putAll(Map<String, String> entries) {
+    Map<String, String> current = getNames();
+    StringBuilder lines = new StringBuilder();
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      if (entry.getValue() == null) {
+        continue;
+      }
+      current.put(entry.getKey(), entry.getValue());
+      if (!storable(entry.getValue())) {
+        continue;
+      }
+      lines.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+      fileLines++;
+    }
+    if (lines.length() == 0) {
+      return;
+    }
+    if (fileLines > maxEntries * 2) {
+      rewrite();
+    } else {
+      write(lines.toString(), true);
+    }
+  }
+
+  /**
+   * Forget all entries, e.g. after the media was removed from AnkiDroid
+   */
+  synchronized void clear() {
+    names = newMap();
+    fileLines = 0;
+    if (file.exists() && !file.delete()) {
+      write("", false);
+    }
+  }
+
+  private Map<String, String> getNames() {
+    if (names == null) {
+      names = newMap();
+      load();
+    }
+    return names;
+  }
+
+  private Map<String, String> newMap() {
+    return new LinkedHashMap<String, String>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  private void load() {
+    if (!file.exists()) {
+      return;
+    }
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int tab = line.indexOf('\t');
+        if (tab > 0) {
+          names.put(line.substring(0, tab), line.substring(tab + 1));
+          fileLines++;
+        }
+      }
+    } catch (IOException e) {
+      // a broken cache only means the media is uploaded again
+      names.clear();
+      fileLines = 0;
+    }
+  }
+
+  private void rewrite() {
+    StringBuilder lines = new StringBuilder();
+    fileLines = 0;
+    for (Map.Entry<String, String> entry : names.entrySet()) {
+      if (storable(entry.getValue())) {
+        lines.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        fileLines++;
+      }
+    }
+    write(lines.toString(), false);
+  }
+
+  private void write(String lines, boolean append) {
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), UTF_8))) {
+      writer.write(lines);
+    } catch (IOException e) {
+      // the entries are still cached in memory until the app restarts
+    }
+  }
+
+  private static boolean storable(String formattedName) {
+    return formattedName.indexOf('\t') == -1 && formattedName.indexOf('\n') == -1
+        && formattedName.indexOf('\r') == -1;
+  }
+}
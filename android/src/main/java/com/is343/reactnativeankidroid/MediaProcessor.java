@@ -0,0 +1,252 @@
+package com.is343.reactnativeankidroid;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Shrinks images before they are copied into AnkiDroid, by scaling them down to a maximum width and
+ * height and compressing them again as JPEG or WebP. The image is decoded at the smallest power of
+ * two sample size that still covers the maximum dimension, so the full resolution bitmap is never
+ * in memory, and the result is written to a temporary file in the cache folder. Images run on a small
+ * bounded queue of their own, which also limits how many bitmaps are decoded at the same time. Once
+ * the queue was shut down by a new configuration, or is full, images waited for are copied as they are
+ */
+class MediaProcessor {
+  private static final String TEMP_PREFIX = "ankidroid_media_";
+
+  enum Format {
+    JPEG(Bitmap.CompressFormat.JPEG),
+    WEBP(Bitmap.CompressFormat.WEBP),
+    // keeps the format of the image, only scales it down
+    ORIGINAL(null);
+
+    final Bitmap.CompressFormat compressFormat;
+
+    Format(Bitmap.CompressFormat compressFormat) {
+      this.compressFormat = compressFormat;
+    }
+  }
+
+  /**
+   * The file to copy into AnkiDroid
+   */
+  static class Processed {
+    final File file;
+    // size of the original minus the size of the file, 0 if the original is used
+    final long bytesSaved;
+    private final boolean temporary;
+
+    Processed(File file, long bytesSaved, boolean temporary) {
+      this.file = file;
+      this.bytesSaved = bytesSaved;
+      this.temporary = temporary;
+    }
+
+    /**
+     * Delete the file once it was copied, unless it is the original
+     */
+    void delete() {
+      if (temporary && !file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+  }
+
+  private final int maxDimension;
+  private final Format format;
+  private final int quality;
+  private final File tempDir;
+  // run tasks that read an image and call #process
+  final TaskQueue queue;
+
+  /**
+   * @param maxDimension largest width or height in pixels, 0 to keep the size
+   * @param format of the processed images
+   * @param quality 0 to 100, used for JPEG and WebP
+   * @param threads images processed at the same time
+   * @param capacity images that can wait to be processed
+   * @param tempDir where the processed images are written, must be shareable with AnkiDroid
+   */
+  MediaProcessor(int maxDimension, Format format, int quality, int threads, int capacity, File tempDir) {
+    this.maxDimension = Math.max(0, maxDimension);
+    this.format = format;
+    this.quality = Math.max(0, Math.min(100, quality));
+    this.tempDir = tempDir;
+    queue = new TaskQueue("AnkiDroidMediaProcessor", threads, capacity);
+  }
+
+  /**
+   * Shrink an image on the queue and wait for it
+   * @param source the image
+   * @return the processed image, or the source if it could not be made smaller or the queue was full
+   *         or shut down
+   * @throws IOException if the processed image can not be written
+   * @throws InterruptedException
+   */
+  Processed processOnPool(final File source) throws IOException, InterruptedException {
+    FutureTask<Processed> task = new FutureTask<>(new Callable<Processed>() {
+      @Override
+      public Processed call() throws IOException {
+        return process(source);
+      }
+    });
+    if (!queue.execute(task)) {
+      return new Processed(source, 0, false);
+    }
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Stop the queue, images that were already submitted still finish
+   */
+  void shutdown() {
+    queue.shutdown();
+  }
+
+  /**
+   * Shrink an image on the calling thread, which should be a thread of the queue
+   * @param source the image
+   * @return the processed image, or the source if it could not be made smaller
+   * @throws IOException if the processed image can not be written
+   */
+  Processed process(File source) throws IOException {
+    Processed original = new Processed(source, 0, false);
+    BitmapFactory.Options bounds = new BitmapFactory.Options();
+    bounds.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(source.getPath(), bounds);
+    Bitmap.CompressFormat sourceFormat = compressFormat(bounds.outMimeType);
+    if (sourceFormat == null || bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+      // not an image, or one that can not be written again such as a GIF
+      return original;
+    }
+    int longest = Math.max(bounds.outWidth, bounds.outHeight);
+    boolean scale = maxDimension > 0 && longest > maxDimension;
+    if (!scale && format == Format.ORIGINAL) {
+      return original;
+    }
+
+    BitmapFactory.Options decode = new BitmapFactory.Options();
+    decode.inSampleSize = 1;
+    while (scale && longest / (decode.inSampleSize * 2) >= maxDimension) {
+      decode.inSampleSize *= 2;
+    }
+    Bitmap bitmap = BitmapFactory.decodeFile(source.getPath(), decode);
+    if (bitmap == null) {
+      return original;
+    }
+    File temp = null;
+    try {
+      Matrix matrix = new Matrix();
+      // the orientation is lost when the image is written again, so it is applied to the pixels
+      int rotation = rotation(source, bounds.outMimeType);
+      boolean transform = rotation != 0;
+      if (rotation != 0) {
+        matrix.postRotate(rotation);
+      }
+      int decodedLongest = Math.max(bitmap.getWidth(), bitmap.getHeight());
+      if (maxDimension > 0 && decodedLongest > maxDimension) {
+        float factor = maxDimension / (float) decodedLongest;
+        matrix.postScale(factor, factor);
+        transform = true;
+      }
+      if (transform) {
+        Bitmap transformed = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (transformed != bitmap) {
+          bitmap.recycle();
+          bitmap = transformed;
+        }
+      }
+      Bitmap.CompressFormat compressFormat = format == Format.ORIGINAL ? sourceFormat : format.compressFormat;
+      if (compressFormat == Bitmap.CompressFormat.JPEG && bitmap.hasAlpha()) {
+        // JPEG would turn the transparent parts black
+        compressFormat = Bitmap.CompressFormat.PNG;
+      }
+      // AnkiDroid takes the extension of the media from the file name
+      temp = File.createTempFile(TEMP_PREFIX, extension(compressFormat), tempDir);
+      boolean written;
+      try (OutputStream output = new BufferedOutputStream(new FileOutputStream(temp))) {
+        written = bitmap.compress(compressFormat, quality, output);
+      }
+      long saved = source.length() - temp.length();
+      if (!written || saved <= 0) {
+        return original;
+      }
+      Processed processed = new Processed(temp, saved, true);
+      temp = null;
+      return processed;
+    } finally {
+      bitmap.recycle();
+      if (temp != null && !temp.delete()) {
+        temp.deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * @param mimeType of the decoded image
+   * @return the format to write the image in again, null if it can not be written
+   */
+  private static Bitmap.CompressFormat compressFormat(String mimeType) {
+    if ("image/jpeg".equals(mimeType)) {
+      return Bitmap.CompressFormat.JPEG;
+    }
+    if ("image/png".equals(mimeType)) {
+      return Bitmap.CompressFormat.PNG;
+    }
+    if ("image/webp".equals(mimeType)) {
+      return Bitmap.CompressFormat.WEBP;
+    }
+    return null;
+  }
+
+  private static String extension(Bitmap.CompressFormat compressFormat) {
+    switch (compressFormat) {
+      case JPEG:
+        return ".jpg";
+      case WEBP:
+        return ".webp";
+      default:
+        return ".png";
+    }
+  }
+
+  private static int rotation(File source, String mimeType) {
+    if (!"image/jpeg".equals(mimeType)) {
+      return 0;
+    }
+    try {
+      int orientation = new ExifInterface(source.getPath()).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+          ExifInterface.ORIENTATION_NORMAL);
+      switch (orientation) {
+        case ExifInterface.ORIENTATION_ROTATE_90:
+          return 90;
+        case ExifInterface.ORIENTATION_ROTATE_180:
+          return 180;
+        case ExifInterface.ORIENTATION_ROTATE_270:
+          return 270;
+        default:
+          return 0;
+      }
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+}
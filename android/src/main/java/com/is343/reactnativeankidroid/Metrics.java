@@ -0,0 +1,177 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of the native operations. Disabled by default, in which case
+ * #start returns 0 and #record returns right away, so the only cost left is a volatile read
+ */
+class Metrics {
+  // bucket i holds latencies below 2^i microseconds, the last one everything above ~67 seconds
+  private static final int BUCKETS = 27;
+
+  /**
+   * Latency histogram of one operation or stage
+   */
+  static class Timer {
+    private final long[] buckets = new long[BUCKETS];
+    private long count;
+    private long errors;
+    private long totalNanos;
+    private long maxNanos;
+
+    synchronized void record(long nanos, boolean failed) {
+      count++;
+      if (failed) {
+        errors++;
+      }
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+      long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+      int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+      buckets[Math.min(bucket, BUCKETS - 1)]++;
+    }
+
+    synchronized long count() {
+      return count;
+    }
+
+    synchronized long errors() {
+      return errors;
+    }
+
+    synchronized double totalMillis() {
+      return totalNanos / 1e6;
+    }
+
+    synchronized double maxMillis() {
+      return maxNanos / 1e6;
+    }
+
+    /**
+     * @param fraction e.g. 0.99
+     * @return upper bound of the bucket holding the percentile, in milliseconds
+     */
+    synchronized double percentileMillis(double fraction) {
+      long rank = (long) Math.ceil(count * fraction);
+      long seen = 0;
+      for (int bucket = 0; bucket < BUCKETS; bucket++) {
+        seen += buckets[bucket];
+        if (seen >= rank && seen > 0) {
+          return Math.min((1L << bucket) / 1e3, maxMillis());
+        }
+      }
+      return maxMillis();
+    }
+  }
+
+  private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+  private volatile boolean enabled;
+  private volatile long sinceMillis = System.currentTimeMillis();
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * @return the start time to pass to #record, 0 if disabled
+   */
+  long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * @param name of the operation or stage
+   * @param start from #start
+   */
+  void record(String name, long start) {
+    record(name, start, false);
+  }
+
+  /**
+   * @param name of the operation or stage
+   * @param start from #start, nothing is recorded if 0
+   * @param failed true to count an error
+   */
+  void record(String name, long start, boolean failed) {
+    if (start == 0 || !enabled) {
+      return;
+    }
+    getTimer(name).record(System.nanoTime() - start, failed);
+  }
+
+  /**
+   * @param name of the counter
+   * @param delta
+   */
+  void increment(String name, long delta) {
+    if (!enabled) {
+      return;
+    }
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      AtomicLong created = new AtomicLong();
+      counter = counters.putIfAbsent(name, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    counter.addAndGet(delta);
+  }
+
+  /**
+   * @return the timers by name, sorted
+   */
+  Map<String, Timer> timers() {
+    return new TreeMap<>(timers);
+  }
+
+  /**
+   * @return the counter values by name, sorted
+   */
+  Map<String, Long> counters() {
+    Map<String, Long> values = new TreeMap<>();
+    for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+      values.put(entry.getKey(), entry.getValue().get());
+    }
+    return values;
+  }
+
+  /**
+   * @return when the metrics were last reset, in milliseconds since the epoch
+   */
+  long sinceMillis() {
+    return sinceMillis;
+  }
+
+  /**
+   * Drop all recorded values
+   */
+  void reset() {
+    timers.clear();
+    counters.clear();
+    sinceMillis = System.currentTimeMillis();
+  }
+
+  private Timer getTimer(String name) {
+    Timer timer = timers.get(name);
+    if (timer == null) {
+      Timer created = new Timer();
+      timer = timers.putIfAbsent(name, created);
+      if (timer == null) {
+        timer = created;
+      }
+    }
+    return timer;
+  }
+}
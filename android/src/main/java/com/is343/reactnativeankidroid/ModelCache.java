@@ -0,0 +1,88 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of the model name and fields by model ID, so a note does not need to query the model
+ * from the ContentProvider every time it is added. Entries are dropped when AnkiDroid no longer
+ * knows the model, and can be refreshed when the model looks changed
+ */
+class ModelCache {
+  /**
+   * Name and field names of a model
+   */
+  static class Model {
+    final long id;
+    final String name;
+    final String[] fields;
+
+    Model(long id, String name, String[] fields) {
+      this.id = id;
+      this.name = name;
+      this.fields = fields;
+    }
+
+    int fieldCount() {
+      return fields.length;
+    }
+  }
+
+  /**
+   * Loads a model from AnkiDroid
+   */
+  interface Loader {
+    /**
+     * @param modelId
+     * @return the model, or null if it does not exist or API error
+     */
+    Model load(long modelId);
+  }
+
+  private final Loader loader;
+  private final Map<Long, Model> models = new HashMap<>();
+
+  ModelCache(Loader loader) {
+    this.loader = loader;
+  }
+
+  /**
+   * Get the model, loading it if it is not cached yet
+   * @param modelId
+   * @return the model, or null if it does not exist or API error
+   */
+  synchronized Model get(long modelId) {
+    Model model = models.get(modelId);
+    return model != null ? model : refresh(modelId);
+  }
+
+  /**
+   * Load the model again, e.g. when it looks like it was changed in AnkiDroid
+   * @param modelId
+   * @return the model, or null if it no longer exists or API error
+   */
+  synchronized Model refresh(long modelId) {
+    Model model = loader.load(modelId);
+    if (model == null) {
+      models.remove(modelId);
+    } else {
+      models.put(modelId, model);
+    }
+    return model;
+  }
+
+  /**
+   * Drop a single model, e.g. after a note for it was rejected by AnkiDroid
+   * @param modelId
+   */
+  synchronized void remove(long modelId) {
+    models.remove(modelId);
+  }
+
+  /**
+   * Drop all cached models
+   */
+  synchronized void invalidate() {
+    models.clear();
+  }
+}
@@ -0,0 +1,136 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory name to ID index for the decks or models of AnkiDroid. The list is loaded once and
+ * refreshed when a lookup misses, so looking up a name does not need a full list scan over the
+ * ContentProvider every time
+ */
+class NameIndex {
+  /**
+   * Loads the current ID to name list, e.g. AddContentApi#getDeckList
+   */
+  interface Loader {
+    /**
+     * @return the ID to name map, or null if there was an API error
+     */
+    Map<Long, String> load();
+  }
+
+  private final Loader loader;
+  private final boolean ignoreCase;
+  private Map<String, List<Long>> ids;
+
+  /**
+   * @param loader used to fill and refresh the index
+   * @param ignoreCase true to match names case insensitively (deck names)
+   */
+  NameIndex(Loader loader, boolean ignoreCase) {
+    this.loader = loader;
+    this.ignoreCase = ignoreCase;
+  }
+
+  /**
+   * Get the first ID with the given name
+   * @param name
+   * @return the ID, or null if there is no match after a refresh or API error
+   */
+  synchronized Long find(String name) {
+    List<Long> found = findAll(name);
+    return found.isEmpty() ? null : found.get(0);
+  }
+
+  /**
+   * Get all IDs with the given name, refreshing the index once if the name is missing
+   * @param name
+   * @return the IDs, empty if there is no match after a refresh or API error
+   */
+  synchronized List<Long> findAll(String name) {
+    if (name == null) {
+      return Collections.<Long>emptyList();
+    }
+    boolean refreshed = false;
+    if (ids == null) {
+      refresh();
+      refreshed = true;
+    }
+    List<Long> found = ids == null ? null : ids.get(key(name));
+    if (found == null && !refreshed) {
+      refresh();
+      found = ids == null ? null : ids.get(key(name));
+    }
+    return found == null ? Collections.<Long>emptyList() : new ArrayList<>(found);
+  }
+
+  /**
+   * Add a newly created entry without reloading the whole list
+   * @param name
+   * @param id
+   */
+  synchronized void put(String name, long id) {
+    if (ids == null) {
+      return; // will be part of the list on the first load
+    }
+    String key = key(name);
+    List<Long> found = ids.get(key);
+    if (found == null) {
+      found = new ArrayList<>(1);
+      ids.put(key, found);
+    }
+    if (!found.contains(id)) {
+      found.add(id);
+    }
+  }
+
+  /**
+   * Replace the index with a list that was already loaded elsewhere
+   * @param list ID to name map, ignored if null
+   */
+  synchronized void fill(Map<Long, String> list) {
+    if (list != null) {
+      ids = build(list);
+    }
+  }
+
+  /**
+   * Drop the index, it will be loaded again on the next lookup
+   */
+  synchronized void invalidate() {
+    ids = null;
+  }
+
+  private void refresh() {
+    Map<Long, String> list = loader.load();
+    ids = list == null ? null : build(list);
+  }
+
+  private Map<String, List<Long>> build(Map<Long, String> list) {
+    Map<String, List<Long>> index = new HashMap<>(list.size() * 2);
+    for (Map.Entry<Long, String> entry : list.entrySet()) {
+      if (entry.getValue() == null) {
+        continue;
+      }
+      String key = key(entry.getValue());
+      List<Long> found = index.get(key);
+      if (found == null) {
+        found = new ArrayList<>(1);
+        index.put(key, found);
+      }
+      found.add(entry.getKey());
+    }
+    return index;
+  }
+
+  /**
+   * Case folds the same way as String#equalsIgnoreCase when ignoring case
+   */
+  private String key(String name) {
+    return ignoreCase ? name.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT) : name;
+  }
+}
@@ -0,0 +1,179 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects single notes for the same model and deck for a short window, so they can be added with
+ * one call instead of one call each. A batch is flushed once the window has passed since its first
+ * note, or right away once it holds the maximum number of notes. Batches are only flushed on the
+ * thread that adds the notes, so they stay in order with the other writes of that thread: the timer
+ * only asks for a #flushAll. Disabled until #configure is called with a window
+ * @param <T> a pending note
+ */
+class NoteBatcher<T> {
+  /**
+   * Adds the notes of a batch
+   */
+  interface Flusher<T> {
+    /**
+     * Called on the thread of #add or #flushAll
+     * @param modelId
+     * @param deckId
+     * @param notes in the order they were added, at least one
+     */
+    void flush(long modelId, long deckId, List<T> notes);
+
+    /**
+     * Called on the timer thread once a batch waited for the whole window, #flushAll should be
+     * called on the thread that adds the notes
+     */
+    void due();
+  }
+
+  private static class Batch<T> {
+    final long modelId;
+    final long deckId;
+    final List<T> notes = new ArrayList<>();
+    ScheduledFuture<?> timeout;
+
+    Batch(long modelId, long deckId) {
+      this.modelId = modelId;
+      this.deckId = deckId;
+    }
+  }
+
+  private final Flusher<T> flusher;
+  // in the order of their first notes
+  private final Map<String, Batch<T>> batches = new LinkedHashMap<>();
+  private ScheduledThreadPoolExecutor timer;
+  private long windowMillis;
+  private int maxBatchSize;
+
+  NoteBatcher(Flusher<T> flusher) {
+    this.flusher = flusher;
+  }
+
+  /**
+   * Set the window and batch size. Pending batches are flushed first, on the calling thread
+   * @param windowMillis how long the first note of a batch waits for more notes, 0 to disable
+   * @param maxBatchSize number of notes that are flushed right away
+   */
+  void configure(long windowMillis, int maxBatchSize) {
+    if (windowMillis < 0 || maxBatchSize < 1) {
+      throw new IllegalArgumentException("windowMs can not be negative and maxBatchSize must be at least 1");
+    }
+    flushAll();
+    synchronized (this) {
+      this.windowMillis = windowMillis;
+      this.maxBatchSize = maxBatchSize;
+      if (isEnabled() && timer == null) {
+        timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "AnkiDroidNoteBatcher");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+      }
+    }
+  }
+
+  /**
+   * @return true if notes are collected, otherwise they should be added right away
+   */
+  synchronized boolean isEnabled() {
+    return windowMillis > 0 && maxBatchSize > 1;
+  }
+
+  /**
+   * Add a note to the batch of its model and deck. If that fills the batch it is flushed on the
+   * calling thread, otherwise by the #flushAll that follows the window
+   * @param modelId
+   * @param deckId
+   * @param note
+   */
+  void add(long modelId, long deckId, T note) {
+    String key = modelId + ":" + deckId;
+    Batch<T> full = null;
+    synchronized (this) {
+      Batch<T> batch = batches.get(key);
+      if (batch == null) {
+        batch = new Batch<>(modelId, deckId);
+        if (isEnabled()) {
+          batches.put(key, batch);
+          batch.timeout = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+              flusher.due();
+            }
+          }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+      }
+      batch.notes.add(note);
+      if (batch.timeout == null) {
+        // disabled since the caller checked, the note is added on its own
+        full = batch;
+      } else if (batch.notes.size() >= maxBatchSize) {
+        batches.remove(key);
+        batch.timeout.cancel(false);
+        full = batch;
+      }
+    }
+    if (full != null) {
+      flusher.flush(full.modelId, full.deckId, full.notes);
+    }
+  }
+
+  /**
+   * Flush all pending batches on the calling thread
+   */
+  void flushAll() {
+    for (Batch<T> batch : takeBatches()) {
+      flusher.flush(batch.modelId, batch.deckId, batch.notes);
+    }
+  }
+
+  /**
+   * Remove the pending batches without flushing them, e.g. when they can not be added
+   * @return the notes of the batches
+   */
+  List<T> takeAll() {
+    List<T> notes = new ArrayList<>();
+    for (Batch<T> batch : takeBatches()) {
+      notes.addAll(batch.notes);
+    }
+    return notes;
+  }
+
+  /**
+   * Flush the pending batches on the calling thread and stop the timer
+   */
+  void shutdown() {
+    flushAll();
+    synchronized (this) {
+      windowMillis = 0;
+      if (timer != null) {
+        timer.shutdown();
+        timer = null;
+      }
+    }
+  }
+
+  private synchronized List<Batch<T>> takeBatches() {
+    List<Batch<T>> pending = new ArrayList<>(batches.values());
+    batches.clear();
+    for (Batch<T> batch : pending) {
+      batch.timeout.cancel(false);
+    }
+    return pending;
+  }
+}
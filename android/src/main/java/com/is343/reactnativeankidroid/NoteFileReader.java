@@ -0,0 +1,264 @@
+package com.is343.reactnativeankidroid;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Reads note rows one at a time from a TSV, CSV or JSON lines file, so an import only keeps the
+ * current row in memory instead of the whole file
+ */
+class NoteFileReader implements Closeable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+  enum Format {
+    TSV, CSV, JSONL;
+
+    /**
+     * @param format "tsv", "csv" or "jsonl", null to use the file extension
+     * @param file
+     * @return the format, TSV if it can not be worked out
+     */
+    static Format from(String format, File file) {
+      String name = format != null ? format : file.getName().substring(file.getName().lastIndexOf('.') + 1);
+      switch (name.toLowerCase(Locale.ROOT)) {
+        case "csv":
+          return CSV;
+        case "jsonl":
+        case "ndjson":
+          return JSONL;
+        default:
+          return TSV;
+      }
+    }
+  }
+
+  /**
+   * The values of one record, in the order of the requested columns
+   */
+  static class Row {
+    /** 0 based index of the record in the file, not counting the header */
+    final int index;
+    /**
+     * null if the record could not be parsed or misses a required column. A missing optional column
+     * is a null value
+     */
+    final String[] values;
+
+    Row(int index, String[] values) {
+      this.index = index;
+      this.values = values;
+    }
+  }
+
+  private final BufferedReader reader;
+  private final Format format;
+  private final Object[] columns;
+  private final int requiredColumns;
+  private int[] columnIndices;
+  private int rowIndex;
+  private boolean firstLine = true;
+
+  /**
+   * @param file
+   * @param format
+   * @param columns for each value either a column index (Integer) or a column name (String). Names
+   *          are header names for TSV and CSV files and keys for JSON lines files
+   * @param hasHeader true if the first TSV or CSV record holds the column names
+   * @throws IOException if the file can not be opened or the header can not be read
+   */
+  NoteFileReader(File file, Format format, Object[] columns, boolean hasHeader) throws IOException {
+    this(file, format, columns, columns.length, hasHeader);
+  }
+
+  /**
+   * @param file
+   * @param format
+   * @param columns for each value either a column index (Integer) or a column name (String). Names
+   *          are header names for TSV and CSV files and keys for JSON lines files
+   * @param requiredColumns number of leading columns every row must have, the columns after them may
+   *          be missing from a row
+   * @param hasHeader true if the first TSV or CSV record holds the column names
+   * @throws IOException if the file can not be opened or the header can not be read
+   */
+  NoteFileReader(File file, Format format, Object[] columns, int requiredColumns, boolean hasHeader)
+      throws IOException {
+    this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")),
+        BUFFER_SIZE);
+    this.format = format;
+    this.columns = columns;
+    this.requiredColumns = requiredColumns;
+    try {
+      if (format != Format.JSONL) {
+        columnIndices = resolveColumns(hasHeader ? readRecord() : null);
+      }
+    } catch (IOException | RuntimeException e) {
+      reader.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Read the next row
+   * @return the row, or null at the end of the file
+   * @throws IOException
+   */
+  Row next() throws IOException {
+    if (format == Format.JSONL) {
+      String line;
+      do {
+        line = readLine();
+        if (line == null) {
+          return null;
+        }
+      } while (line.trim().isEmpty());
+      return new Row(rowIndex++, parseJson(line));
+    }
+    List<String> record;
+    do {
+      record = readRecord();
+      if (record == null) {
+        return null;
+      }
+    } while (record.size() == 1 && record.get(0).isEmpty());
+    return new Row(rowIndex++, select(record));
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private int[] resolveColumns(List<String> header) {
+    Map<String, Integer> headerIndices = new HashMap<>();
+    if (header != null) {
+      for (int index = 0; index < header.size(); index++) {
+        headerIndices.put(header.get(index).trim(), index);
+      }
+    }
+    int[] indices = new int[columns.length];
+    for (int index = 0; index < columns.length; index++) {
+      Object column = columns[index];
+      Integer columnIndex = column instanceof Integer ? (Integer) column : headerIndices.get(String.valueOf(column));
+      if (columnIndex == null) {
+        throw new IllegalArgumentException("Column not found: " + column);
+      }
+      indices[index] = columnIndex;
+    }
+    return indices;
+  }
+
+  private String[] select(List<String> record) {
+    String[] values = new String[columnIndices.length];
+    for (int index = 0; index < columnIndices.length; index++) {
+      if (columnIndices[index] < record.size()) {
+        values[index] = record.get(columnIndices[index]);
+      } else if (index < requiredColumns) {
+        return null;
+      }
+    }
+    return values;
+  }
+
+  private String[] parseJson(String line) {
+    try {
+      JSONObject object = new JSONObject(line);
+      String[] values = new String[columns.length];
+      for (int index = 0; index < columns.length; index++) {
+        String key = String.valueOf(columns[index]);
+        if (object.has(key) && !object.isNull(key)) {
+          values[index] = String.valueOf(object.get(key));
+        } else if (index < requiredColumns) {
+          return null;
+        }
+      }
+      return values;
+    } catch (JSONException e) {
+      return null;
+    }
+  }
+
+  private String readLine() throws IOException {
+    String line = reader.readLine();
+    if (firstLine && line != null && !line.isEmpty() && line.charAt(0) == BYTE_ORDER_MARK) {
+      line = line.substring(1);
+    }
+    firstLine = false;
+    return line;
+  }
+
+  /**
+   * Read one TSV line or one CSV record. CSV fields may be quoted, and quoted fields may contain
+   * separators, escaped quotes ("") and line breaks
+   * @return the fields, or null at the end of the file
+   */
+  private List<String> readRecord() throws IOException {
+    String line = readLine();
+    if (line == null) {
+      return null;
+    }
+    List<String> fields = new ArrayList<>();
+    if (format == Format.TSV) {
+      int start = 0;
+      int tab;
+      while ((tab = line.indexOf('\t', start)) != -1) {
+        fields.add(line.substring(start, tab));
+        start = tab + 1;
+      }
+      fields.add(line.substring(start));
+      return fields;
+    }
+
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    int index = 0;
+    while (true) {
+      if (index == line.length()) {
+        if (!quoted) {
+          break;
+        }
+        // a quoted field continues on the next line
+        line = readLine();
+        if (line == null) {
+          break;
+        }
+        field.append('\n');
+        index = 0;
+        continue;
+      }
+      char c = line.charAt(index++);
+      if (quoted) {
+        if (c != '"') {
+          field.append(c);
+        } else if (index < line.length() && line.charAt(index) == '"') {
+          field.append('"');
+          index++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+}
@@ -0,0 +1,160 @@
+package com.is343.reactnativeankidroid;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Imports the rows of a NoteFileReader a batch at a time, so only one batch of notes is held in
+ * memory. Each batch is added with one call, after its duplicates were left out if asked to. Runs
+ * as a Job, the progress is reported after every batch
+ */
+class NoteImporter {
+  /**
+   * Adds the notes and receives the progress
+   */
+  interface Collection {
+    /**
+     * @return the number of notes added
+     * @throws IllegalArgumentException if the batch is invalid, the import goes on with the next one
+     */
+    int addNotes(long modelId, long deckId, List<String[]> fields, List<Set<String>> tags);
+
+    /**
+     * Called after every batch and once the import finished
+     * @param progress
+     */
+    void onProgress(ImportProgress progress);
+  }
+
+  private final Collection collection;
+  private final DuplicateFilter duplicateFilter;
+  private final Metrics metrics;
+
+  NoteImporter(Collection collection, DuplicateFilter duplicateFilter, Metrics metrics) {
+    this.collection = collection;
+    this.duplicateFilter = duplicateFilter;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Import the rows until the end of the file or until the job is cancelled
+   * @param job its progress is set to the returned progress
+   * @param reader the model fields of each row, followed by the tags column if hasTagsColumn
+   * @param modelId
+   * @param deckId
+   * @param numFields
+   * @param hasTagsColumn
+   * @param tags the tags of rows without their own, null for none
+   * @param batchSize notes added per call
+   * @param skipDuplicates true to leave out notes whose first field already exists for the model
+   * @param importId sent with the progress
+   * @return the progress
+   * @throws IOException if the file could not be read
+   * @throws RuntimeException if the notes could not be added for a reason that is not specific to
+   *           a batch, the import ends then
+   */
+  ImportProgress importNotes(Job job, NoteFileReader reader, long modelId, long deckId, int numFields,
+      boolean hasTagsColumn, Set<String> tags, int batchSize, boolean skipDuplicates, String importId)
+      throws IOException {
+    ImportProgress progress = new ImportProgress(importId);
+    job.setProgress(progress);
+    List<String[]> batchFields = new ArrayList<>(batchSize);
+    List<Set<String>> batchTags = new ArrayList<>(batchSize);
+    int batchRead = 0;
+    int batchFailed = 0;
+    NoteFileReader.Row row;
+    while (!job.isCancelled() && (row = reader.next()) != null) {
+      batchRead++;
+      if (row.values == null) {
+        batchFailed++;
+      } else {
+        batchFields.add(Arrays.copyOf(row.values, numFields));
+        batchTags.add(hasTagsColumn ? splitTags(row.values[numFields], tags) : tags);
+      }
+      if (batchFields.size() == batchSize) {
+        addBatch(modelId, deckId, batchFields, batchTags, batchRead, batchFailed, skipDuplicates, progress);
+        batchRead = 0;
+        batchFailed = 0;
+      }
+    }
+    if (!job.isCancelled()) {
+      addBatch(modelId, deckId, batchFields, batchTags, batchRead, batchFailed, skipDuplicates, progress);
+    }
+    progress.finish();
+    collection.onProgress(progress);
+    return progress;
+  }
+
+  /**
+   * Add one batch of an import, report the progress and clear the batch. An error of the provider is
+   * kept in the progress. Only an invalid batch lets the import go on, any other error, such as a
+   * missing permission, ends it
+   * @param modelId
+   * @param deckId
+   * @param batchFields
+   * @param batchTags
+   * @param batchRead rows read for this batch
+   * @param batchFailed rows of this batch that could not be read
+   * @param skipDuplicates true to leave out notes whose first field already exists for the model
+   * @param progress
+   * @throws RuntimeException if the notes could not be added for a reason that is not specific to
+   *           the batch
+   */
+  private void addBatch(long modelId, long deckId, List<String[]> batchFields, List<Set<String>> batchTags,
+      int batchRead, int batchFailed, boolean skipDuplicates, ImportProgress progress) {
+    RuntimeException fatalError = null;
+    int batchDuplicates = 0;
+    if (skipDuplicates && !batchFields.isEmpty()) {
+      try {
+        batchDuplicates = duplicateFilter.remove(modelId, batchFields, batchTags).size();
+      } catch (IllegalStateException e) {
+        // adding the rows anyway could add the duplicates the caller asked to skip
+        progress.setError(e.toString());
+        fatalError = e;
+      }
+    }
+    int batchAdded = 0;
+    if (fatalError == null && !batchFields.isEmpty()) {
+      long insertStart = metrics.start();
+      try {
+        batchAdded = collection.addNotes(modelId, deckId, batchFields, batchTags);
+        metrics.record("stage.bulkInsert", insertStart);
+        metrics.increment("notes.added", batchAdded);
+      } catch (RuntimeException e) {
+        metrics.record("stage.bulkInsert", insertStart, true);
+        progress.setError(e.toString());
+        if (!(e instanceof IllegalArgumentException)) {
+          fatalError = e;
+        }
+      }
+    }
+    progress.add(batchRead, batchAdded, batchDuplicates, batchFailed + batchFields.size() - batchAdded);
+    batchFields.clear();
+    batchTags.clear();
+    if (fatalError != null) {
+      progress.finish();
+    }
+    collection.onProgress(progress);
+    if (fatalError != null) {
+      throw fatalError;
+    }
+  }
+
+  /**
+   * Split a space separated tags column, like Anki does
+   * @param column
+   * @param defaultTags used when the column is empty
+   */
+  private static Set<String> splitTags(String column, Set<String> defaultTags) {
+    if (column == null || column.trim().isEmpty()) {
+      return defaultTags;
+    }
+    Set<String> tags = defaultTags == null ? new HashSet<String>() : new HashSet<String>(defaultTags);
+    tags.addAll(Arrays.asList(column.trim().split("\\s+")));
+    return tags;
+  }
+}
@@ -0,0 +1,230 @@
+package com.is343.reactnativeankidroid;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.database.Cursor;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.ichi2.anki.FlashCardsContract;
+
+/**
+ * Reads the notes of a query a page at a time. The cursor stays open in a CursorRegistry between
+ * the pages, so only one page is held in memory at a time. If it was closed in the meantime the
+ * query runs again and continues at the same position, the notes are ordered by ID
+ */
+class NotePager {
+  // AnkiDroid joins the fields of a note with it
+  private static final String FIELD_SEPARATOR = "\u001F";
+  // separates the search from the columns in a signature, never part of a column name
+  private static final char SIGNATURE_SEPARATOR = '\u001F';
+
+  /**
+   * Runs the queries, e.g. on the notes provider of AnkiDroid
+   */
+  interface Source {
+    /**
+     * @param projection the columns, the first two are the note ID and the model ID
+     * @param search Anki search syntax
+     * @return the notes ordered by ID, null if there was an API error
+     */
+    Cursor query(String[] projection, String search);
+  }
+
+  /**
+   * A note query that is read a page at a time
+   */
+  private static class NoteQuery implements Closeable {
+    final Cursor cursor;
+    // the query and projection, a continuation is only used for the same query
+    final String signature;
+    // rows read so far
+    int position;
+
+    NoteQuery(Cursor cursor, String signature) {
+      this.cursor = cursor;
+      this.signature = signature;
+    }
+
+    @Override
+    public void close() {
+      cursor.close();
+    }
+  }
+
+  private final Source source;
+  private final Metrics metrics;
+  private final CursorRegistry<NoteQuery> noteQueries;
+
+  /**
+   * @param source
+   * @param metrics
+   * @param maxOpen queries kept open between their pages, see CursorRegistry
+   * @param idleMillis how long a query is kept open without being read
+   */
+  NotePager(Source source, Metrics metrics, int maxOpen, long idleMillis) {
+    this.source = source;
+    this.metrics = metrics;
+    noteQueries = new CursorRegistry<>(maxOpen, idleMillis);
+  }
+
+  /**
+   * Read the next page of a note query
+   * @param search Anki search syntax
+   * @param fieldIndexes the fields to return, null for all fields
+   * @param includeTags
+   * @param pageSize
+   * @param continuation - the cursor returned with the previous page, null for the first page
+   * @return notes: { id, modelId, fields, tags }, cursor: for the next page or null after the last
+   *         page, total: number of notes found
+   * @throws IllegalStateException if AnkiDroid did not return the notes
+   */
+  WritableMap readPage(String search, int[] fieldIndexes, boolean includeTags, int pageSize, String continuation) {
+    List<String> columns = new ArrayList<>(Arrays.asList(FlashCardsContract.Note._ID, FlashCardsContract.Note.MID));
+    // the fields and tags are only sent by AnkiDroid if they are returned
+    if (fieldIndexes == null || fieldIndexes.length > 0) {
+      columns.add(FlashCardsContract.Note.FLDS);
+    }
+    if (includeTags) {
+      columns.add(FlashCardsContract.Note.TAGS);
+    }
+    String signature = search + SIGNATURE_SEPARATOR + columns;
+    String queryId = null;
+    int position = 0;
+    if (continuation != null) {
+      int separator = continuation.indexOf(':');
+      if (separator <= 0) {
+        throw new IllegalArgumentException("Unknown cursor " + continuation);
+      }
+      queryId = continuation.substring(0, separator);
+      position = Integer.parseInt(continuation.substring(separator + 1));
+    }
+    NoteQuery noteQuery = queryId == null ? null : noteQueries.take(queryId);
+    if (noteQuery != null && !noteQuery.signature.equals(signature)) {
+      // a cursor from before the app was restarted, the ID now belongs to another query
+      noteQueries.put(queryId, noteQuery);
+      noteQuery = null;
+      queryId = null;
+    } else if (noteQuery != null && noteQuery.position != position) {
+      // a page is read again, e.g. after its result was lost
+      noteQuery.close();
+      noteQuery = null;
+    }
+    if (noteQuery == null) {
+      long queryStart = metrics.start();
+      Cursor cursor = source.query(columns.toArray(new String[columns.size()]), search);
+      metrics.record("stage.queryNotes", queryStart, cursor == null);
+      if (cursor == null) {
+        throw new IllegalStateException("AnkiDroid did not return the notes");
+      }
+      noteQuery = new NoteQuery(cursor, signature);
+      if (position > 0 && !cursor.moveToPosition(position - 1)) {
+        // the notes were deleted since, there are no more pages
+        position = cursor.getCount();
+        cursor.moveToPosition(position - 1);
+      }
+      noteQuery.position = position;
+      if (queryId == null) {
+        queryId = noteQueries.newId();
+      }
+    }
+    try {
+      return readPage(noteQuery, queryId, fieldIndexes, pageSize);
+    } catch (RuntimeException e) {
+      noteQuery.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Close a query before its last page was read
+   * @param continuation - the cursor returned with the last page that was read
+   */
+  void close(String continuation) {
+    noteQueries.close(continuation.substring(0, Math.max(0, continuation.indexOf(':'))));
+  }
+
+  /**
+   * Close every open query
+   */
+  void closeAll() {
+    noteQueries.closeAll();
+  }
+
+  /**
+   * @param tags the tags column of the notes provider, separated by spaces
+   * @return the tags
+   */
+  static List<String> splitTags(String tags) {
+    List<String> tagList = new ArrayList<>();
+    if (tags != null) {
+      for (String tag : tags.trim().split("\\s+")) {
+        if (!tag.isEmpty()) {
+          tagList.add(tag);
+        }
+      }
+    }
+    return tagList;
+  }
+
+  /**
+   * Read up to a page of rows of an open query. It is kept open for the next page, or closed after
+   * the last one
+   */
+  private WritableMap readPage(NoteQuery noteQuery, String queryId, int[] fieldIndexes, int pageSize) {
+    Cursor cursor = noteQuery.cursor;
+    int fieldsColumn = cursor.getColumnIndex(FlashCardsContract.Note.FLDS);
+    int tagsColumn = cursor.getColumnIndex(FlashCardsContract.Note.TAGS);
+    WritableArray notes = new WritableNativeArray();
+    boolean more = true;
+    for (int read = 0; read < pageSize; read++) {
+      if (!cursor.moveToNext()) {
+        more = false;
+        break;
+      }
+      WritableMap note = new WritableNativeMap();
+      note.putString("id", Long.toString(cursor.getLong(0)));
+      note.putString("modelId", Long.toString(cursor.getLong(1)));
+      if (fieldsColumn != -1) {
+        String[] values = cursor.getString(fieldsColumn).split(FIELD_SEPARATOR, -1);
+        WritableArray noteFields = new WritableNativeArray();
+        if (fieldIndexes == null) {
+          for (String value : values) {
+            noteFields.pushString(value);
+          }
+        } else {
+          for (int fieldIndex : fieldIndexes) {
+            // notes of other models may have fewer fields
+            noteFields.pushString(fieldIndex >= 0 && fieldIndex < values.length ? values[fieldIndex] : null);
+          }
+        }
+        note.putArray("fields", noteFields);
+      }
+      if (tagsColumn != -1) {
+        WritableArray tags = new WritableNativeArray();
+        for (String tag : splitTags(cursor.getString(tagsColumn))) {
+          tags.pushString(tag);
+        }
+        note.putArray("tags", tags);
+      }
+      notes.pushMap(note);
+      noteQuery.position++;
+    }
+    more = more && noteQuery.position < cursor.getCount();
+    WritableMap page = new WritableNativeMap();
+    page.putArray("notes", notes);
+    page.putInt("total", cursor.getCount());
+    if (more) {
+      noteQueries.put(queryId, noteQuery);
+      page.putString("cursor", queryId + ":" + noteQuery.position);
+    } else {
+      noteQuery.close();
+      page.putNull("cursor");
+    }
+    return page;
+  }
+}
@@ -0,0 +1,171 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Updates the fields or tags of existing notes. The current values are fetched a chunk of notes at
+ * a time and only the notes whose values changed are written, so syncing a deck where few notes
+ * changed costs one query per chunk instead of one write per note
+ */
+class NoteUpdater {
+  /**
+   * Reads and writes the notes in AnkiDroid
+   */
+  interface Store {
+    /**
+     * @param noteIds at most one chunk
+     * @return the current values of the notes that exist, by note ID
+     */
+    Map<Long, Note> get(List<Long> noteIds);
+
+    /**
+     * @param note the current values
+     * @param fields all fields of the note
+     * @return true if the fields were written
+     */
+    boolean updateFields(Note note, String[] fields);
+
+    /**
+     * @param note the current values
+     * @param tags
+     * @return true if the tags were written
+     */
+    boolean updateTags(Note note, Set<String> tags);
+  }
+
+  /**
+   * The current values of a note
+   */
+  static class Note {
+    final long id;
+    final long modelId;
+    final String[] fields;
+    final Set<String> tags;
+
+    Note(long id, long modelId, String[] fields, Set<String> tags) {
+      this.id = id;
+      this.modelId = modelId;
+      this.fields = fields;
+      this.tags = tags;
+    }
+  }
+
+  private final Store store;
+  private final Metrics metrics;
+
+  NoteUpdater(Store store, Metrics metrics) {
+    this.store = store;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Write the fields of the notes that changed
+   * @param noteIds
+   * @param fields per note, null entries keep the current value of the field
+   * @param chunkSize notes fetched per query
+   * @return the counts
+   */
+  UpdateNotesResult updateFields(long[] noteIds, List<String[]> fields, int chunkSize) {
+    UpdateNotesResult result = new UpdateNotesResult(noteIds.length);
+    for (int start = 0; start < noteIds.length; start += chunkSize) {
+      int end = Math.min(noteIds.length, start + chunkSize);
+      Map<Long, Note> notes = fetch(noteIds, start, end);
+      for (int index = start; index < end; index++) {
+        Note note = notes.get(noteIds[index]);
+        if (note == null) {
+          result.addNotFound(noteIds[index]);
+          continue;
+        }
+        String[] merged = merge(note.fields, fields.get(index));
+        if (merged == null) {
+          // more fields than the model has
+          result.addFailed(noteIds[index]);
+        } else if (Arrays.equals(merged, note.fields)) {
+          result.addUnchanged();
+        } else if (write(note, merged, null)) {
+          result.addUpdated();
+        } else {
+          result.addFailed(noteIds[index]);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Write the tags of the notes that changed
+   * @param noteIds
+   * @param tags per note, replace the current tags
+   * @param chunkSize notes fetched per query
+   * @return the counts
+   */
+  UpdateNotesResult updateTags(long[] noteIds, List<Set<String>> tags, int chunkSize) {
+    UpdateNotesResult result = new UpdateNotesResult(noteIds.length);
+    for (int start = 0; start < noteIds.length; start += chunkSize) {
+      int end = Math.min(noteIds.length, start + chunkSize);
+      Map<Long, Note> notes = fetch(noteIds, start, end);
+      for (int index = start; index < end; index++) {
+        Note note = notes.get(noteIds[index]);
+        if (note == null) {
+          result.addNotFound(noteIds[index]);
+        } else if (tags.get(index).equals(note.tags)) {
+          result.addUnchanged();
+        } else if (write(note, null, tags.get(index))) {
+          result.addUpdated();
+        } else {
+          result.addFailed(noteIds[index]);
+        }
+      }
+    }
+    return result;
+  }
+
+  private Map<Long, Note> fetch(long[] noteIds, int start, int end) {
+    List<Long> chunk = new ArrayList<>(end - start);
+    for (int index = start; index < end; index++) {
+      chunk.add(noteIds[index]);
+    }
+    long fetchStart = metrics.start();
+    try {
+      Map<Long, Note> notes = store.get(chunk);
+      metrics.record("stage.fetchNotes", fetchStart);
+      return notes;
+    } catch (RuntimeException e) {
+      metrics.record("stage.fetchNotes", fetchStart, true);
+      throw e;
+    }
+  }
+
+  private boolean write(Note note, String[] fields, Set<String> tags) {
+    long updateStart = metrics.start();
+    boolean updated = false;
+    try {
+      updated = fields != null ? store.updateFields(note, fields) : store.updateTags(note, tags);
+      return updated;
+    } finally {
+      metrics.record("stage.update", updateStart, !updated);
+    }
+  }
+
+  /**
+   * @param current fields of the note
+   * @param fields new values, null entries keep the current value
+   * @return all fields of the note, or null if there are more new fields than current ones
+   */
+  static String[] merge(String[] current, String[] fields) {
+    if (fields.length > current.length) {
+      return null;
+    }
+    String[] merged = current.clone();
+    for (int index = 0; index < fields.length; index++) {
+      if (fields[index] != null) {
+        merged[index] = fields[index];
+      }
+    }
+    return merged;
+  }
+}
@@ -0,0 +1,465 @@
+package com.is343.reactnativeankidroid;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+/**
+ * Queues notes and media in a WriteJournal while AnkiDroid can not be reached, and adds them in
+ * order once it can. Notes queued with an idempotency key are recorded as QUEUED in the
+ * OperationJournal until the replay knows their note ID. Runs on the write queue
+ */
+class OfflineReplay {
+  // separates the parts of the target of a note, never part of a name or definition
+  private static final char TARGET_SEPARATOR = '\u001F';
+
+  /**
+   * Adds the queued notes and media to AnkiDroid
+   */
+  interface Collection {
+    /**
+     * @return true if AnkiDroid is installed and the permission is granted
+     */
+    boolean isReady();
+
+    /**
+     * Find or create the deck and model of queued notes
+     * @param note the first of the notes for the same deck and model
+     * @return the deck ID and the model ID, null if AnkiDroid refused to create them or the model was
+     *         deleted
+     */
+    long[] resolve(QueuedNote note);
+
+    /**
+     * @return the note ID, null if AnkiDroid did not add the note
+     */
+    Long addNote(long modelId, long deckId, String[] fields, Set<String> tags);
+
+    /**
+     * @return the number of notes added
+     */
+    int addNotes(long modelId, long deckId, List<String[]> fields, List<Set<String>> tags);
+
+    /**
+     * @param modelId
+     * @param firstField
+     * @return the IDs of the notes of the model with the first field, null if there was an API error
+     */
+    List<Long> findNotes(long modelId, String firstField);
+
+    /**
+     * @return the formatted media name, or null if AnkiDroid did not accept the file
+     * @throws IOException if the file can not be read
+     */
+    String addMedia(File file, String preferredName, String mimeType) throws IOException, InterruptedException;
+  }
+
+  /**
+   * Counts of a replay of the journal
+   */
+  static class Result {
+    boolean replayed;
+    int added;
+    int duplicates;
+    int failed;
+    int media;
+    // why the replay stopped before the end of the journal, null if it did not
+    String error;
+
+    WritableMap toWritableMap(long remaining) {
+      WritableMap map = new WritableNativeMap();
+      map.putInt("added", added);
+      map.putInt("duplicates", duplicates);
+      map.putInt("failed", failed);
+      map.putInt("media", media);
+      map.putDouble("remaining", remaining);
+      map.putString("error", error);
+      return map;
+    }
+  }
+
+  /**
+   * A note read back from the journal
+   */
+  static class QueuedNote {
+    final long sequence;
+    final String deckName;
+    final String deckId;
+    final String modelName;
+    final String modelId;
+    final String dbDeckReference;
+    final String dbModelReference;
+    final String css;
+    final String[] modelFields;
+    final String[] cardNames;
+    final String[] questionFormat;
+    final String[] answerFormat;
+    final String[] fields;
+    final String[] tags;
+    // null for none
+    final String operationKey;
+    // when the note was queued, in milliseconds since the epoch
+    final long queuedAt;
+    // AnkiDroid failed to add the note, but may have added it before the call failed
+    final boolean attempted;
+    // notes with the same target go to the same deck and model
+    final String target;
+
+    QueuedNote(long sequence, WriteJournal.Record record) {
+      this.sequence = sequence;
+      deckName = record.next();
+      deckId = record.next();
+      modelName = record.next();
+      modelId = record.next();
+      dbDeckReference = record.next();
+      dbModelReference = record.next();
+      css = record.next();
+      modelFields = record.nextArray();
+      cardNames = record.nextArray();
+      questionFormat = record.nextArray();
+      answerFormat = record.nextArray();
+      fields = record.nextArray();
+      tags = record.nextArray();
+      operationKey = record.hasNext() ? record.next() : null;
+      queuedAt = record.hasNext() ? Long.parseLong(record.next()) : 0;
+      attempted = record.hasNext() && record.next() != null;
+      target = deckName + TARGET_SEPARATOR + deckId + TARGET_SEPARATOR + modelName + TARGET_SEPARATOR + modelId
+          + TARGET_SEPARATOR + dbDeckReference + TARGET_SEPARATOR + dbModelReference + TARGET_SEPARATOR + css
+          + TARGET_SEPARATOR + Arrays.toString(modelFields) + TARGET_SEPARATOR + Arrays.toString(cardNames)
+          + TARGET_SEPARATOR + Arrays.toString(questionFormat) + TARGET_SEPARATOR + Arrays.toString(answerFormat);
+    }
+
+    /**
+     * @return true if the note is added with a call of its own, to know its note ID
+     */
+    boolean addedAlone() {
+      return operationKey != null || attempted;
+    }
+  }
+
+  private final Collection collection;
+  private final WriteJournal journal;
+  private final OperationJournal operations;
+  private final Metrics metrics;
+  private final int chunkSize;
+
+  /**
+   * @param collection
+   * @param journal
+   * @param operations where the note IDs of queued notes with an idempotency key are recorded
+   * @param metrics
+   * @param chunkSize queued notes added per call
+   */
+  OfflineReplay(Collection collection, WriteJournal journal, OperationJournal operations, Metrics metrics,
+      int chunkSize) {
+    this.collection = collection;
+    this.journal = journal;
+    this.operations = operations;
+    this.metrics = metrics;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * @param operationKey - null for none. Recorded as QUEUED in the OperationJournal, so a retry with
+   *          the key resolves with QUEUED again, until the replay records the note ID
+   * @param attemptedAt - when AnkiDroid failed to add the note, null if it was not tried
+   */
+  void queueNote(String deckName, String deckId, String modelName, String modelId, String dbDeckReference,
+      String dbModelReference, String css, String[] modelFields, String[] cardNames, String[] questionFormat,
+      String[] answerFormat, String[] valueFields, String[] tags, String operationKey, Long attemptedAt)
+      throws IOException {
+    // the note can not have been added before, so a replay only looks for notes added since
+    long since = attemptedAt != null ? attemptedAt : System.currentTimeMillis();
+    journal.append(new WriteJournal.Record().add("note").add(deckName).add(deckId).add(modelName).add(modelId)
+        .add(dbDeckReference).add(dbModelReference).add(css).add(modelFields).add(cardNames).add(questionFormat)
+        .add(answerFormat).add(valueFields).add(tags).add(operationKey).add(Long.toString(since))
+        .add(attemptedAt != null ? "attempted" : null));
+    if (operationKey != null) {
+      operations.end(operationKey, OperationJournal.QUEUED);
+    }
+    metrics.increment("notes.queued", 1);
+  }
+
+  /**
+   * @param fileUri
+   * @param preferredName
+   * @param mimeType
+   * @return the placeholder the queued notes use in place of the media name, see WriteJournal#resolve
+   */
+  String queueMedia(String fileUri, String preferredName, String mimeType) throws IOException {
+    long sequence = journal.append(new WriteJournal.Record().add("media").add(fileUri).add(preferredName)
+        .add(mimeType));
+    metrics.increment("media.queued", 1);
+    return WriteJournal.placeholder(sequence);
+  }
+
+  /**
+   * Drop the queued notes and media without adding them
+   * @throws IOException if the journal could not be read or deleted
+   */
+  void clear() throws IOException {
+    synchronized (journal) {
+      // a retry with the key of a dropped note adds it again
+      for (WriteJournal.Entry entry : journal.pending()) {
+        if ("note".equals(entry.record.next())) {
+          QueuedNote note = new QueuedNote(entry.sequence, entry.record);
+          if (note.operationKey != null) {
+            operations.update(note.operationKey, null);
+          }
+        }
+      }
+      journal.clear();
+    }
+  }
+
+  /**
+   * Add the queued notes and media in order, consecutive notes for the same deck and model with one
+   * call per chunk. Each chunk is marked in the checkpoint before and after it is added. A chunk
+   * that may have been added by a replay that stopped half way is added one note at a time, each
+   * checked for a note added since it was queued first. Stops at the first error and at media that
+   * could not be added although its file exists, the rest is replayed the next time. Notes using
+   * media whose file is gone fail instead of being added with the placeholder
+   * @return the counts, replayed is false if AnkiDroid could not be reached
+   * @throws IOException if the journal could not be read or the checkpoint could not be saved
+   */
+  Result replay() throws IOException, InterruptedException {
+    Result result = new Result();
+    synchronized (journal) {
+      if (journal.pendingCount() == 0 || !collection.isReady()) {
+        return result;
+      }
+      result.replayed = true;
+      List<QueuedNote> batch = new ArrayList<>();
+      for (WriteJournal.Entry entry : journal.pending()) {
+        String type = entry.record.next();
+        if ("note".equals(type)) {
+          QueuedNote note = new QueuedNote(entry.sequence, entry.record);
+          if (!batch.isEmpty() && (note.addedAlone() || batch.get(0).addedAlone()
+              || !batch.get(0).target.equals(note.target) || batch.size() >= chunkSize)) {
+            boolean replayed = addNotes(batch, result);
+            batch.clear();
+            if (!replayed) {
+              return result;
+            }
+          }
+          batch.add(note);
+          continue;
+        }
+        // the notes before the media do not use it, add them first to keep the checkpoint in order
+        boolean replayed = addNotes(batch, result);
+        batch.clear();
+        if (!replayed) {
+          return result;
+        }
+        if ("media".equals(type) && !addMedia(entry, result)) {
+          return result;
+        }
+        journal.markApplied(entry.sequence);
+      }
+      addNotes(batch, result);
+    }
+    return result;
+  }
+
+  /**
+   * Add a queued media file, see #replay
+   * @param entry the media record, after its type
+   * @param result where the counts are added
+   * @return false if the media was not added but its file is still there, the replay stops then so
+   *         the media and the notes using it stay queued
+   * @throws IOException if the media name could not be saved
+   */
+  private boolean addMedia(WriteJournal.Entry entry, Result result) throws IOException, InterruptedException {
+    String fileUri = entry.record.next();
+    String preferredName = entry.record.next();
+    String mimeType = entry.record.next();
+    File file = new File(fileUri.replaceFirst("^file://", ""));
+    String formatMediaName = null;
+    String error = null;
+    if (file.isFile()) {
+      try {
+        formatMediaName = collection.addMedia(file, preferredName, mimeType);
+      } catch (IOException | RuntimeException e) {
+        error = e.toString();
+      }
+    }
+    if (formatMediaName != null) {
+      journal.putMediaName(entry.sequence, formatMediaName);
+      result.media++;
+      return true;
+    }
+    if (!file.isFile()) {
+      // the file was deleted before it could be added, it never will be
+      journal.putMissingMedia(entry.sequence);
+      result.failed++;
+      return true;
+    }
+    result.error = error != null ? error : "Failed to add the queued media. URI: " + fileUri;
+    return false;
+  }
+
+  /**
+   * Add queued notes for the same deck and model with one call, see #replay
+   * @param batch
+   * @param result where the counts are added
+   * @return false if AnkiDroid did not add all of the notes, they stay queued and the replay stops
+   * @throws IOException if the checkpoint could not be saved
+   */
+  private boolean addNotes(List<QueuedNote> batch, Result result) throws IOException {
+    if (batch.isEmpty()) {
+      return true;
+    }
+    QueuedNote first = batch.get(0);
+    long last = batch.get(batch.size() - 1).sequence;
+    long[] ids = collection.resolve(first);
+    if (ids == null) {
+      // AnkiDroid was reached and refused the deck or model or the model was deleted, the notes would never
+      // be added
+      result.failed += batch.size();
+      for (QueuedNote note : batch) {
+        if (note.operationKey != null) {
+          operations.update(note.operationKey, null);
+        }
+      }
+      journal.markApplied(last);
+      return true;
+    }
+    long did = ids[0];
+    long mid = ids[1];
+    if (first.addedAlone() || journal.mayHaveApplied(first.sequence)) {
+      // a replay stopped after adding these notes or part of them, without knowing which
+      for (QueuedNote note : batch) {
+        addNote(note, mid, did, result);
+      }
+      return true;
+    }
+    List<String[]> fields = new ArrayList<>(batch.size());
+    List<Set<String>> tags = new ArrayList<>(batch.size());
+    for (QueuedNote note : batch) {
+      if (failMissingMedia(note, result)) {
+        continue;
+      }
+      fields.add(journal.resolve(note.fields));
+      tags.add(note.tags == null ? null : new HashSet<String>(Arrays.asList(note.tags)));
+    }
+    journal.markAttempted(last);
+    int added = 0;
+    if (!fields.isEmpty()) {
+      long insertStart = metrics.start();
+      try {
+        added = collection.addNotes(mid, did, fields, tags);
+        metrics.record("stage.replayInsert", insertStart);
+      } catch (RuntimeException e) {
+        metrics.record("stage.replayInsert", insertStart, true);
+        throw e;
+      }
+      metrics.increment("notes.added", added);
+    }
+    result.added += added;
+    if (added < fields.size()) {
+      // which notes are missing is not known, the next replay adds the chunk one note at a time
+      result.error = "AnkiDroid added " + added + " of " + fields.size() + " queued notes";
+      return false;
+    }
+    journal.markApplied(last);
+    return true;
+  }
+
+  /**
+   * Fail a queued note that uses media whose file is gone, instead of adding it with the placeholder
+   * @param note
+   * @param result where the counts are added
+   * @return true if the note failed
+   */
+  private boolean failMissingMedia(QueuedNote note, Result result) {
+    if (!journal.hasMissingMedia(note.fields)) {
+      return false;
+    }
+    result.failed++;
+    if (note.operationKey != null) {
+      // a retry with the key may add it again with new media
+      operations.update(note.operationKey, null);
+    }
+    return true;
+  }
+
+  /**
+   * Add a queued note on its own, so its note ID can be recorded for its idempotency key. A note that
+   * may have been added by the call that queued it or by a replay that stopped half way is looked up
+   * first, see #findNoteSince
+   * @param note
+   * @param mid
+   * @param did
+   * @param result where the counts are added
+   * @throws IOException if the checkpoint could not be saved
+   */
+  private void addNote(QueuedNote note, long mid, long did, Result result) throws IOException {
+    if (failMissingMedia(note, result)) {
+      journal.markApplied(note.sequence);
+      return;
+    }
+    String[] fields = journal.resolve(note.fields);
+    Set<String> tags = note.tags == null ? null : new HashSet<String>(Arrays.asList(note.tags));
+    Long noteId = null;
+    if (note.attempted || journal.mayHaveApplied(note.sequence)) {
+      noteId = findNoteSince(mid, fields, note.queuedAt);
+      if (noteId != null) {
+        result.duplicates++;
+      }
+    }
+    journal.markAttempted(note.sequence);
+    if (noteId == null) {
+      long insertStart = metrics.start();
+      try {
+        noteId = collection.addNote(mid, did, fields, tags);
+        metrics.record("stage.replayInsert", insertStart, noteId == null);
+      } catch (RuntimeException e) {
+        metrics.record("stage.replayInsert", insertStart, true);
+        throw e;
+      }
+      if (noteId == null) {
+        result.failed++;
+      } else {
+        result.added++;
+        metrics.increment("notes.added", 1);
+      }
+    }
+    if (note.operationKey != null) {
+      // a note that could not be added may be added again by a retry with the key
+      operations.update(note.operationKey, noteId);
+    }
+    journal.markApplied(note.sequence);
+  }
+
+  /**
+   * Find a note that may have been added for a queued note
+   * @param mid
+   * @param fields of the queued note
+   * @param since when the note was queued or tried, it can not have been added earlier
+   * @return the ID of the first note with the first field that was added since, null if there is none
+   * @throws IllegalStateException if the notes could not be looked up, the replay stops then
+   */
+  private Long findNoteSince(long mid, String[] fields, long since) {
+    if (fields.length == 0) {
+      return null;
+    }
+    List<Long> noteIds = collection.findNotes(mid, fields[0]);
+    if (noteIds == null) {
+      throw new IllegalStateException("Could not look up the queued note");
+    }
+    Long noteId = null;
+    for (long id : noteIds) {
+      if (id >= since && (noteId == null || id < noteId)) {
+        noteId = id;
+      }
+    }
+    return noteId;
+  }
+}
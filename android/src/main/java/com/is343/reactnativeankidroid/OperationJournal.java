@@ -0,0 +1,211 @@
+package com.is343.reactnativeankidroid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent journal of the results of operations by client supplied idempotency key, so an
+ * operation that is retried with the same key returns the first result instead of running again.
+ * Entries are appended and synced to a file before the result is returned, which is rewritten once
+ * it holds too many stale lines. The least recently used entries are dropped first
+ */
+class OperationJournal {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int BUFFER_SIZE = 8 * 1024;
+  /**
+   * Result of an operation whose write was queued, see #update
+   */
+  static final long QUEUED = -1;
+
+  private final File file;
+  private final int maxEntries;
+  private Map<String, Long> results;
+  // keys of operations that are running, a retry with the same key waits for them
+  private final Set<String> running = new HashSet<>();
+  private int fileLines;
+
+  /**
+   * @param file where the entries are kept between app starts
+   * @param maxEntries number of entries kept, the least recently used are dropped first
+   */
+  OperationJournal(File file, int maxEntries) {
+    this.file = file;
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Start an operation. If an operation with the same key is running, waits until it ends
+   * @param key idempotency key, without tabs or line breaks
+   * @return the recorded result of an earlier operation with the key, or null if the operation
+   *         should run, in which case #end must be called
+   * @throws IllegalArgumentException if the key can not be stored
+   * @throws InterruptedException
+   */
+  synchronized Long begin(String key) throws InterruptedException {
+    if (!storable(key)) {
+      throw new IllegalArgumentException("Idempotency keys can not contain tabs or line breaks");
+    }
+    while (running.contains(key)) {
+      wait();
+    }
+    Long result = getResults().get(key);
+    if (result == null) {
+      running.add(key);
+    }
+    return result;
+  }
+
+  /**
+   * End an operation started with #begin. Calling this again for the same key does nothing
+   * @param key
+   * @param result to record, null if the operation failed and may run again
+   */
+  synchronized void end(String key, Long result) {
+    if (!running.remove(key)) {
+      return;
+    }
+    if (result != null) {
+      record(key, result);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Replace the result of an operation that ended as #QUEUED, once its queued write was applied
+   * @param key
+   * @param result to record, null if the write failed and the operation may run again
+   */
+  synchronized void update(String key, Long result) {
+    Long current = getResults().get(key);
+    if (current == null || current != QUEUED) {
+      return;
+    }
+    if (result != null) {
+      record(key, result);
+      return;
+    }
+    results.remove(key);
+    fileLines++;
+    if (fileLines > maxEntries * 2) {
+      rewrite();
+    } else {
+      // a key without a result drops the earlier lines of the key when the journal is loaded
+      write(key + "\t\n", true);
+    }
+  }
+
+  private void record(String key, long result) {
+    getResults().put(key, result);
+    fileLines++;
+    if (fileLines > maxEntries * 2) {
+      rewrite();
+    } else {
+      write(key + '\t' + result + '\n', true);
+    }
+  }
+
+  private Map<String, Long> getResults() {
+    if (results == null) {
+      results = newMap();
+      load();
+    }
+    return results;
+  }
+
+  private Map<String, Long> newMap() {
+    return new LinkedHashMap<String, Long>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  private void load() {
+    if (!file.exists()) {
+      return;
+    }
+    String content;
+    try (InputStream input = new FileInputStream(file)) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+      content = new String(bytes.toByteArray(), UTF_8);
+    } catch (IOException e) {
+      // without the journal a retry runs the operation again, same as without a key
+      return;
+    }
+    int start = 0;
+    int end;
+    // a line without a line break was cut off while being written and is left out
+    while ((end = content.indexOf('\n', start)) != -1) {
+      String line = content.substring(start, end);
+      start = end + 1;
+      int tab = line.lastIndexOf('\t');
+      if (tab <= 0) {
+        continue;
+      }
+      if (tab == line.length() - 1) {
+        results.remove(line.substring(0, tab));
+        fileLines++;
+        continue;
+      }
+      try {
+        results.put(line.substring(0, tab), Long.parseLong(line.substring(tab + 1)));
+        fileLines++;
+      } catch (NumberFormatException e) {
+        // not written by this class
+      }
+    }
+    if (start < content.length()) {
+      // drop the cut off line, so the next entry does not end up on it
+      rewrite();
+    }
+  }
+
+  private void rewrite() {
+    StringBuilder lines = new StringBuilder();
+    fileLines = 0;
+    for (Map.Entry<String, Long> entry : results.entrySet()) {
+      lines.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+      fileLines++;
+    }
+    // write a copy first, so a crash leaves either the old or the new journal
+    File copy = new File(file.getPath() + ".tmp");
+    if (write(copy, lines.toString(), false) && copy.renameTo(file)) {
+      return;
+    }
+    write(lines.toString(), false);
+  }
+
+  private void write(String lines, boolean append) {
+    write(file, lines, append);
+  }
+
+  private static boolean write(File file, String lines, boolean append) {
+    try (FileOutputStream output = new FileOutputStream(file, append)) {
+      output.write(lines.getBytes(UTF_8));
+      output.getFD().sync();
+      return true;
+    } catch (IOException e) {
+      // the entries are still kept in memory until the app restarts
+      return false;
+    }
+  }
+
+  private static boolean storable(String key) {
+    return key.indexOf('\t') == -1 && key.indexOf('\n') == -1 && key.indexOf('\r') == -1;
+  }
+}
@@ -0,0 +1,353 @@
+package com.is343.reactnativeankidroid;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The decks and models the app registered up front, by handle, so notes can be added with the
+ * handles instead of sending the whole model definition with every note. The definitions are kept
+ * on the device, so the IDs can be looked up and the models checked in the background when the app
+ * starts, before the first note is added. The handle of a deck or model only depends on its name,
+ * so it stays the same between app starts and when the manifest is registered again
+ */
+class Provisions {
+  private static final String DECK_PREFIX = "deck:";
+  private static final String MODEL_PREFIX = "model:";
+
+  enum Status {
+    // not looked up yet, or the IDs were dropped
+    PENDING,
+    // found, and a model has the fields of its definition
+    READY,
+    // not in AnkiDroid yet, created by #resolve or the first note
+    MISSING,
+    // a model with the name exists, but its fields differ from the definition
+    MISMATCH,
+    // could not be created
+    FAILED
+  }
+
+  /**
+   * Looks up and creates the decks and models in AnkiDroid
+   */
+  interface Resolver {
+    /**
+     * @return the deck ID, or null if it does not exist
+     */
+    Long findDeck(Deck deck);
+
+    /**
+     * @return the deck ID, or null if it could not be created
+     */
+    Long createDeck(Deck deck);
+
+    /**
+     * @return the model ID, or null if it does not exist
+     */
+    Long findModel(Model model);
+
+    /**
+     * @param deckId default deck of the model, null for the AnkiDroid default
+     * @return the model ID, or null if it could not be created
+     */
+    Long createModel(Model model, Long deckId);
+
+    /**
+     * @return the field names of a model, or null if it does not exist or API error
+     */
+    String[] getFields(long modelId);
+  }
+
+  /**
+   * Where the definitions are kept between app starts
+   */
+  interface Storage {
+    /**
+     * @return the saved manifest, or null if there is none
+     */
+    String load();
+
+    void save(String manifest);
+  }
+
+  /**
+   * A registered deck
+   */
+  static class Deck {
+    final String handle;
+    final String name;
+    final String dbReference;
+    // read without holding the registry when a note is added
+    volatile Long id;
+    volatile Status status = Status.PENDING;
+
+    Deck(String name, String dbReference) {
+      this.handle = DECK_PREFIX + name;
+      this.name = name;
+      this.dbReference = dbReference;
+    }
+
+    private boolean sameDefinition(Deck other) {
+      return other != null && name.equals(other.name) && equal(dbReference, other.dbReference);
+    }
+  }
+
+  /**
+   * A registered model
+   */
+  static class Model {
+    final String handle;
+    final String name;
+    final String dbReference;
+    final String[] fields;
+    final String[] cardNames;
+    final String[] questionFormat;
+    final String[] answerFormat;
+    // null for no tags
+    final String[] tags;
+    // null for the default CSS
+    final String css;
+    // the deck the model is created for, null for the AnkiDroid default
+    final String deckHandle;
+    // read without holding the registry when a note is added
+    volatile Long id;
+    volatile Status status = Status.PENDING;
+
+    Model(String name, String dbReference, String[] fields, String[] cardNames, String[] questionFormat,
+        String[] answerFormat, String[] tags, String css, String deckName) {
+      this.handle = MODEL_PREFIX + name;
+      this.name = name;
+      this.dbReference = dbReference;
+      this.fields = fields;
+      this.cardNames = cardNames;
+      this.questionFormat = questionFormat;
+      this.answerFormat = answerFormat;
+      this.tags = tags;
+      this.css = css;
+      this.deckHandle = deckName == null ? null : DECK_PREFIX + deckName;
+    }
+
+    private boolean sameDefinition(Model other) {
+      return other != null && name.equals(other.name) && equal(dbReference, other.dbReference)
+          && Arrays.equals(fields, other.fields) && Arrays.equals(cardNames, other.cardNames)
+          && Arrays.equals(questionFormat, other.questionFormat) && Arrays.equals(answerFormat, other.answerFormat)
+          && Arrays.equals(tags, other.tags) && equal(css, other.css) && equal(deckHandle, other.deckHandle);
+    }
+  }
+
+  private final Resolver resolver;
+  private final Storage storage;
+  private final Map<String, Deck> decks = new LinkedHashMap<>();
+  private final Map<String, Model> models = new LinkedHashMap<>();
+
+  Provisions(Resolver resolver, Storage storage) {
+    this.resolver = resolver;
+    this.storage = storage;
+  }
+
+  /**
+   * Add decks and models, replacing the ones with the same handle, and save all definitions. A
+   * definition that did not change keeps the ID that was already looked up
+   * @param newDecks
+   * @param newModels
+   */
+  void register(List<Deck> newDecks, List<Model> newModels) {
+    String manifest;
+    synchronized (this) {
+      put(newDecks, newModels, true);
+      manifest = toJson(new ArrayList<>(decks.values()), new ArrayList<>(models.values()));
+    }
+    storage.save(manifest);
+  }
+
+  /**
+   * Register the definitions saved by an earlier app start
+   */
+  void load() {
+    String manifest = storage.load();
+    if (manifest == null) {
+      return;
+    }
+    List<Deck> savedDecks = new ArrayList<>();
+    List<Model> savedModels = new ArrayList<>();
+    try {
+      fromJson(manifest, savedDecks, savedModels);
+    } catch (JSONException e) {
+      // written by another version, it is saved again by the next #register
+      return;
+    }
+    synchronized (this) {
+      // definitions registered since the app started are newer
+      put(savedDecks, savedModels, false);
+    }
+  }
+
+  /**
+   * Look up the IDs of all decks and models and check the fields of the models. The resolver is
+   * called without holding the registry, as it calls AnkiDroid
+   * @param create true to create the missing decks and models, only on the write queue, false to only
+   *          look them up
+   */
+  void resolve(boolean create) {
+    List<Deck> deckList;
+    List<Model> modelList;
+    synchronized (this) {
+      deckList = new ArrayList<>(decks.values());
+      modelList = new ArrayList<>(models.values());
+    }
+    for (Deck deck : deckList) {
+      Long id = create ? resolver.createDeck(deck) : resolver.findDeck(deck);
+      synchronized (this) {
+        deck.id = id;
+        deck.status = id != null ? Status.READY : create ? Status.FAILED : Status.MISSING;
+      }
+    }
+    for (Model model : modelList) {
+      Long id;
+      if (create) {
+        Deck deck = model.deckHandle == null ? null : getDeck(model.deckHandle);
+        id = resolver.createModel(model, deck == null ? null : deck.id);
+      } else {
+        id = resolver.findModel(model);
+      }
+      String[] current = id == null ? null : resolver.getFields(id);
+      synchronized (this) {
+        model.id = id;
+        if (id == null) {
+          model.status = create ? Status.FAILED : Status.MISSING;
+        } else {
+          model.status = Arrays.equals(current, model.fields) ? Status.READY : Status.MISMATCH;
+        }
+      }
+    }
+  }
+
+  /**
+   * @param handle
+   * @return the deck, or null if no deck with the handle was registered
+   */
+  synchronized Deck getDeck(String handle) {
+    return handle == null ? null : decks.get(handle);
+  }
+
+  /**
+   * @param handle
+   * @return the model, or null if no model with the handle was registered
+   */
+  synchronized Model getModel(String handle) {
+    return handle == null ? null : models.get(handle);
+  }
+
+  synchronized List<Deck> getDecks() {
+    return new ArrayList<>(decks.values());
+  }
+
+  synchronized List<Model> getModels() {
+    return new ArrayList<>(models.values());
+  }
+
+  /**
+   * Drop the looked up IDs, e.g. after decks or models were deleted in AnkiDroid. Notes added with a
+   * handle look the deck and model up by name until the next #resolve
+   */
+  synchronized void invalidate() {
+    for (Deck deck : decks.values()) {
+      deck.id = null;
+      deck.status = Status.PENDING;
+    }
+    for (Model model : models.values()) {
+      model.id = null;
+      model.status = Status.PENDING;
+    }
+  }
+
+  private void put(List<Deck> newDecks, List<Model> newModels, boolean replace) {
+    for (Deck deck : newDecks) {
+      Deck current = decks.get(deck.handle);
+      if (current == null || (replace && !deck.sameDefinition(current))) {
+        decks.put(deck.handle, deck);
+      }
+    }
+    for (Model model : newModels) {
+      Model current = models.get(model.handle);
+      if (current == null || (replace && !model.sameDefinition(current))) {
+        models.put(model.handle, model);
+      }
+    }
+  }
+
+  private static String toJson(List<Deck> deckList, List<Model> modelList) {
+    try {
+      JSONArray deckArray = new JSONArray();
+      for (Deck deck : deckList) {
+        deckArray.put(new JSONObject().put("name", deck.name).put("dbReference", deck.dbReference));
+      }
+      JSONArray modelArray = new JSONArray();
+      for (Model model : modelList) {
+        modelArray.put(new JSONObject().put("name", model.name).put("dbReference", model.dbReference)
+            .put("fields", toJson(model.fields)).put("cardNames", toJson(model.cardNames))
+            .put("questionFormat", toJson(model.questionFormat)).put("answerFormat", toJson(model.answerFormat))
+            .put("tags", toJson(model.tags)).put("css", model.css)
+            .put("deckName", model.deckHandle == null ? null : model.deckHandle.substring(DECK_PREFIX.length())));
+      }
+      return new JSONObject().put("decks", deckArray).put("models", modelArray).toString();
+    } catch (JSONException e) {
+      // only thrown for numbers that are not finite
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static JSONArray toJson(String[] values) {
+    if (values == null) {
+      return null;
+    }
+    JSONArray array = new JSONArray();
+    for (String value : values) {
+      array.put(value);
+    }
+    return array;
+  }
+
+  private static void fromJson(String manifest, List<Deck> deckList, List<Model> modelList) throws JSONException {
+    JSONObject object = new JSONObject(manifest);
+    JSONArray deckArray = object.getJSONArray("decks");
+    for (int index = 0; index < deckArray.length(); index++) {
+      JSONObject deck = deckArray.getJSONObject(index);
+      deckList.add(new Deck(deck.getString("name"), optString(deck, "dbReference")));
+    }
+    JSONArray modelArray = object.getJSONArray("models");
+    for (int index = 0; index < modelArray.length(); index++) {
+      JSONObject model = modelArray.getJSONObject(index);
+      modelList.add(new Model(model.getString("name"), optString(model, "dbReference"),
+          toArray(model.optJSONArray("fields")), toArray(model.optJSONArray("cardNames")),
+          toArray(model.optJSONArray("questionFormat")), toArray(model.optJSONArray("answerFormat")),
+          toArray(model.optJSONArray("tags")), optString(model, "css"), optString(model, "deckName")));
+    }
+  }
+
+  private static String optString(JSONObject object, String key) throws JSONException {
+    return object.isNull(key) ? null : object.getString(key);
+  }
+
+  private static String[] toArray(JSONArray array) throws JSONException {
+    if (array == null) {
+      return null;
+    }
+    String[] values = new String[array.length()];
+    for (int index = 0; index < values.length; index++) {
+      values[index] = array.getString(index);
+    }
+    return values;
+  }
+
+  private static boolean equal(Object left, Object right) {
+    return left == null ? right == null : left.equals(right);
+  }
+}
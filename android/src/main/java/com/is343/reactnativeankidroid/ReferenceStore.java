@@ -0,0 +1,192 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The deck and model references of the app (name to ID, per dbDeckReference or dbModelReference),
+ * held in memory after a single load. New references are written behind: they are collected and
+ * saved together shortly after, or when #flush is called. References still stored in the old
+ * per reference SharedPreferences files are copied over the first time the reference is used
+ */
+class ReferenceStore {
+  private static final char SEPARATOR = '\u001F';
+  private static final String ENTRY_PREFIX = "ref" + SEPARATOR;
+  private static final String MIGRATED_PREFIX = "migrated" + SEPARATOR;
+
+  /**
+   * Where the references are kept between app starts
+   */
+  interface Storage {
+    /**
+     * @return all stored keys and values
+     */
+    Map<String, Long> loadAll();
+
+    /**
+     * @param reference dbDeckReference or dbModelReference
+     * @return the name to ID map of the old SharedPreferences file of the reference
+     */
+    Map<String, Long> loadLegacy(String reference);
+
+    /**
+     * Store a batch of keys and values with a single write
+     * @param entries
+     */
+    void save(Map<String, Long> entries);
+  }
+
+  private final Storage storage;
+  private final long flushDelayMillis;
+  private final ScheduledThreadPoolExecutor flusher;
+  private Map<String, Map<String, Long>> references;
+  private Set<String> migrated;
+  private Map<String, Long> pending = new HashMap<>();
+  private boolean flushScheduled;
+
+  /**
+   * @param storage
+   * @param flushDelayMillis how long new references are collected before they are saved together
+   */
+  ReferenceStore(Storage storage, long flushDelayMillis) {
+    this.storage = storage;
+    this.flushDelayMillis = flushDelayMillis;
+    this.flusher = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "AnkiDroidReferences");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Load the stored references now instead of on the first lookup
+   */
+  synchronized void load() {
+    getReferences();
+  }
+
+  /**
+   * @param reference dbDeckReference or dbModelReference
+   * @param name deck or model name
+   * @return the ID stored for the name, or null if there is none
+   */
+  synchronized Long get(String reference, String name) {
+    Map<String, Long> ids = getIds(reference);
+    return ids == null ? null : ids.get(name);
+  }
+
+  /**
+   * Store the ID of a deck or model, it is saved with the next flush
+   * @param reference dbDeckReference or dbModelReference
+   * @param name deck or model name
+   * @param id
+   */
+  synchronized void put(String reference, String name, long id) {
+    Map<String, Long> ids = getIds(reference);
+    Long previous = ids.put(name, id);
+    if (previous == null || previous != id) {
+      pending.put(ENTRY_PREFIX + reference + SEPARATOR + name, id);
+      scheduleFlush();
+    }
+  }
+
+  /**
+   * Save the references that were not saved yet
+   */
+  void flush() {
+    Map<String, Long> entries;
+    synchronized (this) {
+      flushScheduled = false;
+      if (pending.isEmpty()) {
+        return;
+      }
+      entries = pending;
+      pending = new HashMap<>();
+    }
+    storage.save(entries);
+  }
+
+  /**
+   * Save the remaining references and stop the flush thread
+   */
+  void close() {
+    flusher.shutdown();
+    flush();
+  }
+
+  private Map<String, Long> getIds(String reference) {
+    Map<String, Map<String, Long>> all = getReferences();
+    Map<String, Long> ids = all.get(reference);
+    if (ids == null) {
+      ids = new HashMap<>();
+      all.put(reference, ids);
+    }
+    if (migrated.add(reference)) {
+      Map<String, Long> legacy = storage.loadLegacy(reference);
+      if (legacy != null) {
+        for (Map.Entry<String, Long> entry : legacy.entrySet()) {
+          // references stored by this store are newer than the old file
+          if (!ids.containsKey(entry.getKey())) {
+            ids.put(entry.getKey(), entry.getValue());
+            pending.put(ENTRY_PREFIX + reference + SEPARATOR + entry.getKey(), entry.getValue());
+          }
+        }
+      }
+      pending.put(MIGRATED_PREFIX + reference, 1L);
+      scheduleFlush();
+    }
+    return ids;
+  }
+
+  private Map<String, Map<String, Long>> getReferences() {
+    if (references != null) {
+      return references;
+    }
+    references = new HashMap<>();
+    migrated = new HashSet<>();
+    Map<String, Long> stored = storage.loadAll();
+    if (stored == null) {
+      return references;
+    }
+    for (Map.Entry<String, Long> entry : stored.entrySet()) {
+      String key = entry.getKey();
+      if (key.startsWith(MIGRATED_PREFIX)) {
+        migrated.add(key.substring(MIGRATED_PREFIX.length()));
+        continue;
+      }
+      int separator = key.indexOf(SEPARATOR, ENTRY_PREFIX.length());
+      if (!key.startsWith(ENTRY_PREFIX) || separator == -1 || entry.getValue() == null) {
+        continue;
+      }
+      String reference = key.substring(ENTRY_PREFIX.length(), separator);
+      Map<String, Long> ids = references.get(reference);
+      if (ids == null) {
+        ids = new HashMap<>();
+        references.put(reference, ids);
+      }
+      ids.put(key.substring(separator + 1), entry.getValue());
+    }
+    return references;
+  }
+
+  private void scheduleFlush() {
+    if (flushScheduled || flusher.isShutdown()) {
+      return;
+    }
+    flushScheduled = true;
+    flusher.schedule(new Runnable() {
+      @Override
+      public void run() {
+        flush();
+      }
+    }, flushDelayMillis, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,133 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed size thread pool with a bounded queue. Tasks are refused instead of queued once the queue
+ * is full, so callers can be told to retry later rather than building up unbounded work
+ */
+class TaskQueue {
+  private static final long MIN_RETRY_AFTER_MILLIS = 50;
+  private static final long IDLE_THREAD_SECONDS = 30;
+
+  final String name;
+  private final AtomicInteger threadCount = new AtomicInteger();
+  private ThreadPoolExecutor executor;
+  private int threads;
+  // exponentially weighted average of the task durations, used to estimate the retry delay
+  private volatile long averageTaskNanos;
+
+  /**
+   * @param name prefix for the thread names
+   * @param threads number of tasks that can run at the same time
+   * @param capacity number of tasks that can wait to run
+   */
+  TaskQueue(String name, int threads, int capacity) {
+    this.name = name;
+    configure(threads, capacity);
+  }
+
+  /**
+   * Replace the thread pool. Tasks already queued on the previous pool still run, and the new pool
+   * starts its tasks only once they are done, so the two pools never run tasks at the same time
+   * @param threads number of tasks that can run at the same time
+   * @param capacity number of tasks that can wait to run
+   */
+  synchronized void configure(int threads, int capacity) {
+    if (threads < 1 || capacity < 1) {
+      throw new IllegalArgumentException("threads and capacity must be at least 1");
+    }
+    final ThreadPoolExecutor previous = executor;
+    executor = new ThreadPoolExecutor(threads, threads, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    this.threads = threads;
+    if (previous != null) {
+      previous.shutdown();
+      // hold every thread of the new pool until the previous pool is drained, tasks queued meanwhile
+      // wait behind them in order
+      for (int i = 0; i < threads; i++) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            awaitTermination(previous);
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Queue the task
+   * @param task
+   * @return false if the queue is full or shut down and the task was not queued
+   */
+  boolean execute(final Runnable task) {
+    try {
+      getExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          long start = System.nanoTime();
+          try {
+            task.run();
+          } finally {
+            long duration = System.nanoTime() - start;
+            averageTaskNanos = averageTaskNanos == 0 ? duration : (averageTaskNanos * 7 + duration) / 8;
+          }
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Estimate how long until the queue has room again
+   * @return the delay in milliseconds
+   */
+  synchronized long retryAfterMillis() {
+    long waitNanos = averageTaskNanos * (executor.getQueue().size() + threads) / threads;
+    return Math.max(MIN_RETRY_AFTER_MILLIS, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+  }
+
+  /**
+   * @return the number of tasks waiting to run
+   */
+  synchronized int pending() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Stop accepting tasks, tasks that are already queued still run
+   */
+  synchronized void shutdown() {
+    executor.shutdown();
+  }
+
+  private static void awaitTermination(ThreadPoolExecutor executor) {
+    try {
+      while (!executor.awaitTermination(IDLE_THREAD_SECONDS, TimeUnit.SECONDS)) {
+        // keep waiting, a task of the previous pool is still running
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private synchronized ThreadPoolExecutor getExecutor() {
+    return executor;
+  }
+}
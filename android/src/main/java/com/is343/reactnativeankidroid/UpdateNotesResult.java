@@ -0,0 +1,77 @@
+package com.is343.reactnativeankidroid;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts of a bulk note update. Note IDs are sent to JS as strings, like the IDs of added notes
+ */
+class UpdateNotesResult {
+  private final int total;
+  private int updated;
+  private int unchanged;
+  private final List<Long> notFoundIds = new ArrayList<>();
+  private final List<Long> failedIds = new ArrayList<>();
+
+  /**
+   * @param total number of notes sent
+   */
+  UpdateNotesResult(int total) {
+    this.total = total;
+  }
+
+  void addUpdated() {
+    updated++;
+  }
+
+  void addUnchanged() {
+    unchanged++;
+  }
+
+  /**
+   * @param noteId of a note that does not exist
+   */
+  void addNotFound(long noteId) {
+    notFoundIds.add(noteId);
+  }
+
+  /**
+   * @param noteId of a note that AnkiDroid did not update
+   */
+  void addFailed(long noteId) {
+    failedIds.add(noteId);
+  }
+
+  int getUpdated() {
+    return updated;
+  }
+
+  int getUnchanged() {
+    return unchanged;
+  }
+
+  WritableMap toWritableMap() {
+    WritableMap result = new WritableNativeMap();
+    result.putInt("total", total);
+    result.putInt("updated", updated);
+    result.putInt("unchanged", unchanged);
+    result.putInt("notFound", notFoundIds.size());
+    result.putInt("failed", failedIds.size());
+    result.putArray("notFoundIds", toWritableArray(notFoundIds));
+    result.putArray("failedIds", toWritableArray(failedIds));
+    return result;
+  }
+
+  private static WritableArray toWritableArray(List<Long> noteIds) {
+    WritableArray array = new WritableNativeArray();
+    for (Long noteId : noteIds) {
+      array.pushString(noteId.toString());
+    }
+    return array;
+  }
+}
@@ -0,0 +1,458 @@
+package com.is343.reactnativeankidroid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only journal of the writes made while AnkiDroid could not be reached, replayed in order
+ * once it can. Each record is a line with its sequence number, synced to disk before it counts as
+ * queued. A checkpoint file holds the last record that was applied and the last one that may have
+ * been applied, so a replay that crashed half way knows which records to check before adding them
+ * again. The journal is deleted once every record was applied.
+ *
+ * Queued media gets a placeholder instead of its media name, which is replaced in the fields of
+ * the notes once the media was added. Media whose file was deleted before it could be added is
+ * remembered as missing, so the notes using it can be failed instead of added with the placeholder
+ */
+class WriteJournal {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final String PLACEHOLDER_PREFIX = "[ankidroid-queued-media:";
+  private static final Pattern PLACEHOLDER = Pattern.compile(Pattern.quote(PLACEHOLDER_PREFIX) + "(\\d+)\\]");
+
+  /**
+   * A queued write, a list of strings that may be null
+   */
+  static class Record {
+    private final List<String> values;
+    private int next;
+
+    Record() {
+      values = new ArrayList<>();
+    }
+
+    private Record(List<String> values) {
+      this.values = values;
+    }
+
+    Record add(String value) {
+      values.add(value);
+      return this;
+    }
+
+    Record add(String[] array) {
+      values.add(array == null ? null : Integer.toString(array.length));
+      if (array != null) {
+        for (String value : array) {
+          values.add(value);
+        }
+      }
+      return this;
+    }
+
+    /**
+     * @return the next value added with #add(String)
+     */
+    String next() {
+      return values.get(next++);
+    }
+
+    /**
+     * @return true if there are more values, false for a record written before they were added
+     */
+    boolean hasNext() {
+      return next < values.size();
+    }
+
+    /**
+     * @return the next value added with #add(String[])
+     */
+    String[] nextArray() {
+      String length = next();
+      if (length == null) {
+        return null;
+      }
+      String[] array = new String[Integer.parseInt(length)];
+      for (int index = 0; index < array.length; index++) {
+        array[index] = next();
+      }
+      return array;
+    }
+  }
+
+  /**
+   * A record read back from the journal
+   */
+  static class Entry {
+    final long sequence;
+    final Record record;
+
+    Entry(long sequence, Record record) {
+      this.sequence = sequence;
+      this.record = record;
+    }
+  }
+
+  private final File journalFile;
+  private final File checkpointFile;
+  private final File mediaNamesFile;
+  private boolean loaded;
+  private long lastSequence;
+  private long applied;
+  private long attempted;
+  // null values mark missing media
+  private Map<Long, String> mediaNames;
+
+  /**
+   * @param dir where the journal files are kept
+   */
+  WriteJournal(File dir) {
+    dir.mkdirs();
+    journalFile = new File(dir, "journal.tsv");
+    checkpointFile = new File(dir, "checkpoint");
+    mediaNamesFile = new File(dir, "media_names.tsv");
+  }
+
+  /**
+   * @param sequence of a queued media record
+   * @return the placeholder used in place of its media name
+   */
+  static String placeholder(long sequence) {
+    return PLACEHOLDER_PREFIX + sequence + "]";
+  }
+
+  /**
+   * Queue a write, it is on disk when this returns
+   * @param record
+   * @return the sequence number of the record
+   * @throws IOException if the record could not be written, it is not queued then
+   */
+  synchronized long append(Record record) throws IOException {
+    load();
+    long sequence = lastSequence + 1;
+    StringBuilder line = new StringBuilder().append(sequence);
+    for (String value : record.values) {
+      line.append('\t').append(escape(value));
+    }
+    line.append('\n');
+    write(journalFile, line.toString(), true);
+    lastSequence = sequence;
+    return sequence;
+  }
+
+  /**
+   * @return the number of records that were not applied yet
+   */
+  synchronized long pendingCount() {
+    load();
+    return lastSequence - applied;
+  }
+
+  /**
+   * @return the records that were not applied yet, in order
+   * @throws IOException
+   */
+  synchronized List<Entry> pending() throws IOException {
+    load();
+    List<Entry> entries = new ArrayList<>();
+    for (String line : readLines(journalFile)) {
+      String[] parts = line.split("\t", -1);
+      long sequence = parseSequence(parts[0]);
+      if (sequence <= applied) {
+        continue;
+      }
+      List<String> values = new ArrayList<>(parts.length - 1);
+      for (int index = 1; index < parts.length; index++) {
+        values.add(unescape(parts[index]));
+      }
+      entries.add(new Entry(sequence, new Record(values)));
+    }
+    return entries;
+  }
+
+  /**
+   * @param sequence
+   * @return true if the record may have been applied by a replay that did not finish
+   */
+  synchronized boolean mayHaveApplied(long sequence) {
+    load();
+    return sequence <= attempted;
+  }
+
+  /**
+   * Mark the records up to the sequence as about to be applied, before applying them
+   * @param sequence
+   * @throws IOException
+   */
+  synchronized void markAttempted(long sequence) throws IOException {
+    load();
+    attempted = Math.max(attempted, sequence);
+    saveCheckpoint();
+  }
+
+  /**
+   * Mark the records up to the sequence as applied. The journal and the media names are deleted once
+   * all are, as the placeholders are only used by queued notes
+   * @param sequence
+   * @throws IOException
+   */
+  synchronized void markApplied(long sequence) throws IOException {
+    load();
+    applied = Math.max(applied, sequence);
+    attempted = applied >= lastSequence ? applied : Math.max(attempted, applied);
+    saveCheckpoint();
+    if (applied >= lastSequence) {
+      // the checkpoint keeps the sequence, so new records are numbered after the deleted ones
+      journalFile.delete();
+      mediaNamesFile.delete();
+      mediaNames.clear();
+    }
+  }
+
+  /**
+   * Remember the media name of a queued media record that was added
+   * @param sequence of the media record
+   * @param mediaName
+   * @throws IOException
+   */
+  synchronized void putMediaName(long sequence, String mediaName) throws IOException {
+    load();
+    if (mediaName.equals(mediaNames.get(sequence))) {
+      return;
+    }
+    mediaNames.put(sequence, mediaName);
+    write(mediaNamesFile, sequence + "\t" + escape(mediaName) + "\n", true);
+  }
+
+  /**
+   * Remember that the file of a queued media record is gone, so it will never have a media name
+   * @param sequence of the media record
+   * @throws IOException
+   */
+  synchronized void putMissingMedia(long sequence) throws IOException {
+    load();
+    if (mediaNames.containsKey(sequence) && mediaNames.get(sequence) == null) {
+      return;
+    }
+    mediaNames.put(sequence, null);
+    write(mediaNamesFile, sequence + "\t" + escape(null) + "\n", true);
+  }
+
+  /**
+   * @param fields
+   * @return true if a field has the placeholder of media that is missing
+   */
+  synchronized boolean hasMissingMedia(String[] fields) {
+    if (fields == null) {
+      return false;
+    }
+    for (String field : fields) {
+      if (field == null || !field.contains(PLACEHOLDER_PREFIX)) {
+        continue;
+      }
+      load();
+      Matcher matcher = PLACEHOLDER.matcher(field);
+      while (matcher.find()) {
+        long sequence = Long.parseLong(matcher.group(1));
+        if (mediaNames.containsKey(sequence) && mediaNames.get(sequence) == null) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Replace the placeholders of queued media that was added by its media name
+   * @param fields
+   * @return the fields, with the known placeholders replaced
+   */
+  synchronized String[] resolve(String[] fields) {
+    if (fields == null) {
+      return null;
+    }
+    String[] resolved = fields;
+    for (int index = 0; index < fields.length; index++) {
+      if (fields[index] == null || !fields[index].contains(PLACEHOLDER_PREFIX)) {
+        continue;
+      }
+      load();
+      Matcher matcher = PLACEHOLDER.matcher(fields[index]);
+      StringBuffer field = new StringBuffer();
+      while (matcher.find()) {
+        String mediaName = mediaNames.get(Long.parseLong(matcher.group(1)));
+        matcher.appendReplacement(field, Matcher.quoteReplacement(mediaName != null ? mediaName : matcher.group()));
+      }
+      matcher.appendTail(field);
+      if (resolved == fields) {
+        resolved = fields.clone();
+      }
+      resolved[index] = field.toString();
+    }
+    return resolved;
+  }
+
+  /**
+   * Drop all queued records without applying them
+   * @throws IOException
+   */
+  synchronized void clear() throws IOException {
+    load();
+    applied = lastSequence;
+    attempted = lastSequence;
+    saveCheckpoint();
+    journalFile.delete();
+    mediaNamesFile.delete();
+    mediaNames.clear();
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    mediaNames = new HashMap<>();
+    try {
+      List<String> checkpoint = readLines(checkpointFile);
+      if (!checkpoint.isEmpty()) {
+        String[] parts = checkpoint.get(0).split("\t");
+        applied = Long.parseLong(parts[0]);
+        attempted = Long.parseLong(parts[1]);
+      }
+    } catch (IOException | RuntimeException e) {
+      // without the checkpoint any record may have been applied, so all of them are checked
+      applied = 0;
+      attempted = Long.MAX_VALUE;
+    }
+    lastSequence = applied;
+    try {
+      for (String line : readLines(journalFile)) {
+        lastSequence = Math.max(lastSequence, parseSequence(line.substring(0, Math.max(0, line.indexOf('\t')))));
+      }
+      for (String line : readLines(mediaNamesFile)) {
+        int tab = line.indexOf('\t');
+        if (tab > 0) {
+          mediaNames.put(parseSequence(line.substring(0, tab)), unescape(line.substring(tab + 1)));
+        }
+      }
+    } catch (IOException e) {
+      // the records that could be read are still replayed
+    }
+  }
+
+  private static long parseSequence(String sequence) {
+    try {
+      return Long.parseLong(sequence);
+    } catch (NumberFormatException e) {
+      // not written by this class, skipped like an applied record
+      return 0;
+    }
+  }
+
+  private void saveCheckpoint() throws IOException {
+    File copy = new File(checkpointFile.getPath() + ".tmp");
+    write(copy, applied + "\t" + attempted + "\n", false);
+    if (!copy.renameTo(checkpointFile)) {
+      throw new IOException("Could not save the checkpoint");
+    }
+  }
+
+  /**
+   * Read the complete lines of a file. A last line without a line break was cut off while being
+   * written, it is removed from the file so the next line does not end up on it
+   */
+  private static List<String> readLines(File file) throws IOException {
+    List<String> lines = new ArrayList<>();
+    if (!file.exists()) {
+      return lines;
+    }
+    byte[] bytes;
+    try (InputStream input = new FileInputStream(file)) {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        content.write(buffer, 0, read);
+      }
+      bytes = content.toByteArray();
+    }
+    int start = 0;
+    for (int index = 0; index < bytes.length; index++) {
+      if (bytes[index] == '\n') {
+        if (index > start) {
+          lines.add(new String(bytes, start, index - start, UTF_8));
+        }
+        start = index + 1;
+      }
+    }
+    if (start < bytes.length) {
+      try (RandomAccessFile truncate = new RandomAccessFile(file, "rw")) {
+        truncate.setLength(start);
+      }
+    }
+    return lines;
+  }
+
+  private static void write(File file, String lines, boolean append) throws IOException {
+    try (FileOutputStream output = new FileOutputStream(file, append)) {
+      output.write(lines.getBytes(UTF_8));
+      output.getFD().sync();
+    }
+  }
+
+  private static String escape(String value) {
+    if (value == null) {
+      return "\\0";
+    }
+    StringBuilder escaped = new StringBuilder(value.length());
+    for (int index = 0; index < value.length(); index++) {
+      char c = value.charAt(index);
+      switch (c) {
+        case '\\':
+          escaped.append("\\\\");
+          break;
+        case '\t':
+          escaped.append("\\t");
+          break;
+        case '\n':
+          escaped.append("\\n");
+          break;
+        case '\r':
+          escaped.append("\\r");
+          break;
+        default:
+          escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  private static String unescape(String value) {
+    if (value.equals("\\0")) {
+      return null;
+    }
+    StringBuilder unescaped = new StringBuilder(value.length());
+    for (int index = 0; index < value.length(); index++) {
+      char c = value.charAt(index);
+      if (c != '\\' || index + 1 == value.length()) {
+        unescaped.append(c);
+        continue;
+      }
+      char escaped = value.charAt(++index);
+      unescaped.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+    }
+    return unescaped.toString();
+  }
+}
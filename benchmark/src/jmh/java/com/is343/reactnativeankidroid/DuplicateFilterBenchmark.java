@@ -0,0 +1,56 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Removing the duplicates of one chunk as done by addNotes with skipDuplicates and by the file
+ * import. Half of the rows already exist and a tenth repeat within the chunk, each distinct first
+ * field is looked up once
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DuplicateFilterBenchmark {
+  @Param({ "250", "1000" })
+  int chunkSize;
+
+  @Param({ "1000", "100000" })
+  int notes;
+
+  private FakeAnkiApi api;
+  private DuplicateFilter filter;
+  private long modelId;
+  private List<String[]> rows;
+
+  @Setup
+  public void setUp() {
+    api = new FakeAnkiApi(1, 1, notes, null);
+    modelId = api.getModelList().keySet().iterator().next();
+    filter = new DuplicateFilter(api.duplicateFinder());
+    rows = new ArrayList<>(chunkSize);
+    for (int row = 0; row < chunkSize; row++) {
+      int word = row % 10 == 9 ? row - 1 : row;
+      rows.add(new String[] { FakeAnkiApi.word(notes - chunkSize / 2 + word), "value" });
+    }
+  }
+
+  @Benchmark
+  public List<Integer> removeDuplicates() {
+    List<String[]> chunkRows = new ArrayList<>(rows);
+    List<Set<String>> chunkTags = new ArrayList<>(Collections.nCopies(rows.size(), Collections.<String>emptySet()));
+    return filter.remove(modelId, chunkRows, chunkTags);
+  }
+}
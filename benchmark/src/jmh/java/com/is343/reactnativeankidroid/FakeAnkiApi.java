@@ -0,0 +1,143 @@
+package com.is343.reactnativeankidroid;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * In-memory stand in for AddContentApi, seeded with a fixed number of decks, models and notes. The
+ * list methods return a new map on every call like the ContentProvider does, so the cost of a full
+ * list load is part of the numbers
+ */
+class FakeAnkiApi {
+  static final String[] FIELDS = { "Word", "Translation", "Meaning", "Grammar", "Idiom", "IdiomTranslation",
+      "IdiomMeaning" };
+
+  private final Map<Long, String> decks = new HashMap<>();
+  private final Map<Long, String> models = new HashMap<>();
+  private final Map<Long, Set<String>> firstFields = new HashMap<>();
+  private final File mediaDir;
+  private long nextId = 1;
+
+  /**
+   * @param deckCount
+   * @param modelCount
+   * @param noteCount notes spread over the models
+   * @param mediaDir where media is copied to, null if not used
+   */
+  FakeAnkiApi(int deckCount, int modelCount, int noteCount, File mediaDir) {
+    this.mediaDir = mediaDir;
+    for (int index = 0; index < deckCount; index++) {
+      decks.put(nextId++, deckName(index));
+    }
+    for (int index = 0; index < modelCount; index++) {
+      long modelId = nextId++;
+      models.put(modelId, modelName(index));
+      firstFields.put(modelId, new HashSet<String>());
+    }
+    List<Long> modelIds = new ArrayList<>(models.keySet());
+    Random random = new Random(42);
+    for (int index = 0; index < noteCount; index++) {
+      firstFields.get(modelIds.get(random.nextInt(modelIds.size()))).add(word(index));
+    }
+  }
+
+  static String deckName(int index) {
+    return "Lessons::Lesson " + index;
+  }
+
+  static String modelName(int index) {
+    return "Model " + index;
+  }
+
+  static String word(int index) {
+    return "word" + index;
+  }
+
+  Map<Long, String> getDeckList() {
+    return new HashMap<>(decks);
+  }
+
+  Map<Long, String> getModelList() {
+    return new HashMap<>(models);
+  }
+
+  String getModelName(long modelId) {
+    return models.get(modelId);
+  }
+
+  String[] getFieldList(long modelId) {
+    return models.containsKey(modelId) ? FIELDS.clone() : null;
+  }
+
+  synchronized Long addNote(long modelId, long deckId, String[] fields, Set<String> tags) {
+    Set<String> notes = firstFields.get(modelId);
+    if (notes == null || !decks.containsKey(deckId)) {
+      return null;
+    }
+    notes.add(fields[0]);
+    return nextId++;
+  }
+
+  synchronized int addNotes(long modelId, long deckId, List<String[]> fields, List<Set<String>> tags) {
+    int added = 0;
+    for (String[] note : fields) {
+      if (addNote(modelId, deckId, note, null) != null) {
+        added++;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * @return the indices of the keys that already exist, like the keys of the SparseArray returned
+   *         by AddContentApi#findDuplicateNotes
+   */
+  synchronized List<Integer> findDuplicateNotes(long modelId, List<String> keys) {
+    List<Integer> duplicates = new ArrayList<>();
+    Set<String> notes = firstFields.get(modelId);
+    for (int index = 0; notes != null && index < keys.size(); index++) {
+      if (notes.contains(keys.get(index))) {
+        duplicates.add(index);
+      }
+    }
+    return duplicates;
+  }
+
+  /**
+   * @return #findDuplicateNotes for DuplicateFilter
+   */
+  DuplicateFilter.Finder duplicateFinder() {
+    return new DuplicateFilter.Finder() {
+      @Override
+      public int[] find(long modelId, List<String> keys) {
+        List<Integer> duplicates = findDuplicateNotes(modelId, keys);
+        int[] indices = new int[duplicates.size()];
+        for (int index = 0; index < indices.length; index++) {
+          indices[index] = duplicates.get(index);
+        }
+        return indices;
+      }
+    };
+  }
+
+  /**
+   * Copies the file into the media folder like AnkiDroid does
+   */
+  String addMediaFromFile(File file, String preferredName, String mimeType) throws IOException {
+    String name;
+    synchronized (this) {
+      name = preferredName + "_" + (nextId++) + ".bin";
+    }
+    Files.copy(file.toPath(), new File(mediaDir, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return "audio".equals(mimeType) ? "[sound:" + name + "]" : "<img src=\"" + name + "\" />";
+  }
+}
@@ -0,0 +1,146 @@
+package com.is343.reactnativeankidroid;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A file import as done by importNotesFromFile: the file is streamed with NoteFileReader and the
+ * notes are added in batches, optionally leaving out the ones whose first field already exists.
+ * Half of the rows are duplicates of the seeded notes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImportBenchmark {
+  @Param({ "1000", "10000", "100000" })
+  int rows;
+
+  @Param({ "250" })
+  int batchSize;
+
+  @Param({ "tsv", "csv", "jsonl" })
+  String format;
+
+  @Param({ "true" })
+  boolean skipDuplicates;
+
+  private File file;
+  private FakeAnkiApi api;
+  private long modelId;
+  private long deckId;
+  private DuplicateFilter duplicateFilter;
+
+  @Setup
+  public void writeFile() throws IOException {
+    file = File.createTempFile("import", "." + format);
+    NoteFileReader.Format fileFormat = NoteFileReader.Format.from(format, file);
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+        Charset.forName("UTF-8")))) {
+      for (int row = 0; row < rows; row++) {
+        String[] values = new String[FakeAnkiApi.FIELDS.length];
+        values[0] = FakeAnkiApi.word(row + rows / 2);
+        for (int index = 1; index < values.length; index++) {
+          values[index] = "value, \"" + index + "\"";
+        }
+        writer.write(format(fileFormat, values));
+        writer.write('\n');
+      }
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void seed() {
+    // the seeded notes overlap the first half of the file
+    api = new FakeAnkiApi(1, 1, rows, null);
+    deckId = api.getDeckList().keySet().iterator().next();
+    modelId = api.getModelList().keySet().iterator().next();
+    duplicateFilter = new DuplicateFilter(api.duplicateFinder());
+  }
+
+  @TearDown
+  public void deleteFile() {
+    file.delete();
+  }
+
+  @Benchmark
+  public int importFile() throws IOException {
+    int added = 0;
+    int columns = FakeAnkiApi.FIELDS.length;
+    Object[] columnKeys = new Object[columns];
+    for (int index = 0; index < columns; index++) {
+      columnKeys[index] = format.equals("jsonl") ? FakeAnkiApi.FIELDS[index] : index;
+    }
+    Set<String> tags = Collections.singleton("import");
+    try (NoteFileReader reader = new NoteFileReader(file, NoteFileReader.Format.from(format, file), columnKeys,
+        false)) {
+      List<String[]> batchFields = new ArrayList<>(batchSize);
+      List<Set<String>> batchTags = new ArrayList<>(batchSize);
+      NoteFileReader.Row row;
+      while ((row = reader.next()) != null) {
+        if (row.values != null) {
+          batchFields.add(Arrays.copyOf(row.values, columns));
+          batchTags.add(tags);
+        }
+        if (batchFields.size() == batchSize) {
+          added += addBatch(batchFields, batchTags);
+        }
+      }
+      added += addBatch(batchFields, batchTags);
+    }
+    return added;
+  }
+
+  private int addBatch(List<String[]> batchFields, List<Set<String>> batchTags) {
+    if (skipDuplicates && !batchFields.isEmpty()) {
+      duplicateFilter.remove(modelId, batchFields, batchTags);
+    }
+    int added = batchFields.isEmpty() ? 0 : api.addNotes(modelId, deckId, batchFields, batchTags);
+    batchFields.clear();
+    batchTags.clear();
+    return added;
+  }
+
+  private static String format(NoteFileReader.Format format, String[] values) {
+    StringBuilder line = new StringBuilder();
+    for (int index = 0; index < values.length; index++) {
+      switch (format) {
+        case TSV:
+          line.append(index == 0 ? "" : "\t").append(values[index]);
+          break;
+        case CSV:
+          line.append(index == 0 ? "\"" : ",\"").append(values[index].replace("\"", "\"\"")).append('"');
+          break;
+        default:
+          line.append(index == 0 ? "{\"" : ",\"").append(FakeAnkiApi.FIELDS[index]).append("\":\"")
+              .append(values[index].replace("\"", "\\\"")).append('"');
+          break;
+      }
+    }
+    if (format == NoteFileReader.Format.JSONL) {
+      line.append('}');
+    }
+    return line.toString();
+  }
+}
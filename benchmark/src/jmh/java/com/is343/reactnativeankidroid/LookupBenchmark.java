@@ -0,0 +1,133 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Deck and model lookups and the resolution done by addNote before the insert, wired the same way
+ * as in AnkiDroidModule. deckListScan is the full list scan that was done before NameIndex
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LookupBenchmark {
+  @Param({ "1000", "10000", "100000" })
+  int decks;
+
+  @Param({ "100" })
+  int models;
+
+  @Param({ "10000" })
+  int notes;
+
+  private FakeAnkiApi api;
+  private NameIndex deckIndex;
+  private NameIndex modelIndex;
+  private ModelCache modelCache;
+  private String[] deckNames;
+  private String[] modelNames;
+  private String[] values;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    api = new FakeAnkiApi(decks, models, notes, null);
+    deckIndex = new NameIndex(new NameIndex.Loader() {
+      @Override
+      public Map<Long, String> load() {
+        return api.getDeckList();
+      }
+    }, true);
+    modelIndex = new NameIndex(new NameIndex.Loader() {
+      @Override
+      public Map<Long, String> load() {
+        return api.getModelList();
+      }
+    }, false);
+    modelCache = new ModelCache(new ModelCache.Loader() {
+      @Override
+      public ModelCache.Model load(long modelId) {
+        String name = api.getModelName(modelId);
+        String[] fields = name == null ? null : api.getFieldList(modelId);
+        return fields == null ? null : new ModelCache.Model(modelId, name, fields);
+      }
+    });
+    // look up names in a different order than they were created
+    deckNames = new String[1024];
+    modelNames = new String[1024];
+    for (int index = 0; index < deckNames.length; index++) {
+      deckNames[index] = FakeAnkiApi.deckName((int) ((index * 7919L) % decks));
+      modelNames[index] = FakeAnkiApi.modelName((int) ((index * 7919L) % models));
+    }
+    values = new String[FakeAnkiApi.FIELDS.length];
+    for (int index = 0; index < values.length; index++) {
+      values[index] = "value " + index;
+    }
+  }
+
+  private int nextIndex() {
+    next = (next + 1) & 1023;
+    return next;
+  }
+
+  @Benchmark
+  public Long deckListScan() {
+    String name = deckNames[nextIndex()];
+    for (Map.Entry<Long, String> entry : api.getDeckList().entrySet()) {
+      if (entry.getValue().equalsIgnoreCase(name)) {
+        return entry.getKey();
+      }
+    }
+    return null;
+  }
+
+  @Benchmark
+  public Long findDeck() {
+    return deckIndex.find(deckNames[nextIndex()]);
+  }
+
+  @Benchmark
+  public Long findMissingDeck() {
+    // a miss reloads the list once, as a deck may have been created in AnkiDroid
+    return deckIndex.find("Missing deck");
+  }
+
+  @Benchmark
+  public Long findModel() {
+    for (Long modelId : modelIndex.findAll(modelNames[nextIndex()])) {
+      ModelCache.Model model = modelCache.get(modelId);
+      if (model != null && model.fieldCount() >= values.length) {
+        return modelId;
+      }
+    }
+    return null;
+  }
+
+  @Benchmark
+  public Long addNoteResolution() {
+    int index = nextIndex();
+    Long deckId = deckIndex.find(deckNames[index]);
+    Long modelId = null;
+    for (Long candidate : modelIndex.findAll(modelNames[index])) {
+      ModelCache.Model model = modelCache.get(candidate);
+      if (model != null && model.fieldCount() >= values.length) {
+        modelId = candidate;
+        break;
+      }
+    }
+    if (deckId == null || modelId == null) {
+      return null;
+    }
+    return api.addNote(modelId, deckId, values, Collections.<String>emptySet());
+  }
+}
@@ -0,0 +1,123 @@
+package com.is343.reactnativeankidroid;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Uploading a set of media files where part of the content repeats: copying every file as before
+ * MediaCache, the first upload with the cache (hash cost on top of the copies), and uploading the
+ * same files again once they are cached
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MediaBenchmark {
+  @Param({ "100" })
+  int files;
+
+  @Param({ "64", "1024" })
+  int fileKb;
+
+  /** number of distinct contents among the files */
+  @Param({ "10" })
+  int distinct;
+
+  private File dir;
+  private File[] media;
+  private FakeAnkiApi api;
+  private MediaCache warmCache;
+  private MediaCache coldCache;
+
+  @Setup
+  public void setUp() throws IOException {
+    dir = File.createTempFile("media", "");
+    dir.delete();
+    new File(dir, "source").mkdirs();
+    new File(dir, "collection").mkdirs();
+    api = new FakeAnkiApi(1, 1, 0, new File(dir, "collection"));
+    Random random = new Random(42);
+    media = new File[files];
+    for (int index = 0; index < files; index++) {
+      byte[] content = new byte[fileKb * 1024];
+      random.setSeed(index % distinct);
+      random.nextBytes(content);
+      media[index] = new File(new File(dir, "source"), "file" + index);
+      try (OutputStream output = new FileOutputStream(media[index])) {
+        output.write(content);
+      }
+    }
+    warmCache = new MediaCache(new File(dir, "warm.tsv"), 10000);
+    upload(warmCache);
+  }
+
+  @Setup(Level.Invocation)
+  public void clearColdCache() {
+    coldCache = new MediaCache(new File(dir, "cold.tsv"), 10000);
+    coldCache.clear();
+  }
+
+  @TearDown
+  public void tearDown() {
+    delete(dir);
+  }
+
+  @Benchmark
+  public int copyEveryFile() throws IOException {
+    int copied = 0;
+    for (File file : media) {
+      api.addMediaFromFile(file, "file", "image");
+      copied++;
+    }
+    return copied;
+  }
+
+  @Benchmark
+  public int firstUploadWithCache() throws IOException {
+    return upload(coldCache);
+  }
+
+  @Benchmark
+  public int reuploadWithCache() throws IOException {
+    return upload(warmCache);
+  }
+
+  /**
+   * @return the number of files that were copied
+   */
+  private int upload(MediaCache cache) throws IOException {
+    int copied = 0;
+    for (File file : media) {
+      String key = MediaCache.key(MediaCache.hash(file), "image");
+      if (cache.get(key) == null) {
+        cache.put(key, api.addMediaFromFile(file, "file", "image"));
+        copied++;
+      }
+    }
+    return copied;
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,41 @@
+package com.is343.reactnativeankidroid;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of timing a stage, with the metrics switched off and on
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+  @Param({ "false", "true" })
+  boolean enabled;
+
+  private final Metrics metrics = new Metrics();
+
+  @Setup
+  public void setUp() {
+    metrics.setEnabled(enabled);
+  }
+
+  @Benchmark
+  public void recordStage() {
+    long start = metrics.start();
+    metrics.record("stage.insert", start);
+  }
+
+  @Benchmark
+  public void incrementCounter() {
+    metrics.increment("notes.added", 1);
+  }
+}
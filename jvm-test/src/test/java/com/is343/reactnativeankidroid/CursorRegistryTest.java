@@ -0,0 +1,112 @@
+package com.is343.reactnativeankidroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.Closeable;
+
+import org.junit.Test;
+
+public class CursorRegistryTest {
+  /**
+   * Remembers whether it was closed
+   */
+  private static class FakeCursor implements Closeable {
+    int closed;
+
+    @Override
+    public void close() {
+      closed++;
+    }
+  }
+
+  @Test
+  public void takenCursorIsRemovedAndNotClosed() {
+    CursorRegistry<FakeCursor> registry = new CursorRegistry<>(4, 60000);
+    FakeCursor cursor = new FakeCursor();
+    String id = registry.newId();
+    registry.put(id, cursor);
+
+    assertSame(cursor, registry.take(id));
+    assertNull(registry.take(id));
+    assertEquals(0, cursor.closed);
+  }
+
+  @Test
+  public void leastRecentlyUsedCursorsAreClosedWhenThereAreTooMany() {
+    CursorRegistry<FakeCursor> registry = new CursorRegistry<>(2, 60000);
+    FakeCursor first = new FakeCursor();
+    FakeCursor second = new FakeCursor();
+    FakeCursor third = new FakeCursor();
+    registry.put("a", first);
+    registry.put("b", second);
+    // reading a page and putting it back makes it the most recently used
+    registry.put("a", registry.take("a"));
+    registry.put("c", third);
+
+    assertEquals(0, first.closed);
+    assertEquals(1, second.closed);
+    assertEquals(0, third.closed);
+    assertNull(registry.take("b"));
+    assertSame(first, registry.take("a"));
+    assertSame(third, registry.take("c"));
+  }
+
+  @Test
+  public void replacedCursorIsClosed() {
+    CursorRegistry<FakeCursor> registry = new CursorRegistry<>(4, 60000);
+    FakeCursor previous = new FakeCursor();
+    FakeCursor next = new FakeCursor();
+    registry.put("a", previous);
+    registry.put("a", previous);
+    assertEquals(0, previous.closed);
+
+    registry.put("a", next);
+    assertEquals(1, previous.closed);
+    assertSame(next, registry.take("a"));
+    assertEquals(0, next.closed);
+  }
+
+  @Test
+  public void idleCursorsAreClosedOnTheNextCall() throws InterruptedException {
+    CursorRegistry<FakeCursor> registry = new CursorRegistry<>(4, 0);
+    FakeCursor idle = new FakeCursor();
+    registry.put("a", idle);
+    Thread.sleep(5);
+
+    assertNull(registry.take("b"));
+    assertEquals(1, idle.closed);
+    assertNull(registry.take("a"));
+  }
+
+  @Test
+  public void closeAndCloseAllCloseEveryCursorOnce() {
+    CursorRegistry<FakeCursor> registry = new CursorRegistry<>(4, 60000);
+    FakeCursor first = new FakeCursor();
+    FakeCursor second = new FakeCursor();
+    FakeCursor third = new FakeCursor();
+    registry.put("a", first);
+    registry.put("b", second);
+    registry.put("c", third);
+
+    registry.close("a");
+    registry.close("a");
+    assertEquals(1, first.closed);
+    assertEquals(0, second.closed);
+
+    registry.closeAll();
+    assertEquals(1, first.closed);
+    assertEquals(1, second.closed);
+    assertEquals(1, third.closed);
+    assertNull(registry.take("b"));
+    assertNull(registry.take("c"));
+  }
+
+  @Test
+  public void newIdsAreDistinct() {
+    CursorRegistry<FakeCursor> registry = new CursorRegistry<>(4, 60000);
+    assertNotEquals(registry.newId(), registry.newId());
+  }
+}
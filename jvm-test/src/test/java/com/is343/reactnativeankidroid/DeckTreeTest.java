@@ -0,0 +1,182 @@
+package com.is343.reactnativeankidroid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DeckTreeTest {
+  /**
+   * The decks in AnkiDroid, which creates the missing parents of a new deck like AnkiDroid does
+   */
+  private static class FakeDecks implements NameIndex.Loader, DeckTree.Creator {
+    final Map<Long, String> decks = new LinkedHashMap<>();
+    final List<String> created = new ArrayList<>();
+    long nextId = 100;
+    int loads;
+    boolean failing;
+
+    FakeDecks(String... names) {
+      for (String name : names) {
+        decks.put(nextId++, name);
+      }
+    }
+
+    @Override
+    public Map<Long, String> load() {
+      loads++;
+      return failing ? null : new LinkedHashMap<>(decks);
+    }
+
+    @Override
+    public Long create(String name) {
+      created.add(name);
+      String[] parts = name.split(DeckTree.SEPARATOR);
+      StringBuilder path = new StringBuilder();
+      Long id = null;
+      for (int index = 0; index < parts.length; index++) {
+        path.append(index == 0 ? "" : DeckTree.SEPARATOR).append(parts[index]);
+        id = find(path.toString());
+        if (id == null) {
+          id = nextId++;
+          decks.put(id, path.toString());
+        }
+      }
+      return id;
+    }
+
+    Long find(String name) {
+      for (Map.Entry<Long, String> deck : decks.entrySet()) {
+        if (deck.getValue().equalsIgnoreCase(name)) {
+          return deck.getKey();
+        }
+      }
+      return null;
+    }
+  }
+
+  @Test
+  public void subtreeIgnoresCaseAndListsParentsFirst() {
+    FakeDecks decks = new FakeDecks("Course", "Course::Unit 1", "Course::Unit 1::Week", "Other", "course::unit 2");
+    DeckTree tree = new DeckTree(decks);
+
+    List<DeckTree.Deck> found = tree.subtree("COURSE", false, -1);
+    assertEquals(Arrays.asList("Course", "Course::Unit 1", "Course::Unit 1::Week", "course::unit 2"),
+        names(found));
+    assertArrayEquals(new int[] { 0, 1, 2, 1 }, depths(found));
+    assertEquals(Arrays.asList("Course::Unit 1", "Course::Unit 1::Week"),
+        names(tree.subtree("course::UNIT 1", false, -1)));
+    assertTrue(tree.subtree("Course::Unit", false, -1).isEmpty());
+    assertTrue(tree.subtree("Missing::Unit 1", false, -1).isEmpty());
+    assertEquals(1, decks.loads);
+  }
+
+  @Test
+  public void prefixMatchesTheLastNamePartIgnoringCase() {
+    DeckTree tree = new DeckTree(new FakeDecks("Course::Unit 1", "course::unit 2", "Course::Units", "Course::Test",
+        "Course::Unit 1::Week", "Unit 3"));
+
+    assertEquals(Arrays.asList("Course::Unit 1", "Course::Unit 1::Week", "course::unit 2", "Course::Units"),
+        names(tree.subtree("Course::Unit", true, -1)));
+    assertEquals(Arrays.asList("Course::Unit 1", "course::unit 2", "Course::Units"),
+        names(tree.subtree("course::UNIT", true, 0)));
+    assertEquals(Arrays.asList("Unit 3"), names(tree.subtree("unit", true, -1)));
+  }
+
+  @Test
+  public void maxDepthLimitsTheLevelsBelowTheMatch() {
+    DeckTree tree = new DeckTree(new FakeDecks("A", "A::B", "A::B::C", "A::B::C::D"));
+
+    assertEquals(Arrays.asList("A"), names(tree.subtree("A", false, 0)));
+    assertEquals(Arrays.asList("A", "A::B"), names(tree.subtree("A", false, 1)));
+    assertEquals(Arrays.asList("A::B", "A::B::C"), names(tree.subtree("A::B", false, 1)));
+  }
+
+  @Test
+  public void noNameListsAllDecksSortedByFoldedName() {
+    DeckTree tree = new DeckTree(new FakeDecks("b", "A::x", "A", "Default"));
+
+    List<DeckTree.Deck> all = tree.subtree(null, false, -1);
+    assertEquals(Arrays.asList("A", "A::x", "b", "Default"), names(all));
+    assertArrayEquals(new int[] { 0, 1, 0, 0 }, depths(all));
+    assertEquals(Arrays.asList("A", "b", "Default"), names(tree.subtree("", false, 0)));
+  }
+
+  @Test
+  public void parentOnlyKnownByItsChildIsNotListed() {
+    DeckTree tree = new DeckTree(new FakeDecks("Parent::Child"));
+
+    assertEquals(Arrays.asList("Parent::Child"), names(tree.subtree("parent", false, -1)));
+  }
+
+  @Test
+  public void resolveCreatesParentsFirstAndOnlyTheMissingDecks() {
+    FakeDecks decks = new FakeDecks("Course");
+    DeckTree tree = new DeckTree(decks);
+    List<String> names = Arrays.asList("course::Unit 1::Week 1", "Course::Unit 1", "COURSE", null, "New");
+
+    DeckTree.Resolved resolved = tree.resolve(names, decks);
+    assertEquals(Arrays.asList("New", "Course::Unit 1", "course::Unit 1::Week 1"), decks.created);
+    assertEquals(3, resolved.created);
+    assertEquals(decks.find("Course::Unit 1::Week 1"), resolved.ids[0]);
+    assertEquals(decks.find("Course::Unit 1"), resolved.ids[1]);
+    assertEquals(Long.valueOf(100), resolved.ids[2]);
+    assertNull(resolved.ids[3]);
+    assertEquals(decks.find("New"), resolved.ids[4]);
+    // every parent was known, so the list is not loaded again
+    assertEquals(1, decks.loads);
+
+    resolved = tree.resolve(names, decks);
+    assertEquals(0, resolved.created);
+    assertEquals(3, decks.created.size());
+  }
+
+  @Test
+  public void resolveLoadsTheListAgainForParentsAnkiDroidCreated() {
+    FakeDecks decks = new FakeDecks();
+    DeckTree tree = new DeckTree(decks);
+
+    DeckTree.Resolved resolved = tree.resolve(Arrays.asList("A::B::C"), decks);
+    assertEquals(1, resolved.created);
+    assertEquals(2, decks.loads);
+    List<DeckTree.Deck> found = tree.subtree("a", false, -1);
+    assertEquals(Arrays.asList("A", "A::B", "A::B::C"), names(found));
+    assertEquals(decks.find("A"), Long.valueOf(found.get(0).id));
+  }
+
+  @Test
+  public void nothingIsFoundWhileTheListCanNotBeLoaded() {
+    FakeDecks decks = new FakeDecks("A");
+    decks.failing = true;
+    DeckTree tree = new DeckTree(decks);
+
+    assertTrue(tree.subtree("A", false, -1).isEmpty());
+    assertTrue(tree.subtree(null, false, -1).isEmpty());
+    decks.failing = false;
+    assertEquals(Arrays.asList("A"), names(tree.subtree(null, false, -1)));
+  }
+
+  private static List<String> names(List<DeckTree.Deck> decks) {
+    List<String> names = new ArrayList<>();
+    for (DeckTree.Deck deck : decks) {
+      names.add(deck.name);
+    }
+    return names;
+  }
+
+  private static int[] depths(List<DeckTree.Deck> decks) {
+    int[] depths = new int[decks.size()];
+    for (int index = 0; index < depths.length; index++) {
+      depths[index] = decks.get(index).depth;
+    }
+    return depths;
+  }
+}
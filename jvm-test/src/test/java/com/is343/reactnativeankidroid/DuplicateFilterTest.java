@@ -0,0 +1,115 @@
+package com.is343.reactnativeankidroid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class DuplicateFilterTest {
+  /**
+   * Finds the keys in a set and remembers each query
+   */
+  private static class SetFinder implements DuplicateFilter.Finder {
+    final Set<String> existing;
+    final List<List<String>> queries = new ArrayList<>();
+    boolean failing;
+
+    SetFinder(String... existing) {
+      this.existing = new HashSet<>(Arrays.asList(existing));
+    }
+
+    @Override
+    public int[] find(long modelId, List<String> keys) {
+      queries.add(new ArrayList<>(keys));
+      if (failing) {
+        return null;
+      }
+      List<Integer> found = new ArrayList<>();
+      for (int index = 0; index < keys.size(); index++) {
+        if (existing.contains(keys.get(index))) {
+          found.add(index);
+        }
+      }
+      int[] indices = new int[found.size()];
+      for (int index = 0; index < indices.length; index++) {
+        indices[index] = found.get(index);
+      }
+      return indices;
+    }
+  }
+
+  @Test
+  public void findsExistingAndRepeatedFirstFieldsWithOneQuery() {
+    SetFinder finder = new SetFinder("old");
+    boolean[] duplicates = new DuplicateFilter(finder).find(1, rows("new", "old", "new", "other"));
+    assertArrayEquals(new boolean[] { false, true, true, false }, duplicates);
+    assertEquals(1, finder.queries.size());
+    assertEquals(Arrays.asList("new", "old", "other"), finder.queries.get(0));
+  }
+
+  @Test
+  public void rowsWithoutFirstFieldAreNeverDuplicates() {
+    List<String[]> rows = new ArrayList<>();
+    rows.add(null);
+    rows.add(new String[0]);
+    rows.add(new String[] { null, "back" });
+    SetFinder finder = new SetFinder();
+    assertArrayEquals(new boolean[3], new DuplicateFilter(finder).find(1, rows));
+    assertTrue(finder.queries.isEmpty());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void apiErrorIsThrownInsteadOfReportingNoDuplicates() {
+    SetFinder finder = new SetFinder("a");
+    finder.failing = true;
+    new DuplicateFilter(finder).find(1, rows("a", "b"));
+  }
+
+  @Test
+  public void apiErrorLeavesTheRowsOfRemoveInPlace() {
+    SetFinder finder = new SetFinder("a");
+    finder.failing = true;
+    List<String[]> rows = rows("a", "a", "b");
+    List<String> tags = new ArrayList<>(Arrays.asList("t1", "t2", "t3"));
+    try {
+      new DuplicateFilter(finder).remove(1, rows, tags);
+      fail("the failed lookup must be reported");
+    } catch (IllegalStateException e) {
+      assertEquals(3, rows.size());
+      assertEquals(3, tags.size());
+    }
+  }
+
+  @Test
+  public void removeCompactsRowsAndTagsInPlace() {
+    List<String[]> rows = rows("a", "b", "a", "c");
+    List<String> tags = new ArrayList<>(Arrays.asList("ta", "tb", "ta2", "tc"));
+    List<Integer> removed = new DuplicateFilter(new SetFinder("b")).remove(1, rows, tags);
+    assertEquals(Arrays.asList(1, 2), removed);
+    assertEquals(2, rows.size());
+    assertEquals("a", rows.get(0)[0]);
+    assertEquals("c", rows.get(1)[0]);
+    assertEquals(Arrays.asList("ta", "tc"), tags);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void removeNeedsOneTagEntryPerRow() {
+    new DuplicateFilter(new SetFinder()).remove(1, rows("a", "b"), new ArrayList<String>());
+  }
+
+  private static List<String[]> rows(String... firstFields) {
+    List<String[]> rows = new ArrayList<>();
+    for (String firstField : firstFields) {
+      rows.add(new String[] { firstField, "back" });
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,22 @@
+package com.is343.reactnativeankidroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class FieldChecksumTest {
+  private final FieldChecksum fieldChecksum = new FieldChecksum();
+
+  @Test
+  public void checksumMatchesAnkiDroid() {
+    // first 32 bits of the SHA-1 of "Hello"
+    assertEquals(0xf7ff9e8bL, fieldChecksum.checksum("Hello"));
+    assertEquals(fieldChecksum.checksum("Hello"), fieldChecksum.checksum("<b>Hel&#108;o</b><style>p {}</style>"));
+    // image file names are part of the checksum
+    assertEquals(fieldChecksum.checksum(" a.jpg "), fieldChecksum.checksum("<img src=\"a.jpg\">"));
+    assertNotEquals(fieldChecksum.checksum("<img src=\"a.jpg\">"), fieldChecksum.checksum("<img src=\"b.jpg\">"));
+    // punctuation is not ignored
+    assertNotEquals(fieldChecksum.checksum("a b"), fieldChecksum.checksum("a-b"));
+  }
+}
@@ -0,0 +1,134 @@
+package com.is343.reactnativeankidroid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NoteFileReaderTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void csvQuotedFieldsKeepLineBreaksSeparatorsAndQuotes() throws IOException {
+    File file = write("notes.csv", "front,back\n\"line 1\nline 2\",\"a, \"\"quoted\"\" b\"\nplain,\"\"\n");
+    try (NoteFileReader reader = new NoteFileReader(file, NoteFileReader.Format.CSV,
+        new Object[] { "front", "back" }, true)) {
+      NoteFileReader.Row row = reader.next();
+      assertEquals(0, row.index);
+      assertArrayEquals(new String[] { "line 1\nline 2", "a, \"quoted\" b" }, row.values);
+      row = reader.next();
+      assertEquals(1, row.index);
+      assertArrayEquals(new String[] { "plain", "" }, row.values);
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void csvQuotedFieldCanSpanManyLines() throws IOException {
+    File file = write("notes.csv", "\"a\n\n\"\"b\"\"\n\",c\nd,e\n");
+    try (NoteFileReader reader = new NoteFileReader(file, NoteFileReader.Format.CSV, new Object[] { 0, 1 },
+        false)) {
+      assertArrayEquals(new String[] { "a\n\n\"b\"\n", "c" }, reader.next().values);
+      assertArrayEquals(new String[] { "d", "e" }, reader.next().values);
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void csvUnterminatedQuoteEndsAtEndOfFile() throws IOException {
+    File file = write("notes.csv", "\"open\nrest");
+    try (NoteFileReader reader = new NoteFileReader(file, NoteFileReader.Format.CSV, new Object[] { 0 }, false)) {
+      assertArrayEquals(new String[] { "open\nrest" }, reader.next().values);
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void byteOrderMarkIsSkippedAndBlankLinesAreNotRows() throws IOException {
+    File file = write("notes.tsv", "\uFEFFfront\tback\n\na\tb\n\nc\td\n");
+    try (NoteFileReader reader = new NoteFileReader(file, NoteFileReader.Format.TSV,
+        new Object[] { "back", "front" }, true)) {
+      assertArrayEquals(new String[] { "b", "a" }, reader.next().values);
+      NoteFileReader.Row row = reader.next();
+      assertEquals(1, row.index);
+      assertArrayEquals(new String[] { "d", "c" }, row.values);
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void rowMissingAColumnHasNoValues() throws IOException {
+    File file = write("notes.tsv", "a\tb\nc\n");
+    try (NoteFileReader reader = new NoteFileReader(file, NoteFileReader.Format.TSV, new Object[] { 0, 1 },
+        false)) {
+      assertArrayEquals(new String[] { "a", "b" }, reader.next().values);
+      NoteFileReader.Row row = reader.next();
+      assertEquals(1, row.index);
+      assertNull(row.values);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownHeaderColumnIsRejected() throws IOException {
+    File file = write("notes.csv", "front,back\na,b\n");
+    new NoteFileReader(file, NoteFileReader.Format.CSV, new Object[] { "missing" }, true).close();
+  }
+
+  @Test
+  public void jsonLinesSkipsRowsThatCanNotBeParsed() throws IOException {
+    File file = write("notes.jsonl", "{\"front\":\"a\",\"back\":1}\nnot json\n\n{\"front\":\"b\"}\n");
+    try (NoteFileReader reader = new NoteFileReader(file, NoteFileReader.Format.JSONL,
+        new Object[] { "front", "back" }, false)) {
+      assertArrayEquals(new String[] { "a", "1" }, reader.next().values);
+      assertNull(reader.next().values);
+      NoteFileReader.Row row = reader.next();
+      assertEquals(2, row.index);
+      assertNull(row.values);
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void missingOptionalColumnIsNull() throws IOException {
+    File file = write("notes.jsonl", "{\"front\":\"a\",\"tags\":\"x y\"}\n{\"front\":\"b\"}\n{\"tags\":\"z\"}\n");
+    try (NoteFileReader reader = new NoteFileReader(file, NoteFileReader.Format.JSONL,
+        new Object[] { "front", "tags" }, 1, false)) {
+      assertArrayEquals(new String[] { "a", "x y" }, reader.next().values);
+      assertArrayEquals(new String[] { "b", null }, reader.next().values);
+      assertNull(reader.next().values);
+      assertNull(reader.next());
+    }
+    file = write("notes.tsv", "a\tx\nb\n");
+    try (NoteFileReader reader = new NoteFileReader(file, NoteFileReader.Format.TSV, new Object[] { 0, 1 }, 1,
+        false)) {
+      assertArrayEquals(new String[] { "a", "x" }, reader.next().values);
+      assertArrayEquals(new String[] { "b", null }, reader.next().values);
+    }
+  }
+
+  @Test
+  public void formatFallsBackToTheExtension() {
+    assertEquals(NoteFileReader.Format.CSV, NoteFileReader.Format.from(null, new File("notes.CSV")));
+    assertEquals(NoteFileReader.Format.JSONL, NoteFileReader.Format.from(null, new File("notes.ndjson")));
+    assertEquals(NoteFileReader.Format.TSV, NoteFileReader.Format.from(null, new File("notes")));
+    assertEquals(NoteFileReader.Format.CSV, NoteFileReader.Format.from("csv", new File("notes.tsv")));
+  }
+
+  private File write(String name, String content) throws IOException {
+    File file = folder.newFile(name);
+    try (OutputStream output = new FileOutputStream(file)) {
+      output.write(content.getBytes(Charset.forName("UTF-8")));
+    }
+    return file;
+  }
+}
@@ -0,0 +1,193 @@
+package com.is343.reactnativeankidroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OperationJournalTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+
+  @Before
+  public void setUp() {
+    file = new File(folder.getRoot(), "operations.tsv");
+  }
+
+  @Test
+  public void recordedResultIsReturnedAfterARestart() throws Exception {
+    OperationJournal journal = new OperationJournal(file, 10);
+    assertNull(journal.begin("a"));
+    journal.end("a", 42L);
+    assertEquals(Long.valueOf(42), journal.begin("a"));
+
+    assertEquals(Long.valueOf(42), new OperationJournal(file, 10).begin("a"));
+  }
+
+  @Test
+  public void failedOperationMayRunAgain() throws Exception {
+    OperationJournal journal = new OperationJournal(file, 10);
+    assertNull(journal.begin("a"));
+    journal.end("a", null);
+    assertNull(journal.begin("a"));
+    journal.end("a", 1L);
+    // a second end for the same key does nothing
+    journal.end("a", 2L);
+    assertEquals(Long.valueOf(1), new OperationJournal(file, 10).begin("a"));
+  }
+
+  @Test
+  public void lineCutOffByACrashIsDroppedAndNotContinued() throws Exception {
+    write("a\t1\nb\t2\nc\t");
+    OperationJournal journal = new OperationJournal(file, 10);
+    assertEquals(Long.valueOf(1), journal.begin("a"));
+    assertEquals(Long.valueOf(2), journal.begin("b"));
+    assertNull(journal.begin("c"));
+    journal.end("c", 3L);
+    assertEquals("a\t1\nb\t2\nc\t3\n", read());
+
+    OperationJournal reloaded = new OperationJournal(file, 10);
+    assertEquals(Long.valueOf(3), reloaded.begin("c"));
+  }
+
+  @Test
+  public void linesNotWrittenByTheJournalAreSkipped() throws Exception {
+    write("no tab\nx\tnot a number\n\ty\nd\t4\n");
+    OperationJournal journal = new OperationJournal(file, 10);
+    assertEquals(Long.valueOf(4), journal.begin("d"));
+    assertNull(journal.begin("x"));
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreDroppedAndTheFileIsCompacted() throws Exception {
+    OperationJournal journal = new OperationJournal(file, 2);
+    for (String key : new String[] { "a", "b", "c", "d", "e" }) {
+      assertNull(journal.begin(key));
+      journal.end(key, (long) key.charAt(0));
+    }
+    // rewritten once it held more than twice the entries
+    assertEquals("d\t100\ne\t101\n", read());
+    OperationJournal reloaded = new OperationJournal(file, 2);
+    assertEquals(Long.valueOf('e'), reloaded.begin("e"));
+    assertEquals(Long.valueOf('d'), reloaded.begin("d"));
+    assertNull(reloaded.begin("a"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void keysWithLineBreaksAreRejected() throws Exception {
+    new OperationJournal(file, 10).begin("a\nb");
+  }
+
+  @Test
+  public void concurrentCallersWithTheSameKeyRunTheOperationOnce() throws Exception {
+    final OperationJournal journal = new OperationJournal(file, 100);
+    final AtomicInteger runs = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    int callers = 16;
+    ExecutorService pool = Executors.newFixedThreadPool(callers);
+    try {
+      List<Future<Long>> results = new ArrayList<>();
+      for (int caller = 0; caller < callers; caller++) {
+        results.add(pool.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws Exception {
+            start.await();
+            Long recorded = journal.begin("key");
+            if (recorded != null) {
+              return recorded;
+            }
+            runs.incrementAndGet();
+            // the others wait until the result is recorded
+            Thread.sleep(20);
+            journal.end("key", 7L);
+            return 7L;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Long> result : results) {
+        assertEquals(Long.valueOf(7), result.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    assertEquals(1, runs.get());
+    assertEquals("key\t7\n", read());
+  }
+
+  @Test
+  public void callerWaitingOnAFailedOperationRunsItAgain() throws Exception {
+    final OperationJournal journal = new OperationJournal(file, 10);
+    assertNull(journal.begin("key"));
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try {
+      Future<Long> retry = pool.submit(new Callable<Long>() {
+        @Override
+        public Long call() throws Exception {
+          return journal.begin("key");
+        }
+      });
+      Thread.sleep(50);
+      journal.end("key", null);
+      assertNull(retry.get(10, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void queuedResultIsReplacedOnceTheWriteWasApplied() throws Exception {
+    OperationJournal journal = new OperationJournal(file, 10);
+    assertNull(journal.begin("a"));
+    journal.end("a", OperationJournal.QUEUED);
+    assertEquals(Long.valueOf(OperationJournal.QUEUED), journal.begin("a"));
+    journal.update("a", 5L);
+    // only a queued result is replaced
+    journal.update("a", 6L);
+    assertEquals(Long.valueOf(5), new OperationJournal(file, 10).begin("a"));
+  }
+
+  @Test
+  public void queuedResultIsDroppedIfTheWriteFailed() throws Exception {
+    OperationJournal journal = new OperationJournal(file, 10);
+    assertNull(journal.begin("a"));
+    journal.end("a", OperationJournal.QUEUED);
+    journal.update("a", null);
+    assertNull(journal.begin("a"));
+    journal.end("a", null);
+    assertNull(new OperationJournal(file, 10).begin("a"));
+  }
+
+  private void write(String content) throws IOException {
+    try (OutputStream output = new FileOutputStream(file)) {
+      output.write(content.getBytes(UTF_8));
+    }
+  }
+
+  private String read() throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), UTF_8);
+  }
+}
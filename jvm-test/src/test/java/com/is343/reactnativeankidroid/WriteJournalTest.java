@@ -0,0 +1,187 @@
+package com.is343.reactnativeankidroid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WriteJournalTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File dir;
+
+  @Before
+  public void setUp() {
+    dir = new File(folder.getRoot(), "journal");
+  }
+
+  @Test
+  public void recordsAreReadBackInOrderWithTheirValues() throws IOException {
+    WriteJournal journal = new WriteJournal(dir);
+    assertEquals(1, journal.append(new WriteJournal.Record().add("note").add("tab\there")
+        .add(new String[] { "line\nbreak", "back\\slash", null, "\\0" }).add((String[]) null)));
+    assertEquals(2, journal.append(new WriteJournal.Record().add("media").add((String) null)));
+
+    List<WriteJournal.Entry> pending = new WriteJournal(dir).pending();
+    assertEquals(2, pending.size());
+    WriteJournal.Record record = pending.get(0).record;
+    assertEquals(1, pending.get(0).sequence);
+    assertEquals("note", record.next());
+    assertEquals("tab\there", record.next());
+    assertArrayEquals(new String[] { "line\nbreak", "back\\slash", null, "\\0" }, record.nextArray());
+    assertNull(record.nextArray());
+    assertFalse(record.hasNext());
+    record = pending.get(1).record;
+    assertEquals(2, pending.get(1).sequence);
+    assertEquals("media", record.next());
+    assertNull(record.next());
+  }
+
+  @Test
+  public void lineCutOffByACrashIsDroppedAndTheNextRecordStartsOnANewLine() throws IOException {
+    WriteJournal journal = new WriteJournal(dir);
+    journal.append(new WriteJournal.Record().add("a"));
+    journal.append(new WriteJournal.Record().add("b"));
+    try (OutputStream output = new FileOutputStream(new File(dir, "journal.tsv"), true)) {
+      output.write("3\tcut".getBytes(UTF_8));
+    }
+
+    WriteJournal reloaded = new WriteJournal(dir);
+    assertEquals(2, reloaded.pending().size());
+    assertEquals(3, reloaded.append(new WriteJournal.Record().add("c")));
+    List<WriteJournal.Entry> pending = new WriteJournal(dir).pending();
+    assertEquals(3, pending.size());
+    assertEquals("c", pending.get(2).record.next());
+    assertEquals("1\ta\n2\tb\n3\tc\n", read(new File(dir, "journal.tsv")));
+  }
+
+  @Test
+  public void replayThatStoppedInAChunkChecksOnlyTheAttemptedRecords() throws IOException {
+    WriteJournal journal = new WriteJournal(dir);
+    for (int index = 0; index < 6; index++) {
+      journal.append(new WriteJournal.Record().add("note").add(Integer.toString(index)));
+    }
+    journal.markAttempted(2);
+    journal.markApplied(2);
+    // the second chunk was sent to AnkiDroid, then the app was stopped
+    journal.markAttempted(4);
+
+    WriteJournal restarted = new WriteJournal(dir);
+    assertEquals(4, restarted.pendingCount());
+    List<WriteJournal.Entry> pending = restarted.pending();
+    assertEquals(3, pending.get(0).sequence);
+    assertTrue(restarted.mayHaveApplied(3));
+    assertTrue(restarted.mayHaveApplied(4));
+    assertFalse(restarted.mayHaveApplied(5));
+
+    restarted.markApplied(4);
+    assertFalse(restarted.mayHaveApplied(5));
+    assertEquals(2, restarted.pendingCount());
+    assertEquals(5, restarted.pending().get(0).sequence);
+  }
+
+  @Test
+  public void everyRecordMayHaveBeenAppliedWithoutACheckpoint() throws IOException {
+    WriteJournal journal = new WriteJournal(dir);
+    journal.append(new WriteJournal.Record().add("a"));
+    journal.append(new WriteJournal.Record().add("b"));
+    try (OutputStream output = new FileOutputStream(new File(dir, "checkpoint"))) {
+      output.write("garbage\n".getBytes(UTF_8));
+    }
+
+    WriteJournal restarted = new WriteJournal(dir);
+    assertEquals(2, restarted.pendingCount());
+    assertTrue(restarted.mayHaveApplied(1));
+    assertTrue(restarted.mayHaveApplied(2));
+  }
+
+  @Test
+  public void filesAreDeletedOnceEveryRecordWasAppliedAndNumberingContinues() throws IOException {
+    WriteJournal journal = new WriteJournal(dir);
+    long media = journal.append(new WriteJournal.Record().add("media"));
+    journal.append(new WriteJournal.Record().add("note"));
+    journal.putMediaName(media, "<img src=\"a.jpg\">");
+    journal.markApplied(1);
+    assertTrue(new File(dir, "journal.tsv").exists());
+    assertTrue(new File(dir, "media_names.tsv").exists());
+
+    journal.markApplied(2);
+    assertEquals(0, journal.pendingCount());
+    assertFalse(new File(dir, "journal.tsv").exists());
+    assertFalse(new File(dir, "media_names.tsv").exists());
+    String placeholder = WriteJournal.placeholder(media);
+    assertEquals(placeholder, journal.resolve(new String[] { placeholder })[0]);
+
+    WriteJournal restarted = new WriteJournal(dir);
+    assertEquals(0, restarted.pendingCount());
+    assertEquals(3, restarted.append(new WriteJournal.Record().add("next")));
+    assertFalse(restarted.mayHaveApplied(3));
+  }
+
+  @Test
+  public void placeholdersAreReplacedByTheMediaName() throws IOException {
+    WriteJournal journal = new WriteJournal(dir);
+    long first = journal.append(new WriteJournal.Record().add("media"));
+    long second = journal.append(new WriteJournal.Record().add("media"));
+    journal.append(new WriteJournal.Record().add("note"));
+    journal.putMediaName(first, "[sound:$1.mp3]");
+
+    String[] fields = { "front " + WriteJournal.placeholder(first) + " " + WriteJournal.placeholder(second), "back" };
+    String[] resolved = new WriteJournal(dir).resolve(fields);
+    assertArrayEquals(new String[] { "front [sound:$1.mp3] " + WriteJournal.placeholder(second), "back" }, resolved);
+
+    String[] plain = { "front", null };
+    assertSame(plain, journal.resolve(plain));
+  }
+
+  @Test
+  public void missingMediaIsRememberedAcrossRestarts() throws IOException {
+    WriteJournal journal = new WriteJournal(dir);
+    long missing = journal.append(new WriteJournal.Record().add("media"));
+    long added = journal.append(new WriteJournal.Record().add("media"));
+    journal.append(new WriteJournal.Record().add("note"));
+    journal.putMissingMedia(missing);
+    journal.putMediaName(added, "<img src=\"a.jpg\">");
+
+    WriteJournal restarted = new WriteJournal(dir);
+    assertTrue(restarted.hasMissingMedia(new String[] { "front " + WriteJournal.placeholder(missing), "back" }));
+    assertFalse(restarted.hasMissingMedia(new String[] { "front " + WriteJournal.placeholder(added), null }));
+    assertFalse(restarted.hasMissingMedia(new String[] { "front", "back" }));
+  }
+
+  @Test
+  public void clearDropsThePendingRecords() throws IOException {
+    WriteJournal journal = new WriteJournal(dir);
+    journal.append(new WriteJournal.Record().add("a"));
+    journal.append(new WriteJournal.Record().add("b"));
+    journal.clear();
+    assertEquals(0, journal.pendingCount());
+    assertTrue(journal.pending().isEmpty());
+
+    WriteJournal restarted = new WriteJournal(dir);
+    assertEquals(0, restarted.pendingCount());
+    assertEquals(3, restarted.append(new WriteJournal.Record().add("c")));
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), UTF_8);
+  }
+}
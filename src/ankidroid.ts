@@ -1,4 +1,6 @@
 import {
+  DeviceEventEmitter,
+  EmitterSubscription,
   NativeModules,
   Permission,
   PermissionsAndroid,
@@ -7,19 +9,50 @@ import {
   Rationale,
 } from 'react-native';
 import {
+  AddNotesResult,
+  BusyError,
+  CompactDeckTree,
+  CompactList,
+  CreateDecksResult,
+  DeckNode,
+  DeckSubtreeOptions,
   Errors,
   ErrorText,
   ID,
+  IMPORT_PROGRESS_EVENT,
+  ImportOptions,
+  ImportProgress,
+  JobStatus,
   Indentifier,
+  ListOptions,
+  MediaBatchOptions,
+  MediaBatchResult,
+  MediaFile,
+  MediaProcessingOptions,
   MEDIA_MIME_TYPE,
+  METRICS_EVENT,
+  Metrics,
+  MetricsOptions,
   MODULE_NAME,
   NewDeckProperties,
   NewModelProperties,
   Note,
+  NoteArgs,
   NoteKeys,
+  NotePage,
+  NoteQuery,
   Properties,
+  ProvisionManifest,
+  ProvisionResult,
+  QueueOptions,
+  NoteBatchingOptions,
+  OFFLINE_REPLAY_EVENT,
+  OfflineQueueOptions,
+  OfflineReplayResult,
+  QUEUED,
   Result,
   Settings,
+  UpdateNotesResult,
 } from './types';
 
 const { AnkiDroidModule } = NativeModules;
@@ -35,9 +68,14 @@ const { AnkiDroidModule } = NativeModules;
  * - deckProperties: required if `deckId` missing
  * - modelId: required if `modelProperties` missing
  * - modelProperties: required if `modelId` missing
+ * - deckHandle and modelHandle: returned by `AnkiDroid.provision`, used instead
+ * of the above so `addNote`, `addNotes` and `importNotesFromFile` only send
+ * the values
  */
 export class AnkiDroid {
   settings: Settings;
+  /** set by `configureOfflineQueue`, notes and media are queued without the permission */
+  private static offlineQueue = false;
   constructor(settings: Settings) {
     this.settings = settings;
   }
@@ -59,6 +97,104 @@ export class AnkiDroid {
     return false;
   }
 
+  /**
+   * Converts a native rejection to the returned error
+   * - a full native queue is returned as `BUSY` with the suggested `retryAfter` in ms
+   * @param error the native rejection
+   */
+  private static getNativeError(error: any): BusyError | Error {
+    if (error && error.code === Errors.BUSY) {
+      const busyError = new Error(Errors.BUSY) as BusyError;
+      const retryAfter = /(\d+) ms/.exec(String(error.message));
+      busyError.retryAfter = retryAfter ? Number(retryAfter[1]) : 0;
+      return busyError;
+    }
+    return new Error(Errors.UNKNOWN_ERROR);
+  }
+
+  /**
+   * Waits for the suggested time before retrying if the native queue was full
+   * @param error
+   */
+  private static async waitIfBusy(error: BusyError | Error): Promise<void> {
+    if (error.message !== Errors.BUSY) return;
+    const { retryAfter } = error as BusyError;
+    await new Promise(resolve => setTimeout(resolve, retryAfter));
+  }
+
+  /**
+   * Set how many native operations can run and wait at the same time
+   * - operations that change the collection (adding notes, uploading media) run
+   * on their own queue, so reads like `getDeckList` are not held up by them
+   * - once a queue is full the methods return a `BUSY` error with a `retryAfter` in ms
+   * @param options the thread and queue sizes to change
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async configureQueues(
+    options: QueueOptions,
+  ): Promise<Result<boolean>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const configured: boolean = await AnkiDroidModule.configureQueues(
+        options,
+      );
+      return [null, configured];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [new Error(Errors.UNKNOWN_ERROR)];
+    }
+  }
+
+  /**
+   * Collect single `addNote` calls for the same deck and model and add them
+   * with one AnkiDroid call
+   * - each call still returns its own note ID, looked up after the batch
+   * - returns a `NOTE_ID_UNKNOWN` error if a new note could not be matched to
+   * its call, e.g. because a sync added a note with the same first field at the
+   * same time. The note may have been added so it is not retried
+   * - other writes wait until the batched notes were added, so they keep their order
+   * - calls with an `idempotencyKey` are always added on their own
+   * @param options the batching window and size, a `windowMs` of 0 turns batching off
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async configureNoteBatching(
+    options: NoteBatchingOptions,
+  ): Promise<Result<boolean>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const configured: boolean = await AnkiDroidModule.configureNoteBatching(
+        options,
+      );
+      return [null, configured];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [new Error(Errors.UNKNOWN_ERROR)];
+    }
+  }
+
+  /**
+   * Shrink the images uploaded from now on before they are copied into
+   * AnkiDroid, on a background pool
+   * - images are scaled down to `maxDimension` and compressed again as JPEG or WebP
+   * - the original is copied if the processed image is not smaller
+   * @param options the size, format and quality, no `format` or `maxDimension` turns processing off
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async configureMediaProcessing(
+    options: MediaProcessingOptions,
+  ): Promise<Result<boolean>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const configured: boolean = await AnkiDroidModule.configureMediaProcessing(
+        options,
+      );
+      return [null, configured];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [new Error(Errors.UNKNOWN_ERROR)];
+    }
+  }
+
   /**
    * Get the AnkiDroid API permission name
    */
@@ -95,16 +231,9 @@ export class AnkiDroid {
    */
   static async checkPermission(): Promise<boolean> {
     if (!AnkiDroid.androidCheck()) return false;
-    let permissionName: Permission;
     try {
-      permissionName = await AnkiDroid.getPermissionName();
-    } catch (error) {
-      console.warn(MODULE_NAME, error.toString());
-      return false;
-    }
-    if (!permissionName) return false;
-    try {
-      const permission = await PermissionsAndroid.check(permissionName);
+      // cached natively once granted
+      const permission: boolean = await AnkiDroidModule.checkPermission();
       return permission;
     } catch (error) {
       console.warn(MODULE_NAME, ErrorText.PERMISSIONS_CHECK, error);
@@ -142,13 +271,40 @@ export class AnkiDroid {
   }
 
   /**
-   * Gets the ID and name for all decks
+   * Gets the ID and name for all decks, sorted by name
+   * @param options optional name prefix, offset and limit to get part of the list
    * @return a tuple of any errors and the result `[error, result]`
    */
-  static async getDeckList(): Promise<Result<Indentifier[]>> {
-    const [error, response] = await AnkiDroid._getDeckList();
+  static async getDeckList(
+    options: ListOptions = {},
+  ): Promise<Result<Indentifier[]>> {
+    const [error, response] = await AnkiDroid._getDeckList<Indentifier[]>(
+      options,
+      false,
+    );
     if (error) {
-      return await AnkiDroid._getDeckList();
+      await AnkiDroid.waitIfBusy(error);
+      return await AnkiDroid._getDeckList<Indentifier[]>(options, false);
+    }
+    return [error, response];
+  }
+
+  /**
+   * Same as `getDeckList`, but returns one object with parallel arrays of
+   * numeric IDs and names, which is smaller to send for many decks
+   * @param options optional name prefix, offset and limit to get part of the list
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async getCompactDeckList(
+    options: ListOptions = {},
+  ): Promise<Result<CompactList>> {
+    const [error, response] = await AnkiDroid._getDeckList<CompactList>(
+      options,
+      true,
+    );
+    if (error) {
+      await AnkiDroid.waitIfBusy(error);
+      return await AnkiDroid._getDeckList<CompactList>(options, true);
     }
     return [error, response];
   }
@@ -156,26 +312,505 @@ export class AnkiDroid {
   /**
    * Private method with the logic
    */
-  private static async _getDeckList(): Promise<Result<Indentifier[]>> {
+  private static async _getDeckList<T>(
+    options: ListOptions,
+    compact: boolean,
+  ): Promise<Result<T>> {
     if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
     const permissionStatus = await AnkiDroid.checkPermission();
     if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
     try {
-      const decks: Indentifier[] = await AnkiDroidModule.getDeckList();
+      const decks: T = await AnkiDroidModule.getDeckList({
+        ...options,
+        compact,
+      });
       return [null, decks];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+  }
+  /**
+   * Gets a deck and all decks below it, parents before their children
+   * @param deckName the full name, e.g. `'Course::Unit'`, `null` for all decks
+   * @param options optional prefix matching and depth limit
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async getDeckSubtree(
+    deckName: string | null = null,
+    options: DeckSubtreeOptions = {},
+  ): Promise<Result<DeckNode[]>> {
+    return await AnkiDroid._getDeckSubtree<DeckNode[]>(
+      deckName,
+      options,
+      false,
+    );
+  }
+
+  /**
+   * Same as `getDeckSubtree`, but returns one object with parallel arrays
+   * @param deckName the full name, e.g. `'Course::Unit'`, `null` for all decks
+   * @param options optional prefix matching and depth limit
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async getCompactDeckSubtree(
+    deckName: string | null = null,
+    options: DeckSubtreeOptions = {},
+  ): Promise<Result<CompactDeckTree>> {
+    return await AnkiDroid._getDeckSubtree<CompactDeckTree>(
+      deckName,
+      options,
+      true,
+    );
+  }
+
+  /**
+   * Private method with the logic
+   */
+  private static async _getDeckSubtree<T>(
+    deckName: string | null,
+    options: DeckSubtreeOptions,
+    compact: boolean,
+  ): Promise<Result<T>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
+    try {
+      const decks: T = await AnkiDroidModule.getDeckSubtree(deckName, {
+        ...options,
+        compact,
+      });
+      return [null, decks];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+  }
+
+  /**
+   * Gets the IDs of many decks of a hierarchy, creating only the missing ones
+   * - e.g. all `'Course::Unit::Lesson'` decks of a course in one call
+   * @param deckNames the full names
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async createDecks(
+    deckNames: string[],
+  ): Promise<Result<CreateDecksResult>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
+    if (!Array.isArray(deckNames)) return [new Error(Errors.TYPE_ERROR)];
+    try {
+      const created: CreateDecksResult = await AnkiDroidModule.createDecks(
+        deckNames,
+      );
+      return [null, created];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+  }
+
+  /**
+   * Register decks and models once and get a handle for each
+   * - all decks and models are looked up, and created if missing, in one pass
+   * - pass the handles as `deckHandle` and `modelHandle` in the settings, then
+   * `addNote`, `addNotes` and `importNotesFromFile` only send the values
+   * instead of the whole model
+   * - the manifest is kept on the device and looked up again in the background
+   * when the app starts, see `getProvisioned`
+   * @param manifest the decks and models
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async provision(
+    manifest: ProvisionManifest,
+  ): Promise<Result<ProvisionResult>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus && !AnkiDroid.offlineQueue)
+      return [new Error(Errors.PERMISSION_ERROR)];
+    try {
+      const provisioned: ProvisionResult = await AnkiDroidModule.provision(
+        manifest,
+      );
+      return [null, provisioned];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+  }
+
+  /**
+   * Gets the registered decks and models and whether they were found
+   * - e.g. to check the models after the background lookup at app start
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async getProvisioned(): Promise<Result<ProvisionResult>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const provisioned: ProvisionResult = await AnkiDroidModule.getProvisioned();
+      return [null, provisioned];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+  }
+
+  /**
+   * Gets the ID and name for all models, sorted by name
+   * @param options optional name prefix, offset and limit to get part of the list
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async getModelList(
+    options: ListOptions = {},
+  ): Promise<Result<Indentifier[]>> {
+    const [error, response] = await AnkiDroid._getModelList<Indentifier[]>(
+      options,
+      false,
+    );
+    if (error) {
+      await AnkiDroid.waitIfBusy(error);
+      return await AnkiDroid._getModelList<Indentifier[]>(options, false);
+    }
+    return [error, response];
+  }
+
+  /**
+   * Same as `getModelList`, but returns one object with parallel arrays of
+   * numeric IDs and names
+   * @param options optional name prefix, offset and limit to get part of the list
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async getCompactModelList(
+    options: ListOptions = {},
+  ): Promise<Result<CompactList>> {
+    const [error, response] = await AnkiDroid._getModelList<CompactList>(
+      options,
+      true,
+    );
+    if (error) {
+      await AnkiDroid.waitIfBusy(error);
+      return await AnkiDroid._getModelList<CompactList>(options, true);
+    }
+    return [error, response];
+  }
+
+  /**
+   * Private method with the logic
+   */
+  private static async _getModelList<T>(
+    options: ListOptions,
+    compact: boolean,
+  ): Promise<Result<T>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
+    try {
+      const models: T = await AnkiDroidModule.getModelList({
+        ...options,
+        compact,
+      });
+      return [null, models];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+  }
+
+  /**
+   * Gets all field names for a specific model
+   * @param modelName required if `modelId` is not used
+   * @param modelId required if `modelName` is not used
+   * @param options optional name prefix, offset and limit to get part of the list
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async getFieldList(
+    modelName?: string,
+    modelId?: number | string,
+    options: ListOptions = {},
+  ): Promise<Result<string[]>> {
+    const [error, response] = await AnkiDroid._getFieldList<string[]>(
+      modelName,
+      modelId,
+      options,
+      false,
+    );
+    if (error) {
+      await AnkiDroid.waitIfBusy(error);
+      return await AnkiDroid._getFieldList<string[]>(
+        modelName,
+        modelId,
+        options,
+        false,
+      );
+    }
+    return [error, response];
+  }
+
+  /**
+   * Same as `getFieldList`, but returns the field indexes as `ids` next to
+   * the `names`, so a filtered list still tells the position of each field
+   * @param modelName required if `modelId` is not used
+   * @param modelId required if `modelName` is not used
+   * @param options optional name prefix, offset and limit to get part of the list
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async getCompactFieldList(
+    modelName?: string,
+    modelId?: number | string,
+    options: ListOptions = {},
+  ): Promise<Result<CompactList>> {
+    const [error, response] = await AnkiDroid._getFieldList<CompactList>(
+      modelName,
+      modelId,
+      options,
+      true,
+    );
+    if (error) {
+      await AnkiDroid.waitIfBusy(error);
+      return await AnkiDroid._getFieldList<CompactList>(
+        modelName,
+        modelId,
+        options,
+        true,
+      );
+    }
+    return [error, response];
+  }
+
+  /**
+   * Private method with the logic
+   */
+  private static async _getFieldList<T>(
+    modelName: string | undefined,
+    modelId: number | string | undefined,
+    options: ListOptions,
+    compact: boolean,
+  ): Promise<Result<T>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
+    if (!modelName && !modelId) return [new Error(Errors.IDENTIFIER_MISSING)];
+    if (typeof modelId === 'number') {
+      modelId = modelId.toString();
+    }
+    try {
+      const fieldList: T = await AnkiDroidModule.getFieldList(
+        modelName || null,
+        modelId || null,
+        { ...options, compact },
+      );
+      return [null, fieldList];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+  }
+
+  /**
+   * Gets the name of the currently selected deck
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async getSelectedDeckName(): Promise<Result<string>> {
+    const [error, response] = await AnkiDroid._getSelectedDeckName();
+    if (error) {
+      await AnkiDroid.waitIfBusy(error);
+      return await AnkiDroid._getSelectedDeckName();
+    }
+    return [error, response];
+  }
+
+  /**
+   * Private method with the logic
+   */
+  private static async _getSelectedDeckName(): Promise<Result<string>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
+    try {
+      const deckName: string = await AnkiDroidModule.getSelectedDeckName();
+      return [null, deckName];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+  }
+
+  /**
+   * Clears the cached deck and model names so they are looked up again
+   * - use after decks or models were renamed or deleted in AnkiDroid
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async invalidateCache(): Promise<Result<boolean>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const invalidated: boolean = await AnkiDroidModule.invalidateCache();
+      return [null, invalidated];
     } catch (error) {
       console.warn(MODULE_NAME, error.toString());
       return [new Error(Errors.UNKNOWN_ERROR)];
     }
   }
+
   /**
-   * Gets the ID and name for all models
+   * Turn the native metrics on or off
+   * - disabled by default, in which case nothing is recorded
+   * @param options `{ enabled, eventIntervalMs }`
    * @return a tuple of any errors and the result `[error, result]`
    */
-  static async getModelList(): Promise<Result<Indentifier[]>> {
-    const [error, response] = await AnkiDroid._getModelList();
+  static async configureMetrics(
+    options: MetricsOptions,
+  ): Promise<Result<boolean>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const configured: boolean = await AnkiDroidModule.configureMetrics(
+        options || null,
+      );
+      return [null, configured];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [new Error(Errors.UNKNOWN_ERROR)];
+    }
+  }
+
+  /**
+   * Get the counters and latencies recorded by the native module
+   * @param reset `true` to start recording from zero again
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async getMetrics(reset: boolean = false): Promise<Result<Metrics>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const metrics: Metrics = await AnkiDroidModule.getMetrics(reset);
+      return [null, metrics];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [new Error(Errors.UNKNOWN_ERROR)];
+    }
+  }
+
+  /**
+   * Listen to the metrics sent every `eventIntervalMs`
+   * @param listener called with the metrics so far
+   * @return the subscription, call `remove()` on it to stop listening
+   */
+  static addMetricsListener(
+    listener: (metrics: Metrics) => void,
+  ): EmitterSubscription {
+    return DeviceEventEmitter.addListener(METRICS_EVENT, listener);
+  }
+
+  /**
+   * Cancel a job started with one of the `start...` methods
+   * - a queued job does not start, a running job stops after its current batch
+   * @param jobId
+   * @return a tuple of any errors and the result `[error, result]`
+   * @return `true` if the job was still queued or running
+   */
+  static async cancelJob(jobId: string): Promise<Result<boolean>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const cancelled: boolean = await AnkiDroidModule.cancelJob(jobId);
+      return [null, cancelled];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [new Error(Errors.UNKNOWN_ERROR)];
+    }
+  }
+
+  /**
+   * Get the state and progress of a job started with one of the `start...` methods
+   * @param jobId
+   * @return a tuple of any errors and the result `[error, result]`
+   * @return the job status, `null` if the job is unknown
+   */
+  static async getJobStatus<
+    T = AddNotesResult | ImportProgress | MediaBatchResult
+  >(
+    jobId: string,
+  ): Promise<Result<JobStatus<T> | null>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const status: JobStatus<T> | null = await AnkiDroidModule.getJobStatus(
+        jobId,
+      );
+      return [null, status];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [new Error(Errors.UNKNOWN_ERROR)];
+    }
+  }
+
+  /**
+   * Wait for a job started with one of the `start...` methods to finish
+   * @param jobId
+   * @return a tuple of any errors and the result `[error, result]`
+   * @return the result of the job, a `CANCELLED` error if it was cancelled
+   */
+  static async waitForJob<
+    T = AddNotesResult | ImportProgress | MediaBatchResult
+  >(
+    jobId: string,
+  ): Promise<Result<T>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    let jobResult: T | Errors;
+    try {
+      jobResult = await AnkiDroidModule.waitForJob(jobId);
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      if (error && error.code === Errors.CANCELLED) {
+        return [new Error(Errors.CANCELLED)];
+      }
+      return [AnkiDroid.getNativeError(error)];
+    }
+    if (typeof jobResult === 'string') {
+      console.warn(MODULE_NAME, jobResult);
+      // return the appropriate error
+      return [new Error(Errors[jobResult as string])];
+    }
+    return [null, jobResult as T];
+  }
+
+  /**
+   * Listen to the progress of `importNotesFromFile`
+   * - called after every batch and once more with `done: true` at the end
+   * @param listener called with the counts so far
+   * @return the subscription, call `remove()` on it to stop listening
+   */
+  static addImportProgressListener(
+    listener: (progress: ImportProgress) => void,
+  ): EmitterSubscription {
+    return DeviceEventEmitter.addListener(IMPORT_PROGRESS_EVENT, listener);
+  }
+
+  /**
+   * Upload media from the URI and get the correctly formatted string for the
+   * media file to be placed in the desired field of a card
+   *
+   * Notes to consider:
+   * * Both AnkiDroid and your app should have the
+   * `android.permission.MANAGE_EXTERNAL_STORAGE` permission granted if you wish
+   * to upload the file from external storage
+   *
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async uploadMediaFromUri(
+    fileUri: string,
+    preferredName: string,
+    mimeType: MEDIA_MIME_TYPE,
+  ): Promise<Result<string>> {
+    const [error, response] = await AnkiDroid._uploadMediaFromUri(
+      fileUri,
+      preferredName,
+      mimeType,
+    );
     if (error) {
-      return await AnkiDroid._getModelList();
+      await AnkiDroid.waitIfBusy(error);
+      return await AnkiDroid._uploadMediaFromUri(
+        fileUri,
+        preferredName,
+        mimeType,
+      );
     }
     return [error, response];
   }
@@ -183,84 +818,231 @@ export class AnkiDroid {
   /**
    * Private method with the logic
    */
-  private static async _getModelList(): Promise<Result<Indentifier[]>> {
+  private static async _uploadMediaFromUri(
+    fileUri: string,
+    preferredName: string,
+    mimeType: MEDIA_MIME_TYPE,
+  ): Promise<Result<string>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus && !AnkiDroid.offlineQueue)
+      return [new Error(Errors.PERMISSION_ERROR)];
+    try {
+      const formatMediaName: string = await AnkiDroidModule.uploadMediaFromUri(
+        fileUri,
+        preferredName,
+        mimeType,
+      );
+      return [null, formatMediaName];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+  }
+
+  /**
+   * Upload many media files, several at a time
+   * - content that was uploaded before, or that appears more than once in the
+   * batch, is only copied into AnkiDroid once
+   * - not retried on error, as part of the files may already have been copied
+   * @param media the files, see `uploadMediaFromUri` for the requirements
+   * @param options `{ concurrency }`
+   * @return a tuple of any errors and the result `[error, result]`
+   * @return the result of each file, in the order they were sent
+   */
+  static async uploadMediaBatch(
+    media: MediaFile[],
+    options?: MediaBatchOptions,
+  ): Promise<Result<MediaBatchResult>> {
+    return (await AnkiDroid._uploadMediaBatch(
+      media,
+      options,
+      false,
+    )) as Result<MediaBatchResult>;
+  }
+
+  /**
+   * Same as `uploadMediaBatch`, but returns the job ID right away
+   * - use `waitForJob`, `getJobStatus` and `cancelJob` with the ID
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async startUploadMediaBatch(
+    media: MediaFile[],
+    options?: MediaBatchOptions,
+  ): Promise<Result<string>> {
+    return (await AnkiDroid._uploadMediaBatch(
+      media,
+      options,
+      true,
+    )) as Result<string>;
+  }
+
+  /**
+   * Private method with the logic
+   */
+  private static async _uploadMediaBatch(
+    media: MediaFile[],
+    options: MediaBatchOptions | undefined,
+    asJob: boolean,
+  ): Promise<Result<MediaBatchResult | string>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
+    if (!Array.isArray(media)) return [new Error(Errors.TYPE_ERROR)];
+    try {
+      const upload = asJob
+        ? AnkiDroidModule.startUploadMediaBatch
+        : AnkiDroidModule.uploadMediaBatch;
+      const response: MediaBatchResult | string = await upload(
+        media,
+        options || null,
+      );
+      return [null, response];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+  }
+
+  /**
+   * Forget which media was uploaded before
+   * - use after media was deleted in AnkiDroid, so it is copied again
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async clearMediaCache(): Promise<Result<boolean>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const cleared: boolean = await AnkiDroidModule.clearMediaCache();
+      return [null, cleared];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+  }
+
+  /**
+   * Read notes a page at a time, ordered by ID
+   * - the query stays open natively between the pages, so only one page is held
+   * in memory at a time
+   * - pass the `cursor` of a page with the same `query` to get the next page,
+   * until it is `null`
+   * @param query the filter and the fields to return
+   * @param cursor `null` for the first page
+   * @return a tuple of any errors and the result `[error, result]`
+   */
+  static async queryNotes(
+    query: NoteQuery,
+    cursor: string | null = null,
+  ): Promise<Result<NotePage>> {
     if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
     const permissionStatus = await AnkiDroid.checkPermission();
     if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
     try {
-      const models: Indentifier[] = await AnkiDroidModule.getModelList();
-      return [null, models];
+      const page: NotePage = await AnkiDroidModule.queryNotes(query, cursor);
+      return [null, page];
     } catch (error) {
       console.warn(MODULE_NAME, error.toString());
-      return [new Error(Errors.UNKNOWN_ERROR)];
+      return [AnkiDroid.getNativeError(error)];
     }
   }
 
   /**
-   * Gets all field names for a specific model
-   * @param modelName required if `modelId` is not used
-   * @param modelId required if `modelName` is not used
+   * Close a note query when the remaining pages are not needed
+   * - queries that are not read for 5 minutes are closed anyway
+   * @param cursor the cursor of the last page that was read
    * @return a tuple of any errors and the result `[error, result]`
    */
-  static async getFieldList(
-    modelName?: string,
-    modelId?: number | string,
-  ): Promise<Result<string[]>> {
-    const [error, response] = await AnkiDroid._getFieldList(modelName, modelId);
-    if (error) {
-      return await AnkiDroid._getFieldList(modelName, modelId);
+  static async closeNoteQuery(cursor: string): Promise<Result<boolean>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const closed: boolean = await AnkiDroidModule.closeNoteQuery(cursor);
+      return [null, closed];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
     }
-    return [error, response];
   }
 
   /**
-   * Private method with the logic
+   * Update the fields of existing notes
+   * - the notes are read in chunks and only the notes whose fields changed are written
+   * @param noteIds the IDs returned by `addNote`
+   * @param fieldRows one array of fields per note, `null` entries keep the current value
+   * @return a tuple of any errors and the result `[error, result]`
    */
-  private static async _getFieldList(
-    modelName?: string,
-    modelId?: number | string,
-  ): Promise<Result<string[]>> {
+  static async updateNotes(
+    noteIds: string[],
+    fieldRows: (string | null)[][],
+  ): Promise<Result<UpdateNotesResult>> {
     if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
     const permissionStatus = await AnkiDroid.checkPermission();
     if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
-    if (!modelName && !modelId) return [new Error(Errors.IDENTIFIER_MISSING)];
-    if (typeof modelId === 'number') {
-      modelId = modelId.toString();
+    if (!Array.isArray(noteIds) || !Array.isArray(fieldRows)) {
+      return [new Error(Errors.TYPE_ERROR)];
     }
     try {
-      const fieldList: string[] = await AnkiDroidModule.getFieldList(
-        modelName || null,
-        modelId || null,
+      const updated: UpdateNotesResult = await AnkiDroidModule.updateNotes(
+        noteIds,
+        fieldRows,
       );
-      return [null, fieldList];
+      return [null, updated];
     } catch (error) {
       console.warn(MODULE_NAME, error.toString());
-      return [new Error(Errors.UNKNOWN_ERROR)];
+      return [AnkiDroid.getNativeError(error)];
     }
   }
 
   /**
-   * Gets the name of the currently selected deck
+   * Replace the tags of existing notes
+   * - the notes are read in chunks and only the notes whose tags changed are written
+   * @param noteIds the IDs returned by `addNote`
+   * @param tagRows one array of tags per note, `null` for no tags
    * @return a tuple of any errors and the result `[error, result]`
    */
-  static async getSelectedDeckName(): Promise<Result<string>> {
-    const [error, response] = await AnkiDroid._getSelectedDeckName();
-    if (error) {
-      return await AnkiDroid._getSelectedDeckName();
+  static async updateNoteTags(
+    noteIds: string[],
+    tagRows: (string[] | null)[],
+  ): Promise<Result<UpdateNotesResult>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
+    if (!Array.isArray(noteIds) || !Array.isArray(tagRows)) {
+      return [new Error(Errors.TYPE_ERROR)];
+    }
+    try {
+      const updated: UpdateNotesResult = await AnkiDroidModule.updateNoteTags(
+        noteIds,
+        tagRows,
+      );
+      return [null, updated];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
     }
-    return [error, response];
   }
 
   /**
-   * Private method with the logic
+   * Queue notes and media on the device while AnkiDroid is not installed, the
+   * permission is not granted or AnkiDroid fails to add a note
+   * - the queue is replayed in order once AnkiDroid can be reached, when the app
+   * is resumed, AnkiDroid is installed or `replayOfflineQueue` is called
+   * - `addNote` returns `QUEUED` instead of the note ID for a queued note
+   * - `uploadMediaFromUri` returns a placeholder for queued media, use it in the
+   * fields like the media name. The file must stay in place until it is replayed
+   * - `addNotes` and `startAddNotes` are not queued
+   * @param options `enabled` turns the queue on or off, queued notes are kept either way
+   * @return a tuple of any errors and the result `[error, result]`
    */
-  private static async _getSelectedDeckName(): Promise<Result<string>> {
+  static async configureOfflineQueue(
+    options: OfflineQueueOptions,
+  ): Promise<Result<boolean>> {
     if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
-    const permissionStatus = await AnkiDroid.checkPermission();
-    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
     try {
-      const deckName: string = await AnkiDroidModule.getSelectedDeckName();
-      return [null, deckName];
+      const configured: boolean = await AnkiDroidModule.configureOfflineQueue(
+        options,
+      );
+      AnkiDroid.offlineQueue = !!(options && options.enabled);
+      return [null, configured];
     } catch (error) {
       console.warn(MODULE_NAME, error.toString());
       return [new Error(Errors.UNKNOWN_ERROR)];
@@ -268,60 +1050,47 @@ export class AnkiDroid {
   }
 
   /**
-   * Upload media from the URI and get the correctly formatted string for the
-   * media file to be placed in the desired field of a card
-   *
-   * Notes to consider:
-   * * Both AnkiDroid and your app should have the
-   * `android.permission.MANAGE_EXTERNAL_STORAGE` permission granted if you wish
-   * to upload the file from external storage
-   *
+   * Add the queued notes and media now
+   * - only reports the number of queued writes if AnkiDroid can not be reached
    * @return a tuple of any errors and the result `[error, result]`
    */
-  static async uploadMediaFromUri(
-    fileUri: string,
-    preferredName: string,
-    mimeType: MEDIA_MIME_TYPE,
-  ): Promise<Result<string>> {
-    const [error, response] = await AnkiDroid._uploadMediaFromUri(
-      fileUri,
-      preferredName,
-      mimeType,
-    );
-    if (error) {
-      return await AnkiDroid._uploadMediaFromUri(
-        fileUri,
-        preferredName,
-        mimeType,
-      );
+  static async replayOfflineQueue(): Promise<Result<OfflineReplayResult>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    try {
+      const replayed: OfflineReplayResult = await AnkiDroidModule.replayOfflineQueue();
+      return [null, replayed];
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
     }
-    return [error, response];
   }
 
   /**
-   * Private method with the logic
+   * Drop the queued notes and media without adding them
+   * @return a tuple of any errors and the result `[error, result]`
    */
-  private static async _uploadMediaFromUri(
-    fileUri: string,
-    preferredName: string,
-    mimeType: MEDIA_MIME_TYPE,
-  ): Promise<Result<string>> {
+  static async clearOfflineQueue(): Promise<Result<boolean>> {
     if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
-    const permissionStatus = await AnkiDroid.checkPermission();
-    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
     try {
-      const formatMediaName: string = await AnkiDroidModule.uploadMediaFromUri(
-        fileUri,
-        preferredName,
-        mimeType,
-      );
-      return [null, formatMediaName];
+      const cleared: boolean = await AnkiDroidModule.clearOfflineQueue();
+      return [null, cleared];
     } catch (error) {
       console.warn(MODULE_NAME, error.toString());
-      return [new Error(Errors.UNKNOWN_ERROR)];
+      return [AnkiDroid.getNativeError(error)];
     }
   }
 
+  /**
+   * Listen to the replays of the offline queue that run on their own
+   * @param listener called with the counts of each replay
+   * @return the subscription, call `remove()` on it to stop listening
+   */
+  static addOfflineReplayListener(
+    listener: (result: OfflineReplayResult) => void,
+  ): EmitterSubscription {
+    return DeviceEventEmitter.addListener(OFFLINE_REPLAY_EVENT, listener);
+  }
+
   /////////////
   // PRIVATE //
   /////////////
@@ -505,6 +1274,12 @@ export class AnkiDroid {
       case NoteKeys.valueFields:
         errorText = ErrorText.ARRAY_OF_STRING;
         break;
+      case NoteKeys.valueFieldRows:
+        errorText = ErrorText.ARRAY_OF_STRING_ARRAYS;
+        break;
+      case NoteKeys.filePath:
+        errorText = ErrorText.STRING;
+        break;
       case NoteKeys.tags:
         errorText = ErrorText.ARRAY_OF_STRING_OR_NULL;
         break;
@@ -566,22 +1341,11 @@ export class AnkiDroid {
   }
 
   /**
-   * Private method with the logic
+   * gets the deck and model arguments shared by the native add methods
+   * @param modelFields
+   * @returns `Error` if not valid
    */
-  private async _addNote(
-    valueFields: string[],
-    modelFields: string[],
-  ): Promise<Result<string>> {
-    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
-    const permissionStatus = await AnkiDroid.checkPermission();
-    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
-
-    const noteErrorCheckResults = this.checkForAddNoteErrors({
-      valueFields,
-      modelFields,
-    });
-    if (noteErrorCheckResults) return [new Error(noteErrorCheckResults)];
-
+  private getNoteArgs(modelFields: string[]): Error | NoteArgs {
     let deckPropertiesToUse = {} as NewDeckProperties;
     let modelPropertiesToUse = {} as NewModelProperties;
     let { deckId, modelId } = this.settings;
@@ -592,7 +1356,7 @@ export class AnkiDroid {
       deckProperties,
     );
     if (deckIdAndProperties instanceof Error) {
-      return [deckIdAndProperties];
+      return deckIdAndProperties;
     } else {
       deckId = deckIdAndProperties[0];
       deckPropertiesToUse = deckIdAndProperties[1];
@@ -602,7 +1366,7 @@ export class AnkiDroid {
       modelProperties,
     );
     if (modelIdAndProperties instanceof Error) {
-      return [modelIdAndProperties];
+      return modelIdAndProperties;
     } else {
       modelId = modelIdAndProperties[0];
       modelPropertiesToUse = modelIdAndProperties[1] as NewModelProperties;
@@ -617,41 +1381,121 @@ export class AnkiDroid {
       tags = null,
       css = null,
     } = modelPropertiesToUse;
-    const modelName = modelPropertiesToUse.name;
-    const dbModelReference = modelPropertiesToUse.dbReference;
-    const deckName = deckPropertiesToUse.name;
-    const dbDeckReference = deckPropertiesToUse.dbReference;
 
     if (!modelId) {
       const errorCheckModelFields = this.checkIfModelFieldsAreTheSame(
         fields,
         modelFields,
       );
-      if (errorCheckModelFields) return [new Error(errorCheckModelFields)];
+      if (errorCheckModelFields) return new Error(errorCheckModelFields);
     }
 
-    let addedNoteId: string | Errors;
-    try {
-      addedNoteId = await AnkiDroidModule.addNote(
+    return {
+      deckName: deckPropertiesToUse.name,
+      deckId: deckId as string,
+      modelName: modelPropertiesToUse.name,
+      modelId: modelId as string,
+      dbDeckReference: deckPropertiesToUse.dbReference,
+      dbModelReference: modelPropertiesToUse.dbReference,
+      tags,
+      cardNames,
+      questionFormat,
+      answerFormat,
+      css,
+    };
+  }
+
+  /**
+   * @returns `true` if the settings use the handles of `provision`
+   */
+  private hasHandles(): boolean {
+    const { deckHandle, modelHandle } = this.settings;
+    return !!deckHandle && !!modelHandle;
+  }
+
+  /**
+   * Private method with the logic
+   */
+  private async _addNote(
+    valueFields: string[],
+    modelFields: string[],
+    idempotencyKey: string | null,
+  ): Promise<Result<string>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus && !AnkiDroid.offlineQueue)
+      return [new Error(Errors.PERMISSION_ERROR)];
+
+    let nativeAddNote: () => Promise<string | Errors>;
+    if (this.hasHandles()) {
+      if (
+        !Array.isArray(valueFields) ||
+        !this.checkValidString(valueFields)
+      ) {
+        this.logTypeError(NoteKeys.valueFields);
+        return [new Error(Errors.TYPE_ERROR)];
+      }
+      const { deckHandle, modelHandle } = this.settings;
+      // the model definition is already on the native side
+      nativeAddNote = () =>
+        AnkiDroidModule.addNoteByHandle(
+          deckHandle,
+          modelHandle,
+          valueFields,
+          null,
+          idempotencyKey,
+        );
+    } else {
+      const noteErrorCheckResults = this.checkForAddNoteErrors({
+        valueFields,
+        modelFields,
+      });
+      if (noteErrorCheckResults) return [new Error(noteErrorCheckResults)];
+
+      const noteArgs = this.getNoteArgs(modelFields);
+      if (noteArgs instanceof Error) return [noteArgs];
+      const {
         deckName,
         deckId,
         modelName,
         modelId,
         dbDeckReference,
         dbModelReference,
-        modelFields,
-        valueFields,
         tags,
         cardNames,
         questionFormat,
         answerFormat,
         css,
-      );
+      } = noteArgs;
+      nativeAddNote = () =>
+        AnkiDroidModule.addNote(
+          deckName,
+          deckId,
+          modelName,
+          modelId,
+          dbDeckReference,
+          dbModelReference,
+          modelFields,
+          valueFields,
+          tags,
+          cardNames,
+          questionFormat,
+          answerFormat,
+          css,
+          idempotencyKey,
+        );
+    }
+
+    let addedNoteId: string | Errors;
+    try {
+      addedNoteId = await nativeAddNote();
     } catch (error) {
       console.warn(MODULE_NAME, error.toString());
-      return [new Error(Errors.UNKNOWN_ERROR)];
+      return [AnkiDroid.getNativeError(error)];
     }
     try {
+      // queued while AnkiDroid could not be reached, added by a later replay
+      if (addedNoteId === QUEUED) return [null, QUEUED];
       const addedNoteIdInt = Number(addedNoteId);
       // check if we received
       if (!addedNoteId || isNaN(addedNoteIdInt)) {
@@ -666,6 +1510,212 @@ export class AnkiDroid {
     }
   }
 
+  /**
+   * Private method with the logic
+   */
+  private async _addNotes(
+    valueFieldRows: string[][],
+    modelFields: string[],
+    tagRows: (string[] | null)[] | null,
+    chunkSize: number,
+    skipDuplicates: boolean,
+    idempotencyKey: string | null,
+    asJob: boolean,
+  ): Promise<Result<AddNotesResult | string>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
+
+    if (!Array.isArray(valueFieldRows)) {
+      this.logTypeError(NoteKeys.valueFieldRows);
+      return [new Error(Errors.TYPE_ERROR)];
+    }
+    if (this.hasHandles()) {
+      const { deckHandle, modelHandle } = this.settings;
+      const nativeAddNotesByHandle = asJob
+        ? AnkiDroidModule.startAddNotesByHandle
+        : AnkiDroidModule.addNotesByHandle;
+      return this.getAddNotesResult(
+        () =>
+          nativeAddNotesByHandle(
+            deckHandle,
+            modelHandle,
+            valueFieldRows,
+            null,
+            tagRows,
+            chunkSize,
+            !!skipDuplicates,
+            idempotencyKey,
+          ),
+        asJob,
+      );
+    }
+    if (!Array.isArray(modelFields) || !this.checkValidString(modelFields)) {
+      this.logTypeError(NoteKeys.modelFields);
+      return [new Error(Errors.TYPE_ERROR)];
+    }
+
+    const noteArgs = this.getNoteArgs(modelFields);
+    if (noteArgs instanceof Error) return [noteArgs];
+    const {
+      deckName,
+      deckId,
+      modelName,
+      modelId,
+      dbDeckReference,
+      dbModelReference,
+      tags,
+      cardNames,
+      questionFormat,
+      answerFormat,
+      css,
+    } = noteArgs;
+
+    const nativeAddNotes = asJob
+      ? AnkiDroidModule.startAddNotes
+      : AnkiDroidModule.addNotes;
+    return this.getAddNotesResult(
+      () =>
+        nativeAddNotes(
+          deckName,
+          deckId,
+          modelName,
+          modelId,
+          dbDeckReference,
+          dbModelReference,
+          modelFields,
+          valueFieldRows,
+          tags,
+          tagRows,
+          cardNames,
+          questionFormat,
+          answerFormat,
+          css,
+          chunkSize,
+          !!skipDuplicates,
+          idempotencyKey,
+        ),
+      asJob,
+    );
+  }
+
+  /**
+   * Calls the native add notes method and converts its result
+   * @param nativeAddNotes
+   * @param asJob `true` if the native method returns a job ID
+   */
+  private async getAddNotesResult(
+    nativeAddNotes: () => Promise<AddNotesResult | Errors | string>,
+    asJob: boolean,
+  ): Promise<Result<AddNotesResult | string>> {
+    let addedNotes: AddNotesResult | Errors | string;
+    try {
+      addedNotes = await nativeAddNotes();
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+    // the job ID
+    if (asJob) return [null, addedNotes as string];
+    if (typeof addedNotes === 'string') {
+      console.warn(MODULE_NAME, addedNotes);
+      // return the appropriate error
+      return [new Error(Errors[addedNotes])];
+    }
+    return [null, addedNotes];
+  }
+
+  /**
+   * Private method with the logic
+   */
+  private async _importNotesFromFile(
+    filePath: string,
+    modelFields: string[],
+    options: ImportOptions,
+    asJob: boolean,
+  ): Promise<Result<ImportProgress | string>> {
+    if (!AnkiDroid.androidCheck()) return [new Error(Errors.OS_ERROR)];
+    const permissionStatus = await AnkiDroid.checkPermission();
+    if (!permissionStatus) return [new Error(Errors.PERMISSION_ERROR)];
+
+    if (typeof filePath !== 'string') {
+      this.logTypeError(NoteKeys.filePath);
+      return [new Error(Errors.TYPE_ERROR)];
+    }
+
+    let nativeImportNotes: () => Promise<ImportProgress | Errors | string>;
+    if (this.hasHandles()) {
+      const { deckHandle, modelHandle } = this.settings;
+      // the model definition is already on the native side
+      nativeImportNotes = () =>
+        (asJob
+          ? AnkiDroidModule.startImportNotesFromFileByHandle
+          : AnkiDroidModule.importNotesFromFileByHandle)(
+          filePath,
+          options,
+          deckHandle,
+          modelHandle,
+          null,
+        );
+    } else {
+      if (!Array.isArray(modelFields) || !this.checkValidString(modelFields)) {
+        this.logTypeError(NoteKeys.modelFields);
+        return [new Error(Errors.TYPE_ERROR)];
+      }
+
+      const noteArgs = this.getNoteArgs(modelFields);
+      if (noteArgs instanceof Error) return [noteArgs];
+      const {
+        deckName,
+        deckId,
+        modelName,
+        modelId,
+        dbDeckReference,
+        dbModelReference,
+        tags,
+        cardNames,
+        questionFormat,
+        answerFormat,
+        css,
+      } = noteArgs;
+      nativeImportNotes = () =>
+        (asJob
+          ? AnkiDroidModule.startImportNotesFromFile
+          : AnkiDroidModule.importNotesFromFile)(
+          filePath,
+          options,
+          deckName,
+          deckId,
+          modelName,
+          modelId,
+          dbDeckReference,
+          dbModelReference,
+          modelFields,
+          tags,
+          cardNames,
+          questionFormat,
+          answerFormat,
+          css,
+        );
+    }
+
+    let imported: ImportProgress | Errors | string;
+    try {
+      imported = await nativeImportNotes();
+    } catch (error) {
+      console.warn(MODULE_NAME, error.toString());
+      return [AnkiDroid.getNativeError(error)];
+    }
+    // the job ID
+    if (asJob) return [null, imported as string];
+    if (typeof imported === 'string') {
+      console.warn(MODULE_NAME, imported);
+      // return the appropriate error
+      return [new Error(Errors[imported])];
+    }
+    return [null, imported];
+  }
+
   ////////////
   // PUBLIC //
   ////////////
@@ -673,18 +1723,137 @@ export class AnkiDroid {
   /**
    * Create notes using the created deck model
    * @param valueFields length must match `modelFields`
-   * @param modelFields length must match the settings used when creating the deck
-   * @return a tuple of any errors and the result `[error, result]`
+   * @param modelFields length must match the settings used when creating the deck,
+   * not used with `deckHandle` and `modelHandle`
+   * @param idempotencyKey optional key of this note, a call with the key of an
+   * earlier successful call returns its note ID instead of adding the note again
+   * @return a tuple of any errors and the result `[error, result]`, with batching
+   * turned on the error can be `NOTE_ID_UNKNOWN` when the note may have been
+   * added but its ID could not be found
    * @return the added note ID
    */
   public async addNote(
     valueFields: string[],
     modelFields: string[],
+    idempotencyKey: string | null = null,
   ): Promise<Result<string>> {
-    const [error, response] = await this._addNote(valueFields, modelFields);
-    if (error) {
-      return await this._addNote(valueFields, modelFields);
+    const [error, response] = await this._addNote(
+      valueFields,
+      modelFields,
+      idempotencyKey,
+    );
+    // the note may have been added, a retry could add it again
+    if (error && error.message !== Errors.NOTE_ID_UNKNOWN) {
+      await AnkiDroid.waitIfBusy(error);
+      return await this._addNote(valueFields, modelFields, idempotencyKey);
     }
     return [error, response];
   }
+
+  /**
+   * Create many notes using the created deck model in as few calls as possible
+   * - the deck and model are resolved once and the notes are added in chunks
+   * - a failing chunk does not stop the following chunks
+   * - not retried, as part of the notes may already have been added
+   * @param valueFieldRows one `valueFields` array per note
+   * @param modelFields length must match the settings used when creating the deck,
+   * not used with `deckHandle` and `modelHandle`
+   * @param tagRows optional tags per note, `null` entries use the model tags
+   * @param chunkSize optional number of notes added per AnkiDroid call
+   * @param skipDuplicates optionally leave out notes whose first field already
+   * exists for the model, checked with one query per chunk
+   * @param idempotencyKey optional key of this call, a retry with the key and the
+   * same chunk size does not add the chunks that added notes again
+   * @return a tuple of any errors and the result `[error, result]`
+   * @return the added, duplicate and failed counts
+   */
+  public async addNotes(
+    valueFieldRows: string[][],
+    modelFields: string[],
+    tagRows: (string[] | null)[] | null = null,
+    chunkSize: number = 0,
+    skipDuplicates: boolean = false,
+    idempotencyKey: string | null = null,
+  ): Promise<Result<AddNotesResult>> {
+    return (await this._addNotes(
+      valueFieldRows,
+      modelFields,
+      tagRows,
+      chunkSize,
+      skipDuplicates,
+      idempotencyKey,
+      false,
+    )) as Result<AddNotesResult>;
+  }
+
+  /**
+   * Same as `addNotes`, but returns a job ID right away instead of waiting
+   * - use `AnkiDroid.waitForJob` for the result, `AnkiDroid.getJobStatus` for
+   * the progress and `AnkiDroid.cancelJob` to stop before the next chunk
+   * @return a tuple of any errors and the result `[error, result]`
+   * @return the job ID
+   */
+  public async startAddNotes(
+    valueFieldRows: string[][],
+    modelFields: string[],
+    tagRows: (string[] | null)[] | null = null,
+    chunkSize: number = 0,
+    skipDuplicates: boolean = false,
+    idempotencyKey: string | null = null,
+  ): Promise<Result<string>> {
+    return (await this._addNotes(
+      valueFieldRows,
+      modelFields,
+      tagRows,
+      chunkSize,
+      skipDuplicates,
+      idempotencyKey,
+      true,
+    )) as Result<string>;
+  }
+
+  /**
+   * Import notes from a local TSV, CSV or JSON lines file using the created deck model
+   * - the file is read natively one row at a time, the notes never pass through JS
+   * - progress is reported through `AnkiDroid.addImportProgressListener`
+   * - not retried, as part of the notes may already have been added
+   * @param filePath path of the file to import
+   * @param modelFields length must match the settings used when creating the deck,
+   * not used with `deckHandle` and `modelHandle`
+   * @param options format, columns and batching options
+   * @return a tuple of any errors and the result `[error, result]`
+   * @return the read, added, duplicate and failed counts
+   */
+  public async importNotesFromFile(
+    filePath: string,
+    modelFields: string[],
+    options: ImportOptions = {},
+  ): Promise<Result<ImportProgress>> {
+    return (await this._importNotesFromFile(
+      filePath,
+      modelFields,
+      options,
+      false,
+    )) as Result<ImportProgress>;
+  }
+
+  /**
+   * Same as `importNotesFromFile`, but returns a job ID right away instead of waiting
+   * - use `AnkiDroid.waitForJob` for the result, `AnkiDroid.getJobStatus` for
+   * the progress and `AnkiDroid.cancelJob` to stop after the current batch
+   * @return a tuple of any errors and the result `[error, result]`
+   * @return the job ID
+   */
+  public async startImportNotesFromFile(
+    filePath: string,
+    modelFields: string[],
+    options: ImportOptions = {},
+  ): Promise<Result<string>> {
+    return (await this._importNotesFromFile(
+      filePath,
+      modelFields,
+      options,
+      true,
+    )) as Result<string>;
+  }
 }
@@ -2,6 +2,22 @@
  * main module name
  */
 export const MODULE_NAME = 'REACT NATIVE ANKIDROID';
+/**
+ * event sent with the progress of `importNotesFromFile`
+ */
+export const IMPORT_PROGRESS_EVENT = 'AnkiDroidImportProgress';
+/**
+ * event sent with the metrics when `configureMetrics` sets `eventIntervalMs`
+ */
+export const METRICS_EVENT = 'AnkiDroidMetrics';
+/**
+ * event sent with the counts when the offline queue was replayed on its own
+ */
+export const OFFLINE_REPLAY_EVENT = 'AnkiDroidOfflineReplay';
+/**
+ * returned by `addNote` in place of the note ID when the note was queued
+ */
+export const QUEUED = 'QUEUED';
 /**
  * misc error text for logging
  */
@@ -15,6 +31,7 @@ export enum ErrorText {
   STRING = 'must be a string',
   ARRAY_OF_STRING = 'must be an array of strings',
   ARRAY_OF_STRING_OR_NULL = 'must be an array of strings or null',
+  ARRAY_OF_STRING_ARRAYS = 'must be an array of string arrays',
   ARRAY_LENGTH_2 = 'must be an array with a length of 2',
   ARRAY_SAME_LENGTH = 'model and value fields must be the same length',
   MODEL_FIELDS_DIFFERENT = 'the saved model fields and model fields submitted with the note are different',
@@ -33,7 +50,15 @@ export enum Errors {
   FAILED_TO_CREATE_DECK = 'FAILED_TO_CREATE_DECK',
   FAILED_TO_CREATE_MODEL = 'FAILED_TO_CREATE_MODEL',
   FAILED_TO_ADD_NOTE = 'FAILED_TO_ADD_NOTE',
+  /**
+   * a batched note may have been added, but its ID could not be found, e.g.
+   * because a sync added a note with the same first field at the same time.
+   * Not retried, look the note up by its first field if the ID is needed
+   */
+  NOTE_ID_UNKNOWN = 'NOTE_ID_UNKNOWN',
   IDENTIFIER_MISSING = 'IDENTIFIER_MISSING',
+  BUSY = 'BUSY',
+  CANCELLED = 'CANCELLED',
 }
 
 /** Result tuple for anything that may return an error */
@@ -67,6 +92,10 @@ export interface Settings {
   deckProperties?: NewDeckProperties;
   modelId?: ID;
   modelProperties?: NewModelProperties;
+  /** a deck handle returned by `provision`, used instead of `deckId` and `deckProperties` */
+  deckHandle?: string;
+  /** a model handle returned by `provision`, used instead of `modelId` and `modelProperties` */
+  modelHandle?: string;
 }
 export interface Note extends Settings {
   valueFields: string[];
@@ -83,6 +112,8 @@ export enum NoteKeys {
   dbModelReference = 'dbModelReference',
   modelFields = 'modelFields',
   valueFields = 'valueFields',
+  valueFieldRows = 'valueFieldRows',
+  filePath = 'filePath',
   cardNames = 'cardNames',
   questionFormat = 'questionFormat',
   answerFormat = 'answerFormat',
@@ -97,3 +128,426 @@ export interface Indentifier {
   id: string;
   name: string;
 }
+
+/**
+ * Options for the deck, model and field lists, all optional
+ */
+export interface ListOptions {
+  /** only names starting with it, ignoring case */
+  prefix?: string;
+  /** matching entries to skip */
+  offset?: number;
+  /** maximum number of entries, all if missing */
+  limit?: number;
+}
+
+/**
+ * Options for `getDeckSubtree`, all optional
+ */
+export interface DeckSubtreeOptions {
+  /**
+   * also match decks whose last name part starts with the last part of the name,
+   * e.g. `'Course::Unit'` matches `'Course::Unit 1'` and `'Course::Unit 2'`
+   */
+  prefix?: boolean;
+  /** levels below the matched decks, all if missing */
+  maxDepth?: number;
+}
+
+/**
+ * A deck of `getDeckSubtree`
+ */
+export interface DeckNode extends Indentifier {
+  /** 0 for the matched decks, 1 for their children and so on */
+  depth: number;
+}
+
+/**
+ * `getDeckSubtree` as parallel arrays
+ */
+export interface CompactDeckTree {
+  ids: number[];
+  names: string[];
+  depths: number[];
+  total: number;
+}
+
+/**
+ * Result of `createDecks`
+ */
+export interface CreateDecksResult {
+  /** one per deck name, `null` if the deck could not be created */
+  ids: (string | null)[];
+  /** number of decks that were created */
+  created: number;
+}
+
+/**
+ * A model for `provision`
+ */
+export interface ProvisionModelProperties extends NewModelProperties {
+  /** name of the deck the model is created for, the AnkiDroid default if missing */
+  deckName?: string;
+}
+
+/**
+ * The decks and models for `provision`
+ */
+export interface ProvisionManifest {
+  decks?: NewDeckProperties[];
+  models?: ProvisionModelProperties[];
+}
+
+/**
+ * - `PENDING`: not looked up yet, e.g. without the permission
+ * - `READY`: found, a model also has the fields of its definition
+ * - `MISSING`: not in AnkiDroid yet, created by `provision` or the first note
+ * - `MISMATCH`: a model with the name exists, but with other fields
+ * - `FAILED`: could not be created
+ */
+export type ProvisionStatus =
+  | 'PENDING'
+  | 'READY'
+  | 'MISSING'
+  | 'MISMATCH'
+  | 'FAILED';
+
+/**
+ * A registered deck or model
+ */
+export interface Provisioned {
+  /** pass it as `deckHandle` or `modelHandle` in the settings, stays the same between app starts */
+  handle: string;
+  name: string;
+  /** `null` until the deck or model was found or created */
+  id: string | null;
+  status: ProvisionStatus;
+}
+
+/**
+ * Result of `provision` and `getProvisioned`
+ */
+export interface ProvisionResult {
+  decks: Provisioned[];
+  models: Provisioned[];
+}
+
+/**
+ * A deck, model or field list as parallel arrays
+ */
+export interface CompactList {
+  /** deck or model IDs, field indexes for fields */
+  ids: number[];
+  names: string[];
+  /** number of entries that match the prefix, before `offset` and `limit` */
+  total: number;
+}
+
+/**
+ * deck and model arguments shared by the native add methods
+ */
+export interface NoteArgs {
+  deckName?: string;
+  deckId?: string;
+  modelName?: string;
+  modelId?: string;
+  dbDeckReference?: string;
+  dbModelReference?: string;
+  tags: string[] | null;
+  cardNames?: string[];
+  questionFormat?: string[];
+  answerFormat?: string[];
+  css: string | null;
+}
+
+/**
+ * Result of a single chunk of `addNotes`
+ * - `failedRows` only lists rows that were invalid or in a chunk that failed completely,
+ * AnkiDroid only reports how many notes of a chunk were added
+ */
+export interface AddNotesChunkResult {
+  start: number;
+  size: number;
+  added: number;
+  failed: number;
+  failedRows: number[];
+  /** rows left out by `skipDuplicates` */
+  duplicates: number;
+  duplicateRows: number[];
+  error: string | null;
+  /** added by an earlier call with the same idempotency key, not added again */
+  replayed: boolean;
+}
+
+/**
+ * Result of `addNotes`
+ */
+export interface AddNotesResult {
+  added: number;
+  failed: number;
+  failedRows: number[];
+  /** rows left out by `skipDuplicates` */
+  duplicates: number;
+  duplicateRows: number[];
+  /** notes added by an earlier call with the same idempotency key */
+  replayed: number;
+  chunks: AddNotesChunkResult[];
+}
+
+/**
+ * Returned when the native queue is full
+ * - `retryAfter` is the suggested delay in ms before trying again
+ */
+export interface BusyError extends Error {
+  retryAfter: number;
+}
+
+/**
+ * Thread and queue sizes for the native operations
+ */
+export interface QueueOptions {
+  /** operations that change the collection at the same time, only 1 is allowed so they run in order */
+  writeThreads?: number;
+  /** operations that change the collection waiting to run, default 1000 */
+  writeQueueSize?: number;
+  /** read only operations at the same time, default 2 */
+  readThreads?: number;
+  /** read only operations waiting to run, default 100 */
+  readQueueSize?: number;
+}
+
+/**
+ * Batching of single `addNote` calls
+ */
+export interface NoteBatchingOptions {
+  /** how long the first note of a batch waits for more notes, 0 to add every note on its own (default) */
+  windowMs?: number;
+  /** notes that are added right away without waiting, default 250 */
+  maxBatchSize?: number;
+}
+
+/**
+ * Filter and projection for `queryNotes`, all optional
+ */
+export interface NoteQuery {
+  modelId?: ID;
+  deckId?: ID;
+  /** Anki search syntax, e.g. `'tag:vocab'` */
+  search?: string;
+  /**
+   * field names (needs `modelId`) or 0 based indexes to return, all fields if missing
+   * - an empty array returns no fields, so AnkiDroid does not send them
+   */
+  fields?: (string | number)[];
+  /** default `true` */
+  includeTags?: boolean;
+  /** notes per page, default 500, at most 5000 */
+  pageSize?: number;
+}
+
+/**
+ * A note returned by `queryNotes`
+ */
+export interface QueriedNote {
+  id: string;
+  modelId: string;
+  /** the requested fields, missing if `fields` was an empty array */
+  fields?: string[];
+  tags?: string[];
+}
+
+/**
+ * A page of `queryNotes`
+ */
+export interface NotePage {
+  notes: QueriedNote[];
+  /** pass to `queryNotes` for the next page, `null` after the last page */
+  cursor: string | null;
+  /** number of notes found by the query */
+  total: number;
+}
+
+/**
+ * Counts of `updateNotes` and `updateNoteTags`
+ */
+export interface UpdateNotesResult {
+  total: number;
+  /** notes whose values changed and were written */
+  updated: number;
+  /** notes that already had the values, nothing was written */
+  unchanged: number;
+  notFound: number;
+  /** notes AnkiDroid did not update, or with more fields than their model */
+  failed: number;
+  notFoundIds: string[];
+  failedIds: string[];
+}
+
+/**
+ * Options for `configureOfflineQueue`
+ */
+export interface OfflineQueueOptions {
+  /** queue notes and media while AnkiDroid can not be reached, default false */
+  enabled?: boolean;
+}
+
+/**
+ * Counts of a replay of the offline queue
+ */
+export interface OfflineReplayResult {
+  added: number;
+  /** notes left out because a replay that stopped half way had added them */
+  duplicates: number;
+  /** notes and media that AnkiDroid did not accept, they are not retried */
+  failed: number;
+  media: number;
+  /** notes and media still queued */
+  remaining: number;
+  /** why the replay stopped before the end of the queue, null if it did not */
+  error: string | null;
+}
+
+/**
+ * Options for `importNotesFromFile`
+ */
+export interface ImportOptions {
+  /** `'tsv'`, `'csv'` or `'jsonl'`, defaults to the file extension */
+  format?: 'tsv' | 'csv' | 'jsonl';
+  /**
+   * column for each model field, either a header name / JSON key or a 0 based index
+   * - defaults to the model field names when there are names, otherwise the first columns
+   */
+  columns?: (string | number)[];
+  /** the first TSV or CSV row holds the column names, default `true` for CSV */
+  hasHeader?: boolean;
+  /** column with space separated tags, added to the model tags, rows without it only get the model tags */
+  tagsColumn?: string | number;
+  /** notes added per AnkiDroid call, default 250, at most 5000 */
+  batchSize?: number;
+  /** leave out notes whose first field already exists for the model */
+  skipDuplicates?: boolean;
+  /** sent with each progress event, defaults to the file path */
+  importId?: string;
+}
+
+/**
+ * Progress and result of `importNotesFromFile`
+ */
+export interface ImportProgress {
+  importId: string;
+  read: number;
+  added: number;
+  duplicates: number;
+  failed: number;
+  done: boolean;
+  /** the last error AnkiDroid returned for a batch, `null` if there was none */
+  error: string | null;
+}
+
+/**
+ * State and progress of a job started with one of the `start...` methods
+ */
+export interface JobStatus<T> {
+  id: string;
+  type: string;
+  state: 'QUEUED' | 'RUNNING' | 'COMPLETED' | 'FAILED' | 'CANCELLED';
+  /** the counts so far, `null` until the job starts adding notes */
+  progress: T | null;
+  /** the final result, or an error code such as `FAILED_TO_CREATE_DECK` */
+  result: T | string | null;
+  error: string | null;
+}
+
+/**
+ * A file for `uploadMediaBatch`
+ */
+export interface MediaFile {
+  fileUri: string;
+  preferredName: string;
+  mimeType: MEDIA_MIME_TYPE;
+}
+
+/**
+ * Options for `uploadMediaBatch`
+ */
+export interface MediaBatchOptions {
+  /** files hashed and uploaded at the same time, default 4, at most 8 */
+  concurrency?: number;
+}
+
+/**
+ * Result of one file of `uploadMediaBatch`
+ */
+export interface MediaFileResult {
+  fileUri: string;
+  /** the formatted media name, `null` if the upload failed */
+  name: string | null;
+  /** `true` if the same content was uploaded before and was not copied again */
+  cached: boolean;
+  error: string | null;
+  /** bytes not copied because the image was shrunk first, see `configureMediaProcessing` */
+  bytesSaved: number;
+}
+
+/**
+ * Result of `uploadMediaBatch`, the files are in the order they were sent
+ */
+export interface MediaBatchResult {
+  total: number;
+  uploaded: number;
+  cached: number;
+  failed: number;
+  /** bytes saved by shrinking images over all files */
+  bytesSaved: number;
+  files: MediaFileResult[];
+}
+
+/**
+ * Options for `configureMediaProcessing`
+ */
+export interface MediaProcessingOptions {
+  /** largest width or height in pixels, 0 to keep the size (default) */
+  maxDimension?: number;
+  /** format of the processed images, `'original'` only scales them down. Missing turns processing off unless `maxDimension` is set */
+  format?: 'jpeg' | 'webp' | 'original';
+  /** 0 to 100 for JPEG and WebP, default 85 */
+  quality?: number;
+}
+
+/**
+ * Options for `configureMetrics`
+ */
+export interface MetricsOptions {
+  /** record counters and latencies, default `false` */
+  enabled?: boolean;
+  /** send the metrics as an event this often, default 0 for no events */
+  eventIntervalMs?: number;
+}
+
+/**
+ * Latencies of one native operation or stage, percentiles are rounded up to
+ * the next power of two microseconds
+ */
+export interface TimerMetrics {
+  count: number;
+  errors: number;
+  totalMs: number;
+  meanMs: number;
+  p50Ms: number;
+  p90Ms: number;
+  p99Ms: number;
+  maxMs: number;
+}
+
+/**
+ * Counters and latencies recorded since `since`
+ * - timers are named after the method, e.g. `addNote`, stages start with
+ * `stage.` and queue waits with `queue.`
+ */
+export interface Metrics {
+  enabled: boolean;
+  /** when recording started, in ms since the epoch */
+  since: number;
+  counters: { [name: string]: number };
+  timers: { [name: string]: TimerMetrics };
+}